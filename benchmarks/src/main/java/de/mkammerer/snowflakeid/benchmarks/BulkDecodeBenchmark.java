@@ -0,0 +1,98 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.decoder.IdDecoder;
+import de.mkammerer.snowflakeid.decoder.IdHistogram;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the bulk methods of {@link IdDecoder} and {@link IdHistogram} with per-id loops, on unsorted ids of one
+ * hour. The results are per id.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkDecodeBenchmark {
+    private static final int IDS = 4096;
+    private static final Instant FROM = Instant.parse("2020-01-01T00:00:00Z");
+    private static final Duration INTERVAL = Duration.ofSeconds(1);
+
+    private final long[] ids = new long[IDS];
+    private final long[] dst = new long[IDS];
+    private final long[] counts = new long[3600];
+    private IdDecoder decoder;
+    private IdHistogram histogram;
+
+    @Setup
+    public void setUp() {
+        decoder = new IdDecoder(Structure.createDefault(), MonotonicTimeSource.createDefault());
+        histogram = new IdHistogram(decoder, FROM, INTERVAL, counts.length);
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < IDS; i++) {
+            ids[i] = (random.nextLong(3_600_000) << 22) | random.nextLong(1L << 22);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public long[] timestampsPerId() {
+        for (int i = 0; i < IDS; i++) {
+            dst[i] = decoder.timestampOf(ids[i]);
+        }
+        return dst;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public long[] timestampsBulk() {
+        decoder.timestampsOf(ids, 0, IDS, dst, 0);
+        return dst;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public long[] histogramPerId() {
+        long intervalMillis = INTERVAL.toMillis();
+        for (int i = 0; i < IDS; i++) {
+            long bucket = decoder.timestampOf(ids[i]) / intervalMillis;
+            if (bucket < counts.length) {
+                counts[(int) bucket]++;
+            }
+        }
+        return counts;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public IdHistogram histogramBulk() {
+        histogram.add(ids, 0, IDS);
+        return histogram;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public int filterBulk() {
+        return decoder.filterByTime(ids, 0, IDS, FROM.plusSeconds(900), FROM.plusSeconds(2700), dst, 0);
+    }
+}
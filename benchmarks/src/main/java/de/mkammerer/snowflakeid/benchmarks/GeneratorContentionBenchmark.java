@@ -0,0 +1,96 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.StripedSnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures the throughput of a single generator shared by multiple threads.
+ * <p>
+ * Uses 21 sequence bits, so that the generators are limited by contention and not by sequence overflows.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorContentionBenchmark {
+    private static final Structure STRUCTURE = new Structure(40, 2, 21);
+
+    @Param({"LOCK", "LOCK_FREE", "STRIPED"})
+    private String generator;
+
+    private LongSupplier sut;
+
+    @Setup
+    public void setUp() {
+        switch (generator) {
+            case "LOCK":
+            case "LOCK_FREE":
+                Options options = Options.createDefault().withConcurrencyStrategy(Options.ConcurrencyStrategy.valueOf(generator));
+                sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), STRUCTURE, options)::next;
+                break;
+            case "STRIPED":
+                sut = StripedSnowflakeIdGenerator.createCustom(0, 64, MonotonicTimeSource.createDefault(), STRUCTURE, Options.createDefault())::next;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown generator: " + generator);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long threads01() {
+        return sut.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long threads02() {
+        return sut.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long threads04() {
+        return sut.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long threads08() {
+        return sut.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long threads16() {
+        return sut.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long threads64() {
+        return sut.getAsLong();
+    }
+}
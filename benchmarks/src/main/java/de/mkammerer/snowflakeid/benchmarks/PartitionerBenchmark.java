@@ -0,0 +1,68 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.partition.IdPartitioner;
+import de.mkammerer.snowflakeid.structure.Structure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link IdPartitioner} with {@code Long.hashCode(id) % partitions}, on consecutive ids of a few ticks. The
+ * results are per id.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionerBenchmark {
+    private static final int IDS = 4096;
+
+    @Param({"12", "1024"})
+    private int partitions;
+
+    @Param({"GENERATOR", "HASH"})
+    private IdPartitioner.Mode mode;
+
+    private final long[] ids = new long[IDS];
+    private final int[] dst = new int[IDS];
+    private IdPartitioner partitioner;
+
+    @Setup
+    public void setUp() {
+        partitioner = mode == IdPartitioner.Mode.GENERATOR ? IdPartitioner.byGenerator(Structure.createDefault(), partitions) : IdPartitioner.byHash(Structure.createDefault(), partitions);
+        for (int i = 0; i < IDS; i++) {
+            ids[i] = ((100L + i / 1024) << 22) | ((i % 1024) << 12) | (i % 1024);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public int[] modulo() {
+        for (int i = 0; i < IDS; i++) {
+            dst[i] = Math.floorMod(Long.hashCode(ids[i]), partitions);
+        }
+        return dst;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public int[] partitioner() {
+        partitioner.partitionsOf(ids, 0, IDS, dst, 0);
+        return dst;
+    }
+}
@@ -0,0 +1,61 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sequence overflow strategies under forced overflow.
+ * <p>
+ * Uses structures with tiny sequences, so nearly every tick overflows. {@code THROW_EXCEPTION} measures the cost of the
+ * exception, the other strategies measure the time a caller waits on average.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceOverflowBenchmark {
+    /**
+     * Every strategy is benchmarked, if no value is given.
+     */
+    @Param
+    private Options.SequenceOverflowStrategy strategy;
+
+    @Param({"1", "4"})
+    private int sequenceBits;
+
+    private SnowflakeIdGenerator sut;
+
+    @Setup
+    public void setUp() {
+        Structure structure = new Structure(63 - 10 - sequenceBits, 10, sequenceBits);
+        sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), structure, new Options(strategy));
+    }
+
+    @Benchmark
+    public long next() {
+        try {
+            return sut.next();
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.CachedTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the generic generator with the specialized one, see
+ * {@link SnowflakeIdGenerator#createSpecialized(long, TimeSource, Structure, Options)}.
+ * <p>
+ * With {@code MEGAMORPHIC}, generators with three different time sources are warmed up before the measurement, like in
+ * an application which uses several time source implementations. Uses 21 sequence bits, so that the generators aren't
+ * limited by sequence overflows.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecializedGeneratorBenchmark {
+    private static final Structure STRUCTURE = new Structure(40, 2, 21);
+    private static final int WARMUP_IDS = 100_000;
+
+    @Param({"GENERIC", "SPECIALIZED"})
+    private String generator;
+
+    @Param({"MONOMORPHIC", "MEGAMORPHIC"})
+    private String profile;
+
+    @Param({"LOCK", "LOCK_FREE"})
+    private Options.ConcurrencyStrategy concurrencyStrategy;
+
+    private CachedTimeSource cachedTimeSource;
+    private SnowflakeIdGenerator sut;
+
+    @Setup
+    public void setUp() {
+        if (profile.equals("MEGAMORPHIC")) {
+            cachedTimeSource = CachedTimeSource.createDefault();
+            for (TimeSource timeSource : new TimeSource[]{cachedTimeSource, new CurrentTimeMillisTimeSource(), MonotonicTimeSource.createDefault()}) {
+                SnowflakeIdGenerator warmup = create(timeSource);
+                for (int i = 0; i < WARMUP_IDS; i++) {
+                    warmup.next();
+                }
+            }
+        }
+        sut = create(MonotonicTimeSource.createDefault());
+    }
+
+    private SnowflakeIdGenerator create(TimeSource timeSource) {
+        Options options = Options.createDefault().withConcurrencyStrategy(concurrencyStrategy);
+        switch (generator) {
+            case "GENERIC":
+                return SnowflakeIdGenerator.createCustom(0, timeSource, STRUCTURE, options);
+            case "SPECIALIZED":
+                return SnowflakeIdGenerator.createSpecialized(0, timeSource, STRUCTURE, options);
+            default:
+                throw new IllegalArgumentException("Unknown generator: " + generator);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (cachedTimeSource != null) {
+            cachedTimeSource.close();
+        }
+    }
+
+    @Benchmark
+    public long next() {
+        return sut.next();
+    }
+
+    /**
+     * Non-monotonic time source based on {@link System#currentTimeMillis()}, to add a third implementation.
+     */
+    private static class CurrentTimeMillisTimeSource implements TimeSource {
+        private final Instant epoch = Instant.parse("2020-01-01T00:00:00Z");
+        private final long epochMillis = epoch.toEpochMilli();
+
+        @Override
+        public long getTicks() {
+            return System.currentTimeMillis() - epochMillis;
+        }
+
+        @Override
+        public Duration getTickDuration() {
+            return Duration.ofMillis(1);
+        }
+
+        @Override
+        public Instant getEpoch() {
+            return epoch;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.mkammerer.snowflakeid.benchmarks;
+
+import de.mkammerer.snowflakeid.time.CachedTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of {@link TimeSource#getTicks()} for the different time sources.
+ *
+ * @author Moritz Halbritter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeSourceBenchmark {
+    @Param({"MONOTONIC", "CACHED", "CURRENT_TIME_MILLIS"})
+    private String timeSource;
+
+    private TimeSource sut;
+
+    @Setup
+    public void setUp() {
+        switch (timeSource) {
+            case "MONOTONIC":
+                sut = MonotonicTimeSource.createDefault();
+                break;
+            case "CACHED":
+                sut = CachedTimeSource.createDefault();
+                break;
+            case "CURRENT_TIME_MILLIS":
+                sut = new CurrentTimeMillisTimeSource();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown time source: " + timeSource);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (sut instanceof AutoCloseable) {
+            ((AutoCloseable) sut).close();
+        }
+    }
+
+    @Benchmark
+    public long getTicks() {
+        return sut.getTicks();
+    }
+
+    /**
+     * Non-monotonic time source based on {@link System#currentTimeMillis()}, as a baseline.
+     */
+    private static class CurrentTimeMillisTimeSource implements TimeSource {
+        private final Instant epoch = Instant.parse("2020-01-01T00:00:00Z");
+        private final long epochMillis = epoch.toEpochMilli();
+
+        @Override
+        public long getTicks() {
+            return System.currentTimeMillis() - epochMillis;
+        }
+
+        @Override
+        public Duration getTickDuration() {
+            return Duration.ofMillis(1);
+        }
+
+        @Override
+        public Instant getEpoch() {
+            return epoch;
+        }
+    }
+}
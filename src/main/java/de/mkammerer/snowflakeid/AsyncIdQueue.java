@@ -0,0 +1,153 @@
+package de.mkammerer.snowflakeid;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues the callers of {@link SnowflakeIdGenerator#nextAsync(Executor)} which can't get an id in the current tick.
+ * <p>
+ * All waiting callers share a single scheduled wake-up. It reserves ids for all waiters at once, and schedules the next
+ * wake-up if the ids of the tick run out again. Waiters are served in FIFO order: while callers wait, new callers queue
+ * behind them instead of taking an id directly. Futures are completed on the executor of their caller, or directly on the
+ * wake-up thread if the caller used the same executor. Reserved ids of waiters which have been cancelled in the meantime
+ * are lost.
+ *
+ * @author Moritz Halbritter
+ */
+final class AsyncIdQueue {
+    private final SnowflakeIdGenerator generator;
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    /**
+     * Whether a wake-up is scheduled or running. Only the thread which sets this schedules a wake-up.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    AsyncIdQueue(SnowflakeIdGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Returns a future of the next id.
+     *
+     * @param executor  the executor to complete the future on, if it can't be completed immediately
+     * @param scheduler schedules the wake-up
+     * @return the future
+     */
+    CompletableFuture<Long> next(Executor executor, Scheduler scheduler) {
+        // Only take the fast path if nobody waits, otherwise new callers would take the ids of the next tick from the
+        // waiters, which could starve under sustained load
+        if (waiters.isEmpty()) {
+            long id = generator.tryReserveRun(1);
+            if (id >= 0) {
+                return CompletableFuture.completedFuture(id);
+            }
+            if (id == Sequencer.SEQUENCE_OVERFLOW && generator.throwsOnSequenceOverflow()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Sequence overflow"));
+            }
+        }
+
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        waiters.add(new Waiter(future, executor));
+        if (scheduled.compareAndSet(false, true)) {
+            schedule(executor, scheduler);
+        }
+        return future;
+    }
+
+    private void schedule(Executor executor, Scheduler scheduler) {
+        try {
+            scheduler.schedule(() -> wakeUp(executor, scheduler), generator.nanosUntilNextId());
+        } catch (RuntimeException e) {
+            failAll(e);
+        }
+    }
+
+    /**
+     * Reserves ids for the waiters. Runs on {@code executor}, and only once at a time.
+     */
+    private void wakeUp(Executor executor, Scheduler scheduler) {
+        try {
+            while (!waiters.isEmpty()) {
+                int count = waiters.size();
+                long first = generator.tryReserveRun(count);
+                if (first < 0) {
+                    schedule(executor, scheduler);
+                    return;
+                }
+                int run = generator.runLength(first, count);
+                for (int i = 0; i < run; i++) {
+                    Waiter waiter = pollLive();
+                    if (waiter == null) {
+                        break;
+                    }
+                    waiter.complete(first + i, executor);
+                }
+            }
+        } catch (RuntimeException e) {
+            failAll(e);
+            return;
+        }
+        scheduled.set(false);
+        // A waiter which has been added after the queue has been seen empty couldn't schedule a wake-up
+        if (!waiters.isEmpty() && scheduled.compareAndSet(false, true)) {
+            schedule(executor, scheduler);
+        }
+    }
+
+    private Waiter pollLive() {
+        Waiter waiter;
+        do {
+            waiter = waiters.poll();
+        } while (waiter != null && waiter.future.isDone());
+        return waiter;
+    }
+
+    private void failAll(RuntimeException e) {
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            waiter.future.completeExceptionally(e);
+        }
+        scheduled.set(false);
+    }
+
+    /**
+     * Schedules a task after a delay.
+     */
+    @FunctionalInterface
+    interface Scheduler {
+        /**
+         * Schedules the given task.
+         *
+         * @param task  the task
+         * @param nanos the delay in nanoseconds
+         * @throws RejectedExecutionException if the task can't be scheduled
+         */
+        void schedule(Runnable task, long nanos);
+    }
+
+    private static final class Waiter {
+        private final CompletableFuture<Long> future;
+        private final Executor executor;
+
+        private Waiter(CompletableFuture<Long> future, Executor executor) {
+            this.future = future;
+            this.executor = executor;
+        }
+
+        private void complete(long id, Executor current) {
+            if (executor == current) {
+                future.complete(id);
+                return;
+            }
+            try {
+                executor.execute(() -> future.complete(id));
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,697 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Simulates a generator under load on a virtual clock, to size a {@link Structure} and pick a
+ * {@link Options.SequenceOverflowStrategy} before running into sequence overflows in production.
+ * <p>
+ * The simulation uses the same sequence logic as {@link SnowflakeIdGenerator}. Every thread of the {@link Load} issues
+ * its requests one after another: a thread which waits for the next tick doesn't issue requests in the meantime.
+ * Generating an id takes no time, waiting threads wake up exactly when the strategy says so, and the clock never moves
+ * backwards. The {@link Options.ConcurrencyStrategy} and the clock regression settings are ignored.
+ * <p>
+ * This class is thread safe, simulations don't share state.
+ *
+ * @author Moritz Halbritter
+ */
+public final class CapacitySimulator {
+    private final Structure structure;
+    private final Duration tickDuration;
+    private final Options options;
+
+    private CapacitySimulator(Structure structure, Duration tickDuration, Options options) {
+        this.structure = Objects.requireNonNull(structure, "structure");
+        this.tickDuration = Objects.requireNonNull(tickDuration, "tickDuration");
+        this.options = Objects.requireNonNull(options, "options");
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("tickDuration must be positive, but was " + tickDuration);
+        }
+    }
+
+    /**
+     * Creates a simulator.
+     *
+     * @param structure    the structure of the ids
+     * @param tickDuration the tick duration of the time source
+     * @param options      the options, only the sequence overflow strategy and the maximum drift are used
+     * @return simulator
+     */
+    public static CapacitySimulator createCustom(Structure structure, Duration tickDuration, Options options) {
+        return new CapacitySimulator(structure, tickDuration, options);
+    }
+
+    /**
+     * Creates a simulator with default settings: the default structure, ticks of 1 millisecond and the default options.
+     *
+     * @return simulator
+     */
+    public static CapacitySimulator createDefault() {
+        return new CapacitySimulator(Structure.createDefault(), Duration.ofMillis(1), Options.createDefault());
+    }
+
+    /**
+     * Runs the simulation until all threads of the load have issued their requests.
+     *
+     * @param load the load
+     * @return the result
+     * @throws IllegalStateException if the load runs longer than the timestamps of the structure last
+     */
+    public Result run(Load load) {
+        Objects.requireNonNull(load, "load");
+        int threads = load.getThreads();
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, but was " + threads);
+        }
+
+        VirtualTimeSource timeSource = new VirtualTimeSource(tickDuration);
+        // Metrics and events are meaningless on a virtual clock
+        Options simulated = options.withMetricsEnabled(false).withJfrEventsEnabled(false);
+        Sequencer sequencer = new Sequencer(timeSource, structure, simulated, new MetricsRecorder(simulated));
+        Options.SequenceOverflowStrategy strategy = options.getSequenceOverflowStrategy();
+        long tickNanos = tickDuration.toNanos();
+        long maxSequence = structure.maxSequenceIds() - 1;
+
+        LongSupplier[] arrivals = new LongSupplier[threads];
+        // The time of the current request of each thread, and when the thread issues or retries it
+        long[] arrival = new long[threads];
+        long[] ready = new long[threads];
+        for (int thread = 0; thread < threads; thread++) {
+            arrivals[thread] = load.arrivals(thread);
+            arrival[thread] = arrivals[thread].getAsLong();
+            ready[thread] = arrival[thread];
+        }
+        ThreadQueue queue = new ThreadQueue(ready);
+        boolean[] retry = new boolean[threads];
+
+        Result result = new Result(structure, tickDuration);
+        long last = -1;
+        long demandTick = -1;
+        long demand = 0;
+        long lastOverflowTick = -1;
+        while (true) {
+            int thread = queue.peek();
+            long now = ready[thread];
+            if (now == Long.MAX_VALUE) {
+                break;
+            }
+            timeSource.ticks = now / tickNanos;
+            long ticks = timeSource.ticks;
+            if (!retry[thread]) {
+                result.requests++;
+                if (ticks != demandTick) {
+                    demandTick = ticks;
+                    demand = 0;
+                }
+                demand++;
+                result.peakIdsPerTick = Math.max(result.peakIdsPerTick, demand);
+            }
+            result.endNanos = now;
+
+            long id = sequencer.next(last, ticks, maxSequence, 0);
+            if (id >= 0) {
+                last = id;
+                result.issued(now - arrival[thread], sequencer.timestampOf(id) - ticks);
+                next(thread, arrivals, arrival, ready, retry, now);
+            } else {
+                // The virtual clock never moves backwards, so this is a sequence overflow
+                result.sequenceOverflows++;
+                if (ticks != lastOverflowTick) {
+                    lastOverflowTick = ticks;
+                    result.ticksWithOverflow++;
+                }
+                long lastTimestamp = sequencer.timestampOf(last);
+                switch (strategy) {
+                    case THROW_EXCEPTION:
+                        result.failures++;
+                        next(thread, arrivals, arrival, ready, retry, now);
+                        break;
+                    case SLEEP:
+                        retry[thread] = true;
+                        ready[thread] = now + tickNanos;
+                        break;
+                    case SPIN_WAIT:
+                    case PARK:
+                    case ADAPTIVE:
+                        retry[thread] = true;
+                        ready[thread] = (lastTimestamp + 1) * tickNanos;
+                        break;
+                    case BORROW:
+                        retry[thread] = true;
+                        ready[thread] = (lastTimestamp + 1 - sequencer.getMaxDriftTicks()) * tickNanos;
+                        break;
+                    default:
+                        throw new AssertionError("Unexpected enum value: " + strategy);
+                }
+            }
+            queue.update();
+        }
+        return result;
+    }
+
+    private static void next(int thread, LongSupplier[] arrivals, long[] arrival, long[] ready, boolean[] retry, long now) {
+        arrival[thread] = arrivals[thread].getAsLong();
+        ready[thread] = Math.max(arrival[thread], now);
+        retry[thread] = false;
+    }
+
+    /**
+     * Returns the structure of the ids.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Returns the tick duration of the time source.
+     *
+     * @return the tick duration
+     */
+    public Duration getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Returns the options.
+     *
+     * @return the options
+     */
+    public Options getOptions() {
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return "CapacitySimulator{" +
+            "structure=" + structure +
+            ", tickDuration=" + tickDuration +
+            ", options=" + options +
+            '}';
+    }
+
+    /**
+     * Load for a simulation: requests of one or more threads, at virtual times in nanoseconds since the start of the
+     * simulation.
+     */
+    public interface Load {
+        /**
+         * Returns the number of threads which issue requests.
+         *
+         * @return the number of threads
+         */
+        int getThreads();
+
+        /**
+         * Returns the arrival times of the requests of the given thread. Every call of the supplier returns the next time,
+         * in nanoseconds since the start of the simulation, which must not be lower than the previous one. Returns
+         * {@link Long#MAX_VALUE} after the last request.
+         *
+         * @param thread the thread, between 0 (inclusive) and {@link #getThreads()} (exclusive)
+         * @return the arrival times
+         */
+        LongSupplier arrivals(int thread);
+
+        /**
+         * Creates a load with a constant rate, as Poisson process. The rate is split evenly between the threads.
+         *
+         * @param idsPerSecond the number of requests per second
+         * @param threads      the number of threads
+         * @param duration     the duration of the load
+         * @param seed         the seed for the random numbers
+         * @return load
+         */
+        static Load poisson(double idsPerSecond, int threads, Duration duration, long seed) {
+            return new PoissonLoad(idsPerSecond, idsPerSecond, Duration.ZERO, duration, threads, duration, seed);
+        }
+
+        /**
+         * Creates a bursty load, as Poisson process: every burst period starts with a burst at a higher rate. The rates
+         * are split evenly between the threads.
+         *
+         * @param idsPerSecond      the number of requests per second outside of bursts
+         * @param burstIdsPerSecond the number of requests per second during bursts
+         * @param burstLength       the length of a burst
+         * @param burstPeriod       the time from the start of a burst to the start of the next one
+         * @param threads           the number of threads
+         * @param duration          the duration of the load
+         * @param seed              the seed for the random numbers
+         * @return load
+         */
+        static Load bursty(double idsPerSecond, double burstIdsPerSecond, Duration burstLength, Duration burstPeriod, int threads, Duration duration, long seed) {
+            return new PoissonLoad(idsPerSecond, burstIdsPerSecond, burstLength, burstPeriod, threads, duration, seed);
+        }
+
+        /**
+         * Creates a load which replays a trace of request counts per interval, e.g. from production metrics. The requests
+         * of an interval are spread evenly over it, and are assigned to the threads in turn.
+         *
+         * @param interval       the length of an interval
+         * @param idsPerInterval the number of requests in every interval
+         * @param threads        the number of threads
+         * @return load
+         */
+        static Load trace(Duration interval, long[] idsPerInterval, int threads) {
+            return new TraceLoad(interval, idsPerInterval, threads);
+        }
+    }
+
+    /**
+     * Result of a simulation.
+     */
+    public static final class Result {
+        /**
+         * Sub-buckets per power of two in the stall histogram, the relative error of percentiles is below 1/32.
+         */
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final Structure structure;
+        private final Duration tickDuration;
+        private final long[] stallHistogram = new long[(Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS];
+        private long requests;
+        private long idsIssued;
+        private long failures;
+        private long sequenceOverflows;
+        private long ticksWithOverflow;
+        private long peakIdsPerTick;
+        private long endNanos;
+        private long totalStallNanos;
+        private long maxStallNanos;
+        private long totalDriftTicks;
+        private long maxDriftTicks;
+
+        private Result(Structure structure, Duration tickDuration) {
+            this.structure = structure;
+            this.tickDuration = tickDuration;
+        }
+
+        private void issued(long stallNanos, long driftTicks) {
+            idsIssued++;
+            stallHistogram[bucket(stallNanos)]++;
+            totalStallNanos += stallNanos;
+            maxStallNanos = Math.max(maxStallNanos, stallNanos);
+            totalDriftTicks += driftTicks;
+            maxDriftTicks = Math.max(maxDriftTicks, driftTicks);
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < 2 * SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            return (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + (int) (nanos >>> (exponent - SUB_BUCKET_BITS));
+        }
+
+        private static long highestInBucket(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        }
+
+        /**
+         * Returns the number of requests.
+         *
+         * @return the number of requests
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Returns the number of generated ids.
+         *
+         * @return the number of generated ids
+         */
+        public long getIdsIssued() {
+            return idsIssued;
+        }
+
+        /**
+         * Returns the number of requests which failed with {@link Options.SequenceOverflowStrategy#THROW_EXCEPTION}.
+         *
+         * @return the number of failed requests
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns the number of sequence overflows. A request can overflow several times, if other threads use up the
+         * sequence of the next tick before it. With {@link Options.SequenceOverflowStrategy#BORROW}, only overflows which
+         * exceeded the drift limit are counted.
+         *
+         * @return the number of sequence overflows
+         */
+        public long getSequenceOverflows() {
+            return sequenceOverflows;
+        }
+
+        /**
+         * Returns the number of ticks in which at least one sequence overflow occurred.
+         *
+         * @return the number of ticks with overflows
+         */
+        public long getTicksWithOverflow() {
+            return ticksWithOverflow;
+        }
+
+        /**
+         * Returns the sequence overflows per second of simulated time.
+         *
+         * @return the sequence overflows per second
+         */
+        public double getSequenceOverflowsPerSecond() {
+            return endNanos == 0 ? 0 : sequenceOverflows * 1e9 / endNanos;
+        }
+
+        /**
+         * Returns the simulated time, until the last request has been issued.
+         *
+         * @return the simulated time
+         */
+        public Duration getSimulatedDuration() {
+            return Duration.ofNanos(endNanos);
+        }
+
+        /**
+         * Returns the given percentile of the time requests waited for their id, from arrival until the id has been
+         * generated. Failed requests are not included. The result is rounded up by less than 1/32.
+         *
+         * @param percentile the percentile, between 0 and 100 (both inclusive)
+         * @return the stall time
+         */
+        public Duration getStallPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100 (both inclusive), but was " + percentile);
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * idsIssued));
+            long seen = 0;
+            for (int bucket = 0; bucket < stallHistogram.length; bucket++) {
+                seen += stallHistogram[bucket];
+                if (seen >= rank) {
+                    return Duration.ofNanos(Math.min(highestInBucket(bucket), maxStallNanos));
+                }
+            }
+            return Duration.ZERO;
+        }
+
+        /**
+         * Returns the average time requests waited for their id.
+         *
+         * @return the average stall time
+         */
+        public Duration getMeanStall() {
+            return idsIssued == 0 ? Duration.ZERO : Duration.ofNanos(totalStallNanos / idsIssued);
+        }
+
+        /**
+         * Returns the longest time a request waited for its id.
+         *
+         * @return the longest stall time
+         */
+        public Duration getMaxStall() {
+            return Duration.ofNanos(maxStallNanos);
+        }
+
+        /**
+         * Returns the average distance of the timestamps of the generated ids ahead of the clock. Only
+         * {@link Options.SequenceOverflowStrategy#BORROW} runs ahead of the clock.
+         *
+         * @return the average drift
+         */
+        public Duration getMeanDrift() {
+            return idsIssued == 0 ? Duration.ZERO : tickDuration.multipliedBy(totalDriftTicks).dividedBy(idsIssued);
+        }
+
+        /**
+         * Returns the largest distance of the timestamp of a generated id ahead of the clock.
+         *
+         * @return the largest drift
+         */
+        public Duration getMaxDrift() {
+            return tickDuration.multipliedBy(maxDriftTicks);
+        }
+
+        /**
+         * Returns the highest number of requests issued in a single tick. Retries after a sequence overflow are not
+         * counted.
+         *
+         * @return the highest number of requests per tick
+         */
+        public long getPeakIdsPerTick() {
+            return peakIdsPerTick;
+        }
+
+        /**
+         * Returns the sequence ids per tick of the structure, divided by {@link #getPeakIdsPerTick()}. Below 1, the peak
+         * load overflows the sequence.
+         *
+         * @return the headroom
+         */
+        public double getHeadroom() {
+            return peakIdsPerTick == 0 ? Double.POSITIVE_INFINITY : (double) structure.maxSequenceIds() / peakIdsPerTick;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                "requests=" + requests +
+                ", idsIssued=" + idsIssued +
+                ", failures=" + failures +
+                ", sequenceOverflows=" + sequenceOverflows +
+                ", ticksWithOverflow=" + ticksWithOverflow +
+                ", simulatedDuration=" + getSimulatedDuration() +
+                ", p50Stall=" + getStallPercentile(50) +
+                ", p99Stall=" + getStallPercentile(99) +
+                ", maxStall=" + getMaxStall() +
+                ", maxDrift=" + getMaxDrift() +
+                ", peakIdsPerTick=" + peakIdsPerTick +
+                ", headroom=" + getHeadroom() +
+                '}';
+        }
+    }
+
+    /**
+     * Time source whose ticks are set by the simulation.
+     */
+    private static final class VirtualTimeSource implements TimeSource {
+        private final Duration tickDuration;
+        private long ticks;
+
+        VirtualTimeSource(Duration tickDuration) {
+            this.tickDuration = tickDuration;
+        }
+
+        @Override
+        public long getTicks() {
+            return ticks;
+        }
+
+        @Override
+        public Duration getTickDuration() {
+            return tickDuration;
+        }
+
+        @Override
+        public Instant getEpoch() {
+            return Instant.EPOCH;
+        }
+    }
+
+    /**
+     * Binary min-heap of threads, ordered by the time they issue their next request. Only the thread at the root changes
+     * its time.
+     */
+    private static final class ThreadQueue {
+        private final long[] ready;
+        private final int[] heap;
+
+        ThreadQueue(long[] ready) {
+            this.ready = ready;
+            heap = new int[ready.length];
+            for (int i = 0; i < heap.length; i++) {
+                heap[i] = i;
+            }
+            for (int i = heap.length / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        /**
+         * Restores the heap after the time of the thread at the root has changed.
+         */
+        void update() {
+            siftDown(0);
+        }
+
+        private void siftDown(int index) {
+            int thread = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= heap.length) {
+                    break;
+                }
+                if (child + 1 < heap.length && ready[heap[child + 1]] < ready[heap[child]]) {
+                    child++;
+                }
+                if (ready[heap[child]] >= ready[thread]) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = thread;
+        }
+    }
+
+    /**
+     * Poisson process with periodic bursts, generated by thinning a Poisson process at the higher rate.
+     */
+    private static final class PoissonLoad implements Load {
+        private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+        private final double idsPerNano;
+        private final double burstIdsPerNano;
+        private final long burstLengthNanos;
+        private final long burstPeriodNanos;
+        private final int threads;
+        private final long durationNanos;
+        private final long seed;
+
+        PoissonLoad(double idsPerSecond, double burstIdsPerSecond, Duration burstLength, Duration burstPeriod, int threads, Duration duration, long seed) {
+            Objects.requireNonNull(burstLength, "burstLength");
+            Objects.requireNonNull(burstPeriod, "burstPeriod");
+            Objects.requireNonNull(duration, "duration");
+            if (!(idsPerSecond >= 0)) {
+                throw new IllegalArgumentException("idsPerSecond must not be negative, but was " + idsPerSecond);
+            }
+            if (!(burstIdsPerSecond >= 0)) {
+                throw new IllegalArgumentException("burstIdsPerSecond must not be negative, but was " + burstIdsPerSecond);
+            }
+            if (burstPeriod.isNegative() || burstPeriod.isZero()) {
+                throw new IllegalArgumentException("burstPeriod must be positive, but was " + burstPeriod);
+            }
+            if (burstLength.isNegative() || burstLength.compareTo(burstPeriod) > 0) {
+                throw new IllegalArgumentException("burstLength must be between 0 and burstPeriod (both inclusive), but was " + burstLength);
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1, but was " + threads);
+            }
+            if (duration.isNegative()) {
+                throw new IllegalArgumentException("duration must not be negative, but was " + duration);
+            }
+            this.idsPerNano = idsPerSecond / 1e9 / threads;
+            this.burstIdsPerNano = burstIdsPerSecond / 1e9 / threads;
+            this.burstLengthNanos = burstLength.toNanos();
+            this.burstPeriodNanos = burstPeriod.toNanos();
+            this.threads = threads;
+            this.durationNanos = duration.toNanos();
+            this.seed = seed;
+        }
+
+        @Override
+        public int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public LongSupplier arrivals(int thread) {
+            SplittableRandom random = new SplittableRandom(seed + thread * GOLDEN_GAMMA);
+            double maxIdsPerNano = Math.max(idsPerNano, burstIdsPerNano);
+            return new LongSupplier() {
+                private double time;
+
+                @Override
+                public long getAsLong() {
+                    while (maxIdsPerNano > 0) {
+                        time += -Math.log(1 - random.nextDouble()) / maxIdsPerNano;
+                        if (time >= durationNanos) {
+                            break;
+                        }
+                        long nanos = (long) time;
+                        double rate = nanos % burstPeriodNanos < burstLengthNanos ? burstIdsPerNano : idsPerNano;
+                        if (random.nextDouble() * maxIdsPerNano < rate) {
+                            return nanos;
+                        }
+                    }
+                    time = Double.POSITIVE_INFINITY;
+                    return Long.MAX_VALUE;
+                }
+            };
+        }
+    }
+
+    /**
+     * Replays request counts per interval.
+     */
+    private static final class TraceLoad implements Load {
+        private final long intervalNanos;
+        private final long[] idsPerInterval;
+        private final int threads;
+
+        TraceLoad(Duration interval, long[] idsPerInterval, int threads) {
+            Objects.requireNonNull(interval, "interval");
+            Objects.requireNonNull(idsPerInterval, "idsPerInterval");
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("interval must be positive, but was " + interval);
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1, but was " + threads);
+            }
+            for (long ids : idsPerInterval) {
+                if (ids < 0) {
+                    throw new IllegalArgumentException("idsPerInterval must not contain negative values, but contained " + ids);
+                }
+            }
+            this.intervalNanos = interval.toNanos();
+            this.idsPerInterval = idsPerInterval.clone();
+            this.threads = threads;
+        }
+
+        @Override
+        public int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public LongSupplier arrivals(int thread) {
+            return new LongSupplier() {
+                private int interval;
+                // Index of the next request of this thread in the current interval
+                private long index = thread;
+
+                @Override
+                public long getAsLong() {
+                    while (interval < idsPerInterval.length) {
+                        long ids = idsPerInterval[interval];
+                        if (index < ids) {
+                            long nanos = interval * intervalNanos + (long) ((double) index * intervalNanos / ids);
+                            index += threads;
+                            return nanos;
+                        }
+                        index -= ids;
+                        interval++;
+                    }
+                    return Long.MAX_VALUE;
+                }
+            };
+        }
+    }
+}
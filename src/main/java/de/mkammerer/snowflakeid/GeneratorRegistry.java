@@ -0,0 +1,356 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manages one generator per key, e.g. per tenant or per shard. This class is thread safe.
+ * <p>
+ * All generators share the generator id, the time source, the structure and the options, so ids are only unique per
+ * key. A generator is created the first time its key is used. Its state is a single {@code long}, the last generated id,
+ * which is stored next to the key in a hash table. A key takes about 32 bytes instead of a
+ * {@link SnowflakeIdGenerator} with its own lock.
+ * <p>
+ * Generators which haven't generated an id for the idle timeout are evicted when a hash table is full, or by
+ * {@link #evictIdle()}. The keys are spread over 64 segments with their own lock and hash table. Every segment keeps
+ * the highest id of its evicted generators, and generators created later start after its timestamp, so a key which is
+ * used again never reissues an id.
+ * <p>
+ * The {@link Options.ConcurrencyStrategy} is ignored.
+ *
+ * @author Moritz Halbritter
+ */
+public class GeneratorRegistry {
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Marks an empty slot in the hash table. Can't collide with a state, as states are ids or -1.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    // Stuff which is set in the constructor
+    private final long generatorId;
+    private final TimeSource timeSource;
+    private final Structure structure;
+    private final Options options;
+    private final Duration idleTimeout;
+    private final Sequencer sequencer;
+    private final SequenceOverflowHandler overflowHandler;
+    private final MetricsRecorder metrics;
+    private final Segment[] segments;
+
+    // precalculated variables for bit magic
+    private final long maxSequence;
+    private final long maskTime;
+    private final long generatorPrefix;
+    private final long idleTicks;
+
+    private GeneratorRegistry(long generatorId, TimeSource timeSource, Structure structure, Options options, Duration idleTimeout) {
+        this.timeSource = Objects.requireNonNull(timeSource, "timeSource");
+        this.structure = Objects.requireNonNull(structure, "structure");
+        this.options = Objects.requireNonNull(options, "options");
+        this.idleTimeout = Objects.requireNonNull(idleTimeout, "idleTimeout");
+
+        if (generatorId < 0 || generatorId >= structure.maxGenerators()) {
+            throw new IllegalArgumentException("generatorId must be between 0 (inclusive) and " + structure.maxGenerators() + " (exclusive), but was " + generatorId);
+        }
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be positive, but was " + idleTimeout);
+        }
+
+        this.generatorId = generatorId;
+
+        maskTime = calculateMask(structure.getTimestampBits());
+        maxSequence = calculateMask(structure.getSequenceBits());
+        generatorPrefix = generatorId << structure.getSequenceBits();
+        idleTicks = Math.max(1, idleTimeout.toNanos() / timeSource.getTickDuration().toNanos());
+        metrics = new MetricsRecorder(options);
+        sequencer = new Sequencer(timeSource, structure, options, metrics);
+        overflowHandler = new SequenceOverflowHandler(timeSource, options, sequencer, metrics);
+
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Generates the next id for the given key.
+     *
+     * @param key the key
+     * @return next id
+     * @throws IllegalStateException if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred
+     */
+    public long next(long key) {
+        long hash = hash(key);
+        Segment segment = segments[(int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(SEGMENTS)))];
+        while (true) {
+            long last;
+            long id;
+            if (!segment.tryLock()) {
+                metrics.contention();
+                segment.lock();
+            }
+            try {
+                int slot = slotOf(segment, key, (int) hash);
+                last = segment.states[slot];
+                long ticks = timeSource.getTicks();
+                id = sequencer.next(last, ticks, maxSequence, generatorPrefix);
+                if (id >= 0) {
+                    segment.states[slot] = id;
+                    sequencer.issued(id, ticks, 1);
+                    return id;
+                }
+            } finally {
+                segment.unlock();
+            }
+            // Wait without holding the lock, so that other keys of the segment aren't blocked
+            overflowHandler.handle(id, sequencer.timestampOf(last));
+        }
+    }
+
+    /**
+     * Evicts all generators which haven't generated an id for the idle timeout.
+     *
+     * @return the number of evicted generators
+     */
+    public int evictIdle() {
+        int evicted = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                evicted += rebuild(segment);
+            } finally {
+                segment.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of generators.
+     *
+     * @return the number of generators
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the slot of the given key, inserting it if necessary. Must be called with the lock of the segment held.
+     */
+    private int slotOf(Segment segment, long key, int hash) {
+        while (true) {
+            long[] keys = segment.keys;
+            long[] states = segment.states;
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (states[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Keep the load factor below 3/4
+            if ((segment.size + 1) * 4 > keys.length * 3) {
+                rebuild(segment);
+                continue;
+            }
+            keys[slot] = key;
+            states[slot] = segment.floor;
+            segment.size++;
+            return slot;
+        }
+    }
+
+    /**
+     * Rehashes the segment without its idle generators. The new table is at most half full. Must be called with the
+     * lock of the segment held.
+     *
+     * @return the number of evicted generators
+     */
+    private int rebuild(Segment segment) {
+        long threshold = (timeSource.getTicks() & maskTime) - idleTicks;
+        long[] keys = segment.keys;
+        long[] states = segment.states;
+
+        int remaining = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long state = states[i];
+            if (state == EMPTY) {
+                continue;
+            }
+            if (sequencer.timestampOf(state) < threshold) {
+                if (state >= 0) {
+                    // Generators created later have to wait for the next tick
+                    segment.floor = Math.max(segment.floor, state | maxSequence);
+                }
+                states[i] = EMPTY;
+            } else {
+                remaining++;
+            }
+        }
+        int evicted = segment.size - remaining;
+
+        int capacity = INITIAL_CAPACITY;
+        while ((remaining + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        long[] newKeys = new long[capacity];
+        long[] newStates = new long[capacity];
+        Arrays.fill(newStates, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] == EMPTY) {
+                continue;
+            }
+            int slot = (int) hash(keys[i]) & mask;
+            while (newStates[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = keys[i];
+            newStates[slot] = states[i];
+        }
+        segment.keys = newKeys;
+        segment.states = newStates;
+        segment.size = remaining;
+        return evicted;
+    }
+
+    private static long hash(long key) {
+        // The upper bits select the segment, the lower bits the slot
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Returns a snapshot of the metrics, summed over all generators.
+     *
+     * @return the metrics
+     * @throws IllegalStateException if metrics are disabled, see {@link Options#withMetricsEnabled(boolean)}
+     */
+    public GeneratorMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Returns the generator id.
+     *
+     * @return the generator id
+     */
+    public long getGeneratorId() {
+        return generatorId;
+    }
+
+    /**
+     * Returns the time source.
+     *
+     * @return the time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Returns the options.
+     *
+     * @return the options
+     */
+    public Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the structure.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Returns the idle timeout.
+     *
+     * @return the idle timeout
+     */
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Creates a custom registry.
+     *
+     * @param generatorId the id of the generator. Must be unique across all instances
+     * @param timeSource  the timesource to use
+     * @param structure   the id structure
+     * @param options     the options
+     * @param idleTimeout the time after which a generator which hasn't generated an id may be evicted. Must be positive
+     * @return the created registry
+     */
+    public static GeneratorRegistry createCustom(long generatorId, TimeSource timeSource, Structure structure, Options options, Duration idleTimeout) {
+        return new GeneratorRegistry(generatorId, timeSource, structure, options, idleTimeout);
+    }
+
+    /**
+     * Creates a registry with default settings.
+     * <p>
+     * Uses the defaults of {@link SnowflakeIdGenerator#createDefault(int)} and evicts generators after 5 minutes.
+     *
+     * @param generatorId the id of the generator. Must be unique across all instances
+     * @return registry
+     */
+    public static GeneratorRegistry createDefault(int generatorId) {
+        return new GeneratorRegistry(generatorId, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault(), DEFAULT_IDLE_TIMEOUT);
+    }
+
+    private long calculateMask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratorRegistry{" +
+            "generatorId=" + generatorId +
+            ", timeSource=" + timeSource +
+            ", structure=" + structure +
+            ", options=" + options +
+            ", idleTimeout=" + idleTimeout +
+            '}';
+    }
+
+    /**
+     * Hash table with linear probing for the keys of a segment. All fields are guarded by the lock.
+     */
+    private static final class Segment extends ReentrantLock {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] states = new long[INITIAL_CAPACITY];
+        private int size;
+        /**
+         * The state of new generators: -1, or the highest id of the last timestamp of all evicted generators.
+         */
+        private long floor = -1;
+
+        Segment() {
+            Arrays.fill(states, EMPTY);
+        }
+    }
+}
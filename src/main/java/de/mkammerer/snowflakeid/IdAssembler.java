@@ -0,0 +1,261 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fast path of a specialized generator, for one bit layout and generator id.
+ * <p>
+ * Implementations are generated at runtime, one class per layout, generator id and time source class. The bit layout is
+ * compiled into the class as constants, so the JIT folds it into the code of {@link SnowflakeIdGenerator#next()}, and
+ * every class calls {@link TimeSource#getTicks()} from a call site of its own.
+ *
+ * @author Moritz Halbritter
+ */
+interface IdAssembler {
+    /**
+     * Returned by {@link #next(TimeSource, long)} if the generic path has to be taken.
+     */
+    long SLOW_PATH = -1;
+
+    /**
+     * Reads the clock and calculates the id which follows the given last id, for the cases which don't need any waiting
+     * or special handling: a free sequence in the tick of the last id, or a later tick.
+     *
+     * @param timeSource the time source
+     * @param last       the last generated id, -1 if none has been generated yet
+     * @return the next id, or {@link #SLOW_PATH}
+     */
+    long next(TimeSource timeSource, long last);
+
+    /**
+     * Returns the assembler for the given layout, generator id and time source. Generates the class on first use.
+     *
+     * @param structure   the id structure
+     * @param generatorId the generator id
+     * @param timeSource  the time source
+     * @return the assembler
+     */
+    static IdAssembler of(Structure structure, long generatorId, TimeSource timeSource) {
+        String layout = structure.getTimestampBits() + "/" + structure.getGeneratorBits() + "/" + structure.getSequenceBits() + "/" + generatorId;
+        return Generator.ASSEMBLERS.get(timeSource.getClass()).computeIfAbsent(layout, ignored -> Generator.generate(structure, generatorId));
+    }
+
+    /**
+     * Generates the assembler classes.
+     * <p>
+     * The classes are written as class file version 49, which doesn't need stack map frames. The generated
+     * {@link #next(TimeSource, long)} is equivalent to:
+     * <pre>{@code
+     * long ticks = timeSource.getTicks();
+     * if (ticks < 0) return SLOW_PATH;
+     * long timestamp = ticks & MASK_TIME;
+     * long lastTimestamp = last >> SHIFT_TIME;
+     * if (timestamp == lastTimestamp) return (last & MAX_SEQUENCE) != MAX_SEQUENCE ? last + 1 : SLOW_PATH;
+     * if (timestamp > lastTimestamp) return (timestamp << SHIFT_TIME) | PREFIX;
+     * return SLOW_PATH;
+     * }</pre>
+     */
+    final class Generator {
+        /**
+         * Assemblers by time source class and layout. A {@link ClassValue} doesn't keep the time source classes alive.
+         */
+        private static final ClassValue<Map<String, IdAssembler>> ASSEMBLERS = new ClassValue<>() {
+            @Override
+            protected Map<String, IdAssembler> computeValue(Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+
+        // Constant pool indices
+        private static final int THIS_CLASS = 2;
+        private static final int OBJECT_CLASS = 4;
+        private static final int ASSEMBLER_CLASS = 6;
+        private static final int INIT_NAME = 7;
+        private static final int VOID_DESCRIPTOR = 8;
+        private static final int OBJECT_INIT = 10;
+        private static final int GET_TICKS = 16;
+        private static final int CODE = 17;
+        private static final int NEXT_NAME = 18;
+        private static final int NEXT_DESCRIPTOR = 19;
+        private static final int MASK_TIME = 20;
+        private static final int MAX_SEQUENCE = 22;
+        private static final int PREFIX = 24;
+        private static final int CONSTANT_POOL_COUNT = 26;
+
+        private Generator() {
+        }
+
+        private static IdAssembler generate(Structure structure, long generatorId) {
+            String name = IdAssembler.class.getName().replace('.', '/') + "$Layout" + COUNTER.incrementAndGet();
+            int shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
+            long maxSequence = (1L << structure.getSequenceBits()) - 1;
+            byte[] bytes = write(name, (1L << structure.getTimestampBits()) - 1, shiftTime, maxSequence, generatorId << structure.getSequenceBits());
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                Class<?> type = lookup.defineClass(bytes);
+                return (IdAssembler) lookup.findConstructor(type, MethodType.methodType(void.class)).invoke();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to generate " + name, e);
+            }
+        }
+
+        private static byte[] write(String name, long maskTime, int shiftTime, long maxSequence, long prefix) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+
+                out.writeShort(CONSTANT_POOL_COUNT);
+                utf8(out, name);
+                classRef(out, 1);
+                utf8(out, "java/lang/Object");
+                classRef(out, 3);
+                utf8(out, IdAssembler.class.getName().replace('.', '/'));
+                classRef(out, 5);
+                utf8(out, "<init>");
+                utf8(out, "()V");
+                nameAndType(out, INIT_NAME, VOID_DESCRIPTOR);
+                memberRef(out, 10, OBJECT_CLASS, 9);
+                utf8(out, TimeSource.class.getName().replace('.', '/'));
+                classRef(out, 11);
+                utf8(out, "getTicks");
+                utf8(out, "()J");
+                nameAndType(out, 13, 14);
+                memberRef(out, 11, 12, 15);
+                utf8(out, "Code");
+                utf8(out, "next");
+                utf8(out, "(L" + TimeSource.class.getName().replace('.', '/') + ";J)J");
+                longConstant(out, maskTime);
+                longConstant(out, maxSequence);
+                longConstant(out, prefix);
+
+                // final class, not public
+                out.writeShort(0x0010 | 0x0020);
+                out.writeShort(THIS_CLASS);
+                out.writeShort(OBJECT_CLASS);
+                out.writeShort(1);
+                out.writeShort(ASSEMBLER_CLASS);
+                // No fields
+                out.writeShort(0);
+
+                out.writeShort(2);
+                method(out, INIT_NAME, VOID_DESCRIPTOR, 1, 1, new byte[]{
+                    0x2a, // aload_0
+                    (byte) 0xb7, 0, OBJECT_INIT, // invokespecial Object.<init>
+                    (byte) 0xb1 // return
+                });
+                // Locals: 1 = timeSource, 2 = last, 4 = ticks, 6 = timestamp, 8 = lastTimestamp
+                method(out, NEXT_NAME, NEXT_DESCRIPTOR, 4, 10, new byte[]{
+                    /* 0 */ 0x2b, // aload_1
+                    /* 1 */ (byte) 0xb9, 0, GET_TICKS, 1, 0, // invokeinterface TimeSource.getTicks
+                    /* 6 */ 0x37, 4, // lstore 4
+                    /* 8 */ 0x16, 4, // lload 4
+                    /* 10 */ 0x09, // lconst_0
+                    /* 11 */ (byte) 0x94, // lcmp
+                    /* 12 */ (byte) 0x9b, 0, 71 - 12, // iflt slow
+                    /* 15 */ 0x16, 4, // lload 4
+                    /* 17 */ 0x14, 0, MASK_TIME, // ldc2_w maskTime
+                    /* 20 */ 0x7f, // land
+                    /* 21 */ 0x37, 6, // lstore 6
+                    /* 23 */ 0x20, // lload_2
+                    /* 24 */ 0x10, (byte) shiftTime, // bipush shiftTime
+                    /* 26 */ 0x7b, // lshr
+                    /* 27 */ 0x37, 8, // lstore 8
+                    /* 29 */ 0x16, 6, // lload 6
+                    /* 31 */ 0x16, 8, // lload 8
+                    /* 33 */ (byte) 0x94, // lcmp
+                    /* 34 */ (byte) 0x9a, 0, 53 - 34, // ifne newTick
+                    /* 37 */ 0x20, // lload_2
+                    /* 38 */ 0x14, 0, MAX_SEQUENCE, // ldc2_w maxSequence
+                    /* 41 */ 0x7f, // land
+                    /* 42 */ 0x14, 0, MAX_SEQUENCE, // ldc2_w maxSequence
+                    /* 45 */ (byte) 0x94, // lcmp
+                    /* 46 */ (byte) 0x99, 0, 71 - 46, // ifeq slow
+                    /* 49 */ 0x20, // lload_2
+                    /* 50 */ 0x0a, // lconst_1
+                    /* 51 */ 0x61, // ladd
+                    /* 52 */ (byte) 0xad, // lreturn
+                    // newTick:
+                    /* 53 */ 0x16, 6, // lload 6
+                    /* 55 */ 0x16, 8, // lload 8
+                    /* 57 */ (byte) 0x94, // lcmp
+                    /* 58 */ (byte) 0x9e, 0, 71 - 58, // ifle slow
+                    /* 61 */ 0x16, 6, // lload 6
+                    /* 63 */ 0x10, (byte) shiftTime, // bipush shiftTime
+                    /* 65 */ 0x79, // lshl
+                    /* 66 */ 0x14, 0, PREFIX, // ldc2_w prefix
+                    /* 69 */ (byte) 0x81, // lor
+                    /* 70 */ (byte) 0xad, // lreturn
+                    // slow:
+                    /* 71 */ 0x02, // iconst_m1
+                    /* 72 */ (byte) 0x85, // i2l
+                    /* 73 */ (byte) 0xad // lreturn
+                });
+                // No attributes
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void utf8(DataOutputStream out, String value) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }
+
+        private static void classRef(DataOutputStream out, int name) throws IOException {
+            out.writeByte(7);
+            out.writeShort(name);
+        }
+
+        private static void nameAndType(DataOutputStream out, int name, int descriptor) throws IOException {
+            out.writeByte(12);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+        }
+
+        private static void memberRef(DataOutputStream out, int tag, int owner, int nameAndType) throws IOException {
+            out.writeByte(tag);
+            out.writeShort(owner);
+            out.writeShort(nameAndType);
+        }
+
+        private static void longConstant(DataOutputStream out, long value) throws IOException {
+            out.writeByte(5);
+            out.writeLong(value);
+        }
+
+        private static void method(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals, byte[] code) throws IOException {
+            // public
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(CODE);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            // No exception table, no attributes
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.mkammerer.snowflakeid;
+
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the ids of a generator. Every subscriber gets its own infinite sequence of ids.
+ * <p>
+ * Ids are emitted on the thread which calls {@link Flow.Subscription#request(long)}. The requested ids are reserved in
+ * runs of up to {@code chunkSize} ids, so the generator state is only synchronized once per run. If the generator fails,
+ * the subscriber receives the exception via {@link Flow.Subscriber#onError(Throwable)}.
+ *
+ * @author Moritz Halbritter
+ */
+final class IdPublisher implements Flow.Publisher<Long> {
+    private final SnowflakeIdGenerator generator;
+    private final int chunkSize;
+
+    IdPublisher(SnowflakeIdGenerator generator, int chunkSize) {
+        this.generator = generator;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Long> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        subscriber.onSubscribe(new IdSubscription(subscriber));
+    }
+
+    @Override
+    public String toString() {
+        return "IdPublisher{" +
+            "generator=" + generator +
+            ", chunkSize=" + chunkSize +
+            '}';
+    }
+
+    private final class IdSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Long> subscriber;
+        /**
+         * Outstanding demand, {@link Long#MAX_VALUE} means unbounded.
+         */
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * Number of drain requests. Only the thread which increments this from 0 emits, so that {@code onNext} is never
+         * called concurrently or recursively.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done;
+        /**
+         * Set by invalid requests, signalled by the emitting thread.
+         */
+        private volatile Throwable pendingError;
+
+        private IdSubscription(Flow.Subscriber<? super Long> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException("n must be positive, but was " + n);
+            } else {
+                requested.getAndAccumulate(n, (current, add) -> {
+                    long sum = current + add;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                emit();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            long wanted = requested.get();
+            long emitted = 0;
+            while (!done) {
+                if (pendingError != null) {
+                    fail(pendingError);
+                    return;
+                }
+                if (emitted == wanted) {
+                    if (wanted != Long.MAX_VALUE) {
+                        wanted = requested.addAndGet(-emitted);
+                        emitted = 0;
+                    }
+                    if (wanted == 0) {
+                        return;
+                    }
+                }
+
+                int count = (int) Math.min(wanted - emitted, chunkSize);
+                long first;
+                int run;
+                try {
+                    first = generator.reserveRun(count);
+                    run = generator.runLength(first, count);
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                for (int i = 0; i < run && !done; i++) {
+                    subscriber.onNext(first + i);
+                }
+                emitted += run;
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            done = true;
+            subscriber.onError(throwable);
+        }
+    }
+}
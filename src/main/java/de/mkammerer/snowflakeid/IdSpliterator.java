@@ -0,0 +1,83 @@
+package de.mkammerer.snowflakeid;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Infinite spliterator over the ids of a generator. Reserves the ids in runs of up to {@code chunkSize} ids, so the
+ * generator state is only synchronized once per run.
+ *
+ * @author Moritz Halbritter
+ */
+final class IdSpliterator implements Spliterator.OfLong {
+    private final SnowflakeIdGenerator generator;
+    private final int chunkSize;
+
+    /**
+     * Next id of the current run.
+     */
+    private long next;
+    /**
+     * Ids left in the current run.
+     */
+    private int remaining;
+
+    IdSpliterator(SnowflakeIdGenerator generator, int chunkSize) {
+        this.generator = generator;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        if (remaining == 0) {
+            reserve();
+        }
+        remaining--;
+        action.accept(next++);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(LongConsumer action) {
+        while (true) {
+            if (remaining == 0) {
+                reserve();
+            }
+            // Locals, so the JIT can keep them in registers
+            long id = next;
+            long end = id + remaining;
+            next = end;
+            remaining = 0;
+            for (; id < end; id++) {
+                action.accept(id);
+            }
+        }
+    }
+
+    private void reserve() {
+        next = generator.reserveRun(chunkSize);
+        remaining = generator.runLength(next, chunkSize);
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SORTED | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Long> getComparator() {
+        // Sorted in natural order
+        return null;
+    }
+}
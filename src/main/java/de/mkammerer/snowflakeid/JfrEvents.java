@@ -0,0 +1,67 @@
+package de.mkammerer.snowflakeid;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of the generators.
+ * <p>
+ * This class is only loaded if JFR events are enabled, so the {@code jdk.jfr} module is optional.
+ *
+ * @author Moritz Halbritter
+ */
+final class JfrEvents {
+    private JfrEvents() {
+    }
+
+    static void sequenceOverflow(String strategy, long spins, long waitNanos) {
+        SequenceOverflowEvent event = new SequenceOverflowEvent();
+        if (event.shouldCommit()) {
+            event.strategy = strategy;
+            event.spins = spins;
+            event.waitTime = waitNanos;
+            event.commit();
+        }
+    }
+
+    static void clockRegression(long behindTicks, long toleranceTicks) {
+        ClockRegressionEvent event = new ClockRegressionEvent();
+        if (event.shouldCommit()) {
+            event.behindTicks = behindTicks;
+            event.toleranceTicks = toleranceTicks;
+            event.commit();
+        }
+    }
+
+    @Name("de.mkammerer.snowflakeid.SequenceOverflow")
+    @Label("Sequence Overflow")
+    @Category("SnowflakeId")
+    @Description("The sequence of a timestamp has been exhausted")
+    static class SequenceOverflowEvent extends Event {
+        @Label("Strategy")
+        String strategy;
+
+        @Label("Spin Iterations")
+        long spins;
+
+        @Label("Wait Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitTime;
+    }
+
+    @Name("de.mkammerer.snowflakeid.ClockRegression")
+    @Label("Clock Regression")
+    @Category("SnowflakeId")
+    @Description("The clock has fallen behind the last timestamp. Emitted once per regression")
+    static class ClockRegressionEvent extends Event {
+        @Label("Behind Ticks")
+        long behindTicks;
+
+        @Label("Tolerance Ticks")
+        long toleranceTicks;
+    }
+}
@@ -0,0 +1,175 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
+import de.mkammerer.snowflakeid.options.Options;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the metrics of a generator in striped counters, and emits JFR events.
+ * <p>
+ * If metrics are disabled, the counters aren't allocated and every method returns immediately.
+ *
+ * @author Moritz Halbritter
+ */
+final class MetricsRecorder {
+    private static final VarHandle REGRESSED_TIMESTAMP;
+
+    static {
+        try {
+            REGRESSED_TIMESTAMP = MethodHandles.lookup().findVarHandle(MetricsRecorder.class, "regressedTimestamp", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final boolean metricsEnabled;
+    private final boolean jfrEventsEnabled;
+    private final String sequenceOverflowStrategy;
+
+    private final LongAdder idsIssued;
+    private final LongAdder contentions;
+    private final LongAdder sequenceOverflows;
+    private final LongAdder spinIterations;
+    private final LongAdder sleepNanos;
+    private final LongAdder clockRegressions;
+    private final LongAdder clockRegressionIds;
+    private final LongAccumulator maxClockRegressionTicks;
+
+    /**
+     * The last timestamp the clock has fallen behind of, -1 if it never has. Identifies the current clock regression.
+     */
+    private volatile long regressedTimestamp = -1;
+
+    MetricsRecorder(Options options) {
+        this.metricsEnabled = options.isMetricsEnabled();
+        this.jfrEventsEnabled = options.isJfrEventsEnabled();
+        this.sequenceOverflowStrategy = options.getSequenceOverflowStrategy().name();
+
+        idsIssued = metricsEnabled ? new LongAdder() : null;
+        contentions = metricsEnabled ? new LongAdder() : null;
+        sequenceOverflows = metricsEnabled ? new LongAdder() : null;
+        spinIterations = metricsEnabled ? new LongAdder() : null;
+        sleepNanos = metricsEnabled ? new LongAdder() : null;
+        clockRegressions = metricsEnabled ? new LongAdder() : null;
+        clockRegressionIds = metricsEnabled ? new LongAdder() : null;
+        maxClockRegressionTicks = metricsEnabled ? new LongAccumulator(Math::max, 0) : null;
+    }
+
+    /**
+     * Returns whether waits have to be timed, because either metrics or JFR events are enabled.
+     *
+     * @return whether waits have to be timed
+     */
+    boolean isTimingEnabled() {
+        return metricsEnabled || jfrEventsEnabled;
+    }
+
+    void idsIssued(long count) {
+        if (metricsEnabled) {
+            idsIssued.add(count);
+        }
+    }
+
+    void contention() {
+        if (metricsEnabled) {
+            contentions.increment();
+        }
+    }
+
+    /**
+     * Records a sequence overflow.
+     *
+     * @param spins     the number of spin wait iterations
+     * @param sleptNanos the time the thread slept or parked, in nanoseconds
+     * @param waitNanos the total time the thread waited, in nanoseconds
+     */
+    void sequenceOverflow(long spins, long sleptNanos, long waitNanos) {
+        if (metricsEnabled) {
+            sequenceOverflows.increment();
+            if (spins > 0) {
+                spinIterations.add(spins);
+            }
+            if (sleptNanos > 0) {
+                sleepNanos.add(sleptNanos);
+            }
+        }
+        if (jfrEventsEnabled) {
+            JfrEvents.sequenceOverflow(sequenceOverflowStrategy, spins, waitNanos);
+        }
+    }
+
+    /**
+     * Records that the clock is behind the last timestamp.
+     * <p>
+     * While the clock is behind, every id observes the regression. The regression is counted and the JFR event is emitted
+     * only once, when the clock is first seen behind {@code lastTimestamp}. As the last timestamp doesn't move during a
+     * regression, later observations only cost a volatile read.
+     *
+     * @param lastTimestamp  the last timestamp
+     * @param behindTicks    how many ticks the clock is behind the last timestamp
+     * @param toleranceTicks the tolerated regression in ticks
+     */
+    void clockRegression(long lastTimestamp, long behindTicks, long toleranceTicks) {
+        if (!metricsEnabled && !jfrEventsEnabled) {
+            return;
+        }
+        if (metricsEnabled) {
+            maxClockRegressionTicks.accumulate(behindTicks);
+        }
+        long current;
+        do {
+            current = regressedTimestamp;
+            if (lastTimestamp <= current) {
+                // Same regression
+                return;
+            }
+        } while (!REGRESSED_TIMESTAMP.compareAndSet(this, current, lastTimestamp));
+
+        if (metricsEnabled) {
+            clockRegressions.increment();
+        }
+        if (jfrEventsEnabled) {
+            JfrEvents.clockRegression(behindTicks, toleranceTicks);
+        }
+    }
+
+    /**
+     * Records ids which have been generated with the last timestamp while the clock was behind it.
+     *
+     * @param count the number of ids
+     */
+    void idsDuringClockRegression(long count) {
+        if (metricsEnabled) {
+            clockRegressionIds.add(count);
+        }
+    }
+
+    /**
+     * Records the time a thread parked while waiting for the clock to catch up after a regression.
+     *
+     * @param sleptNanos the time the thread parked, in nanoseconds
+     */
+    void clockRegressionWait(long sleptNanos) {
+        if (metricsEnabled) {
+            sleepNanos.add(sleptNanos);
+        }
+    }
+
+    /**
+     * Creates a snapshot of the metrics.
+     *
+     * @return the snapshot
+     * @throws IllegalStateException if metrics are disabled
+     */
+    GeneratorMetrics snapshot() {
+        if (!metricsEnabled) {
+            throw new IllegalStateException("Metrics are disabled, enable them with Options.withMetricsEnabled(true)");
+        }
+        return new GeneratorMetrics(idsIssued.sum(), contentions.sum(), sequenceOverflows.sum(), spinIterations.sum(),
+            sleepNanos.sum(), clockRegressions.sum(), clockRegressionIds.sum(), maxClockRegressionTicks.get());
+    }
+}
@@ -0,0 +1,236 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits when the {@link Sequencer} can't generate an id: applies the {@link Options.SequenceOverflowStrategy} when the
+ * sequence of a timestamp is exhausted, and waits for the clock when it moved backwards.
+ *
+ * @author Moritz Halbritter
+ */
+final class SequenceOverflowHandler {
+    /**
+     * {@link Options.SequenceOverflowStrategy#ADAPTIVE} spins and yields for at most this fraction of the time between two
+     * overflows.
+     */
+    private static final int ADAPTIVE_SPIN_SHARE = 16;
+    /**
+     * Number of iterations to measure during calibration.
+     */
+    private static final int CALIBRATION_ITERATIONS = 64;
+
+    private final TimeSource timeSource;
+    private final Options.SequenceOverflowStrategy strategy;
+    private final long maskTime;
+    private final long maxDriftTicks;
+    private final long clockRegressionToleranceTicks;
+    private final MetricsRecorder metrics;
+
+    // Calibration of the adaptive strategy
+    private final long tickNanos;
+    private final long spinNanos;
+    private final long yieldNanos;
+    /**
+     * Moving average of the time between two overflows. Updated without synchronization, as a lost update only makes
+     * the average a bit less accurate.
+     */
+    private volatile long overflowIntervalNanos;
+    private volatile long lastOverflowNanos;
+
+    SequenceOverflowHandler(TimeSource timeSource, Options options, Sequencer sequencer, MetricsRecorder metrics) {
+        this.timeSource = timeSource;
+        this.metrics = metrics;
+        this.strategy = options.getSequenceOverflowStrategy();
+        this.maskTime = sequencer.getMaskTime();
+        this.maxDriftTicks = sequencer.getMaxDriftTicks();
+        this.clockRegressionToleranceTicks = sequencer.getClockRegressionToleranceTicks();
+        this.tickNanos = timeSource.getTickDuration().toNanos();
+        boolean adaptive = strategy == Options.SequenceOverflowStrategy.ADAPTIVE;
+        this.spinNanos = adaptive ? measureIteration(timeSource, false) : 1;
+        this.yieldNanos = adaptive ? measureIteration(timeSource, true) : 1;
+        // Until overflows have been observed, they are assumed to be rare
+        this.overflowIntervalNanos = tickNanos * ADAPTIVE_SPIN_SHARE;
+        this.lastOverflowNanos = System.nanoTime();
+    }
+
+    /**
+     * Measures how long an iteration of spinning or yielding takes, including reading the time source.
+     *
+     * @param timeSource the time source
+     * @param yield      whether to yield instead of spinning
+     * @return the nanoseconds per iteration
+     */
+    private static long measureIteration(TimeSource timeSource, boolean yield) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CALIBRATION_ITERATIONS; i++) {
+            if (yield) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+            sink += timeSource.getTicks();
+        }
+        // Use the ticks, so that the JIT doesn't remove the getTicks() calls
+        return Math.max(1, (System.nanoTime() - start + (sink & 1)) / CALIBRATION_ITERATIONS);
+    }
+
+    /**
+     * Handles a result of {@link Sequencer#next(long, long, long, long)} which isn't an id. Returns when the caller should
+     * retry.
+     *
+     * @param result        {@link Sequencer#SEQUENCE_OVERFLOW} or {@link Sequencer#CLOCK_REGRESSION}
+     * @param lastTimestamp the timestamp of the last generated id
+     * @throws IllegalStateException if the strategy is {@link Options.SequenceOverflowStrategy#THROW_EXCEPTION}, or if the
+     *                               thread has been interrupted while waiting. The interrupt flag stays set
+     */
+    void handle(long result, long lastTimestamp) {
+        if (result == Sequencer.CLOCK_REGRESSION) {
+            awaitClock(lastTimestamp - maxDriftTicks);
+            return;
+        }
+
+        long start = metrics.isTimingEnabled() ? System.nanoTime() : 0;
+        long spins = 0;
+        long slept = 0;
+        switch (strategy) {
+            case THROW_EXCEPTION:
+                metrics.sequenceOverflow(0, 0, 0);
+                throw new IllegalStateException("Sequence overflow");
+            case SPIN_WAIT:
+                spins = spinWaitForTick(lastTimestamp + 1);
+                break;
+            case SLEEP:
+                sleepForTickDuration();
+                slept = metrics.isTimingEnabled() ? System.nanoTime() - start : 0;
+                break;
+            case PARK:
+                parkUntilTick(lastTimestamp + 1, lastTimestamp - clockRegressionToleranceTicks);
+                slept = metrics.isTimingEnabled() ? System.nanoTime() - start : 0;
+                break;
+            case ADAPTIVE:
+                spins = spinThenYield(lastTimestamp + 1);
+                long parkStart = metrics.isTimingEnabled() ? System.nanoTime() : 0;
+                // Returns immediately if the tick has been reached while spinning
+                parkUntilTick(lastTimestamp + 1, lastTimestamp - clockRegressionToleranceTicks);
+                slept = metrics.isTimingEnabled() ? System.nanoTime() - parkStart : 0;
+                break;
+            case BORROW:
+                // The drift limit has been reached, wait until the clock has caught up
+                spins = spinWaitForTick(lastTimestamp + 1 - maxDriftTicks);
+                break;
+            default:
+                throw new AssertionError("Unexpected enum value: " + strategy);
+        }
+        metrics.sequenceOverflow(spins, slept, metrics.isTimingEnabled() ? System.nanoTime() - start : 0);
+    }
+
+    private void sleepForTickDuration() {
+        try {
+            TimeUnit.NANOSECONDS.sleep(timeSource.getTickDuration().toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw interrupted();
+        }
+    }
+
+    /**
+     * Spin waits until the clock reaches the given tick. Returns early if the clock moves backwards further than
+     * tolerated, so that the caller can fail.
+     *
+     * @param tick the tick to wait for
+     * @return the number of spin iterations
+     */
+    private long spinWaitForTick(long tick) {
+        long floor = tick - 1 - clockRegressionToleranceTicks;
+        long spins = 0;
+        long timestamp;
+        do {
+            Thread.onSpinWait();
+            spins++;
+            timestamp = timeSource.getTicks() & maskTime;
+        } while (timestamp < tick && timestamp >= floor);
+        return spins;
+    }
+
+    /**
+     * First stages of {@link Options.SequenceOverflowStrategy#ADAPTIVE}: spins, then yields, until the clock reaches the
+     * given tick or the windows are used up. Both windows are the same share of the average time between overflows, at
+     * most one tick, converted to iterations with the calibrated iteration costs.
+     *
+     * @param tick the tick to wait for
+     * @return the number of spin and yield iterations
+     */
+    private long spinThenYield(long tick) {
+        long now = System.nanoTime();
+        long interval = now - lastOverflowNanos;
+        lastOverflowNanos = now;
+        long average = overflowIntervalNanos;
+        average += (interval - average) / 8;
+        overflowIntervalNanos = average;
+
+        long windowNanos = Math.min(tickNanos, average / ADAPTIVE_SPIN_SHARE);
+        long maxSpins = windowNanos / spinNanos;
+        long maxYields = windowNanos / yieldNanos;
+
+        long floor = tick - 1 - clockRegressionToleranceTicks;
+        long spins = 0;
+        while (spins < maxSpins + maxYields) {
+            if (spins < maxSpins) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            spins++;
+            long timestamp = timeSource.getTicks() & maskTime;
+            if (timestamp >= tick || timestamp < floor) {
+                break;
+            }
+        }
+        return spins;
+    }
+
+    /**
+     * Parks until the clock has caught up with the given tick after a clock regression.
+     *
+     * @param tick the tick to wait for
+     */
+    private void awaitClock(long tick) {
+        long start = metrics.isTimingEnabled() ? System.nanoTime() : 0;
+        parkUntilTick(tick, tick - clockRegressionToleranceTicks);
+        if (metrics.isTimingEnabled()) {
+            metrics.clockRegressionWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Parks until the clock reaches the given tick, for exactly as long as the time source says it takes. Returns early
+     * if the clock moves below {@code floor}, so that the caller can fail.
+     *
+     * @param tick  the tick to wait for
+     * @param floor the lowest tick the clock may move back to
+     * @throws IllegalStateException if the thread has been interrupted
+     */
+    private void parkUntilTick(long tick, long floor) {
+        long ticks = timeSource.getTicks();
+        long timestamp = ticks & maskTime;
+        while (timestamp < tick && timestamp >= floor) {
+            // tick is masked, translate it back to the ticks of the time source
+            long nanos = timeSource.nanosUntilTick(ticks + tick - timestamp);
+            LockSupport.parkNanos(this, Math.max(1, nanos));
+            if (Thread.currentThread().isInterrupted()) {
+                throw interrupted();
+            }
+            ticks = timeSource.getTicks();
+            timestamp = ticks & maskTime;
+        }
+    }
+
+    private static IllegalStateException interrupted() {
+        return new IllegalStateException("Interrupted while waiting for the clock");
+    }
+}
@@ -0,0 +1,138 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.CheckpointedTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.time.Duration;
+
+/**
+ * Calculates the id which follows the last generated id. Holds no generator state, only the precalculated values of the
+ * structure and the options, so it can be shared by generators which store their state differently.
+ *
+ * @author Moritz Halbritter
+ */
+final class Sequencer {
+    /**
+     * Returned by {@link #next(long, long, long, long)} if the sequence of the last timestamp is exhausted.
+     */
+    static final long SEQUENCE_OVERFLOW = -1;
+    /**
+     * Returned by {@link #next(long, long, long, long)} if the clock moved backwards and the generator has to wait.
+     */
+    static final long CLOCK_REGRESSION = -2;
+
+    private final long maskTime;
+    private final int shiftTime;
+    private final long maxDriftTicks;
+    private final long clockRegressionToleranceTicks;
+    private final boolean waitOnClockRegression;
+    private final MetricsRecorder metrics;
+
+    Sequencer(TimeSource timeSource, Structure structure, Options options, MetricsRecorder metrics) {
+        this.metrics = metrics;
+        maskTime = (1L << structure.getTimestampBits()) - 1;
+        shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
+        maxDriftTicks = options.getSequenceOverflowStrategy() == Options.SequenceOverflowStrategy.BORROW ? toTicks(options.getMaxDrift(), timeSource) : 0;
+        if (timeSource instanceof CheckpointedTimeSource) {
+            Duration limit = ((CheckpointedTimeSource) timeSource).getMaxDrift();
+            if (maxDriftTicks > toTicks(limit, timeSource)) {
+                throw new IllegalArgumentException("maxDrift must be at most half the lease of the checkpointed time source, " + limit + ", but was " + options.getMaxDrift());
+            }
+        }
+        clockRegressionToleranceTicks = options.getClockRegressionStrategy() == Options.ClockRegressionStrategy.THROW_EXCEPTION ? 0 : toTicks(options.getClockRegressionTolerance(), timeSource);
+        waitOnClockRegression = options.getClockRegressionStrategy() == Options.ClockRegressionStrategy.WAIT;
+    }
+
+    /**
+     * Calculates the id which follows the given last id.
+     *
+     * @param last        the last generated id, -1 if none has been generated yet
+     * @param ticks       the current ticks of the time source
+     * @param maxSequence the largest sequence number
+     * @param prefix      the bits of the id below the timestamp which are constant, e.g. the generator id
+     * @return the next id, or {@link #SEQUENCE_OVERFLOW} or {@link #CLOCK_REGRESSION} if the caller has to wait
+     * @throws IllegalStateException if the clock gave negative ticks or moved backwards too far
+     */
+    long next(long last, long ticks, long maxSequence, long prefix) {
+        if (ticks < 0) {
+            throw new IllegalStateException("Clock gave negative ticks");
+        }
+        long clock = ticks & maskTime;
+        long timestamp = clock;
+        long lastTimestamp = timestampOf(last);
+
+        // Guard against non-monotonic clocks. When borrowing, the last timestamp may be ahead of the clock
+        if (timestamp < lastTimestamp) {
+            long behind = lastTimestamp - timestamp;
+            if (behind > maxDriftTicks) {
+                metrics.clockRegression(lastTimestamp, behind - maxDriftTicks, clockRegressionToleranceTicks);
+            }
+            if (behind > maxDriftTicks + clockRegressionToleranceTicks) {
+                throw new IllegalStateException("Timestamp moved backwards or wrapped around");
+            }
+            if (behind > maxDriftTicks && waitOnClockRegression) {
+                return CLOCK_REGRESSION;
+            }
+            timestamp = lastTimestamp;
+        }
+
+        if (timestamp == lastTimestamp) {
+            // Same timeslot
+            if ((last & maxSequence) >= maxSequence) {
+                // Borrow the next timeslot, if that doesn't exceed the drift limit
+                if (lastTimestamp + 1 - clock <= maxDriftTicks && lastTimestamp < maskTime) {
+                    return ((lastTimestamp + 1) << shiftTime) + prefix;
+                }
+                return SEQUENCE_OVERFLOW;
+            }
+            return last + 1;
+        }
+
+        // other timeslot, start with sequence 0
+        return (timestamp << shiftTime) + prefix;
+    }
+
+    /**
+     * Records a run of ids which the generator has committed, i.e. which it hands out.
+     *
+     * @param first the first id of the run, as returned by {@link #next(long, long, long, long)}
+     * @param ticks the ticks the first id has been calculated with
+     * @param run   the number of ids in the run
+     */
+    void issued(long first, long ticks, int run) {
+        metrics.idsIssued(run);
+        // Ahead of the clock by more than borrowing allows, so the ids continue the last timestamp during a regression
+        if (timestampOf(first) - (ticks & maskTime) > maxDriftTicks) {
+            metrics.idsDuringClockRegression(run);
+        }
+    }
+
+    /**
+     * Extracts the timestamp of the given id.
+     *
+     * @param id the id, or -1
+     * @return the timestamp, or -1 if the id is -1
+     */
+    long timestampOf(long id) {
+        // Arithmetic shift, so that -1 (no id generated yet) results in -1
+        return id >> shiftTime;
+    }
+
+    long getMaskTime() {
+        return maskTime;
+    }
+
+    long getMaxDriftTicks() {
+        return maxDriftTicks;
+    }
+
+    long getClockRegressionToleranceTicks() {
+        return clockRegressionToleranceTicks;
+    }
+
+    private static long toTicks(Duration duration, TimeSource timeSource) {
+        return duration.toNanos() / timeSource.getTickDuration().toNanos();
+    }
+}
@@ -0,0 +1,317 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Generates snowflake ids with a state which is shared by all processes on a host. This class is thread safe, and safe
+ * to use from multiple processes.
+ * <p>
+ * The last generated id lives in a memory-mapped file and is advanced with compare-and-set, exactly like
+ * {@link Options.ConcurrencyStrategy#LOCK_FREE} does in memory. All processes which open the same file share one
+ * generator id and generate unique, increasing ids without any locking. If a process dies, the state is still
+ * consistent, as it only changes with a single atomic write.
+ * <p>
+ * The file starts with a header containing the generator id, the structure, and the epoch and tick duration of the time
+ * source, protected by a checksum. Opening a file with a different configuration or a corrupted header fails. An
+ * all-zero header is left by a process which died before writing it, so such a file is initialized like a new one.
+ * Opening a file whose last id is further ahead of the clock than the generator tolerates fails, too: the file is stale,
+ * e.g. because it has been written by a machine with a different clock.
+ * <p>
+ * The processes must use time sources which agree on the time. Clocks of different processes usually differ slightly,
+ * so use {@link Options.ClockRegressionStrategy#CONTINUE}, see {@link #createDefault(Path, int)}. The
+ * {@link Options.ConcurrencyStrategy} is ignored. The file must be on a local file system.
+ *
+ * @author Moritz Halbritter
+ */
+public class SharedSnowflakeIdGenerator {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x534E5348; // SNSH
+    private static final int VERSION = 1;
+
+    // File layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int TIMESTAMP_BITS_OFFSET = 8;
+    private static final int GENERATOR_BITS_OFFSET = 12;
+    private static final int SEQUENCE_BITS_OFFSET = 16;
+    private static final int GENERATOR_ID_OFFSET = 24;
+    private static final int TICK_NANOS_OFFSET = 32;
+    private static final int EPOCH_SECONDS_OFFSET = 40;
+    private static final int EPOCH_NANOS_OFFSET = 48;
+    private static final int CHECKSUM_OFFSET = 56;
+    /**
+     * Last generated id, -1 if no id has been generated yet. Has its own cache line.
+     */
+    private static final int LAST_ID_OFFSET = 64;
+    private static final int FILE_SIZE = 128;
+
+    // Stuff which is set in the constructor
+    private final Path file;
+    private final long generatorId;
+    private final TimeSource timeSource;
+    private final Structure structure;
+    private final Options options;
+    private final MappedByteBuffer state;
+    private final Sequencer sequencer;
+    private final SequenceOverflowHandler overflowHandler;
+    private final MetricsRecorder metrics;
+
+    // precalculated variables for bit magic
+    private final long maxSequence;
+    private final long generatorPrefix;
+
+    // Structure:
+    // time || generator || sequence
+    private SharedSnowflakeIdGenerator(Path file, long generatorId, TimeSource timeSource, Structure structure, Options options) throws IOException {
+        this.file = Objects.requireNonNull(file, "file");
+        this.timeSource = Objects.requireNonNull(timeSource, "timeSource");
+        this.structure = Objects.requireNonNull(structure, "structure");
+        this.options = Objects.requireNonNull(options, "options");
+
+        if (generatorId < 0 || generatorId >= structure.maxGenerators()) {
+            throw new IllegalArgumentException("generatorId must be between 0 (inclusive) and " + structure.maxGenerators() + " (exclusive), but was " + generatorId);
+        }
+
+        this.generatorId = generatorId;
+        maxSequence = (1L << structure.getSequenceBits()) - 1;
+        generatorPrefix = generatorId << structure.getSequenceBits();
+        metrics = new MetricsRecorder(options);
+        sequencer = new Sequencer(timeSource, structure, options, metrics);
+        overflowHandler = new SequenceOverflowHandler(timeSource, options, sequencer, metrics);
+
+        // The mapping stays valid after the channel has been closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Lock while initializing and validating, so that processes which open a new file concurrently don't see a
+            // partially written header. Generating ids doesn't need the lock
+            try (FileLock ignored = channel.lock()) {
+                long size = channel.size();
+                if (size != 0 && size != FILE_SIZE) {
+                    throw new IllegalStateException("State file " + file + " is corrupted: expected " + FILE_SIZE + " bytes, but got " + size);
+                }
+                state = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                // A process which died between creating the file and writing the header leaves it zero-filled
+                if (size == 0 || isUninitialized()) {
+                    initialize();
+                } else {
+                    validate();
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the next id.
+     *
+     * @return next id
+     * @throws IllegalStateException if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred
+     */
+    public long next() {
+        while (true) {
+            // Read the state before the clock, otherwise a concurrent update could look like a clock moving backwards
+            long last = (long) LONGS.getVolatile(state, LAST_ID_OFFSET);
+            long ticks = timeSource.getTicks();
+            long id = sequencer.next(last, ticks, maxSequence, generatorPrefix);
+            if (id < 0) {
+                overflowHandler.handle(id, sequencer.timestampOf(last));
+            } else if (LONGS.compareAndSet(state, LAST_ID_OFFSET, last, id)) {
+                sequencer.issued(id, ticks, 1);
+                return id;
+            } else {
+                metrics.contention();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this generator. Only the ids generated by this process are counted.
+     *
+     * @return the metrics
+     * @throws IllegalStateException if metrics are disabled, see {@link Options#withMetricsEnabled(boolean)}
+     */
+    public GeneratorMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Returns the state file.
+     *
+     * @return the state file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the generator id.
+     *
+     * @return the generator id
+     */
+    public long getGeneratorId() {
+        return generatorId;
+    }
+
+    /**
+     * Returns the time source.
+     *
+     * @return the time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Returns the options.
+     *
+     * @return the options
+     */
+    public Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the structure.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    private void initialize() {
+        Instant epoch = timeSource.getEpoch();
+        state.putInt(MAGIC_OFFSET, MAGIC);
+        state.putInt(VERSION_OFFSET, VERSION);
+        state.putInt(TIMESTAMP_BITS_OFFSET, structure.getTimestampBits());
+        state.putInt(GENERATOR_BITS_OFFSET, structure.getGeneratorBits());
+        state.putInt(SEQUENCE_BITS_OFFSET, structure.getSequenceBits());
+        state.putLong(GENERATOR_ID_OFFSET, generatorId);
+        state.putLong(TICK_NANOS_OFFSET, timeSource.getTickDuration().toNanos());
+        state.putLong(EPOCH_SECONDS_OFFSET, epoch.getEpochSecond());
+        state.putInt(EPOCH_NANOS_OFFSET, epoch.getNano());
+        state.putLong(CHECKSUM_OFFSET, headerChecksum());
+        LONGS.setVolatile(state, LAST_ID_OFFSET, -1L);
+        state.force();
+    }
+
+    /**
+     * Returns whether the header is all zeros. The header is written before any id, so no id has been generated.
+     *
+     * @return whether the header is all zeros
+     */
+    private boolean isUninitialized() {
+        for (int i = 0; i < LAST_ID_OFFSET; i += Long.BYTES) {
+            if (state.getLong(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void validate() {
+        if (state.getInt(MAGIC_OFFSET) != MAGIC || state.getInt(VERSION_OFFSET) != VERSION || state.getLong(CHECKSUM_OFFSET) != headerChecksum()) {
+            throw new IllegalStateException("State file " + file + " is corrupted or has an unsupported version");
+        }
+        Structure fileStructure = new Structure(state.getInt(TIMESTAMP_BITS_OFFSET), state.getInt(GENERATOR_BITS_OFFSET), state.getInt(SEQUENCE_BITS_OFFSET));
+        if (!sameStructure(fileStructure)) {
+            throw new IllegalStateException("State file " + file + " has been written with structure " + fileStructure + ", but the generator uses " + structure);
+        }
+        long fileGeneratorId = state.getLong(GENERATOR_ID_OFFSET);
+        if (fileGeneratorId != generatorId) {
+            throw new IllegalStateException("State file " + file + " belongs to generator id " + fileGeneratorId + ", but the generator uses " + generatorId);
+        }
+        Instant epoch = Instant.ofEpochSecond(state.getLong(EPOCH_SECONDS_OFFSET), state.getInt(EPOCH_NANOS_OFFSET));
+        long tickNanos = state.getLong(TICK_NANOS_OFFSET);
+        if (tickNanos != timeSource.getTickDuration().toNanos() || !epoch.equals(timeSource.getEpoch())) {
+            throw new IllegalStateException("State file " + file + " has been written with epoch " + epoch + " and tick duration " + Duration.ofNanos(tickNanos) + ", but the time source uses epoch " + timeSource.getEpoch() + " and tick duration " + timeSource.getTickDuration());
+        }
+
+        long last = (long) LONGS.getVolatile(state, LAST_ID_OFFSET);
+        if (last == -1) {
+            return;
+        }
+        if (last < 0 || (last & ~maxSequence & ((1L << (structure.getGeneratorBits() + structure.getSequenceBits())) - 1)) != generatorPrefix) {
+            throw new IllegalStateException("State file " + file + " is corrupted: last id " + last + " doesn't belong to generator id " + generatorId);
+        }
+        long ahead = sequencer.timestampOf(last) - (timeSource.getTicks() & sequencer.getMaskTime());
+        if (ahead > sequencer.getMaxDriftTicks() + sequencer.getClockRegressionToleranceTicks()) {
+            throw new IllegalStateException("State file " + file + " is stale: its last id is " + timeSource.getTickDuration().multipliedBy(ahead) + " ahead of the clock");
+        }
+    }
+
+    private boolean sameStructure(Structure other) {
+        return other.getTimestampBits() == structure.getTimestampBits() && other.getGeneratorBits() == structure.getGeneratorBits() && other.getSequenceBits() == structure.getSequenceBits();
+    }
+
+    private long headerChecksum() {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < CHECKSUM_OFFSET; i++) {
+            crc.update(state.get(i));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Opens or creates a shared snowflake id generator.
+     *
+     * @param file        the state file. Is created if it doesn't exist. All processes which share the generator must use
+     *                    the same file
+     * @param generatorId the id of the generator. Must be unique across all hosts
+     * @param timeSource  the timesource to use
+     * @param structure   the id structure
+     * @param options     the options
+     * @return the shared snowflake id generator
+     * @throws IOException           if the state file can't be opened
+     * @throws IllegalStateException if the state file is corrupted, stale, or has been written with another configuration
+     */
+    public static SharedSnowflakeIdGenerator createCustom(Path file, long generatorId, TimeSource timeSource, Structure structure, Options options) throws IOException {
+        return new SharedSnowflakeIdGenerator(file, generatorId, timeSource, structure, options);
+    }
+
+    /**
+     * Opens or creates a shared generator with default settings.
+     * <p>
+     * Uses 2020-01-01T00:00:00Z as epoch, 41 bits for the timestamp, 10 for the generator id and 12 for the sequence. If a
+     * sequence overflow occurs, uses spin wait to wait for the next timestamp. As the clocks of the processes differ
+     * slightly, clock regressions of up to 100 ms continue with the last timestamp.
+     *
+     * @param file        the state file. Is created if it doesn't exist
+     * @param generatorId the id of the generator. Must be unique across all hosts
+     * @return generator
+     * @throws IOException           if the state file can't be opened
+     * @throws IllegalStateException if the state file is corrupted, stale, or has been written with another configuration
+     */
+    public static SharedSnowflakeIdGenerator createDefault(Path file, int generatorId) throws IOException {
+        Options options = Options.createDefault().withClockRegressionStrategy(Options.ClockRegressionStrategy.CONTINUE, Duration.ofMillis(100));
+        return new SharedSnowflakeIdGenerator(file, generatorId, MonotonicTimeSource.createDefault(), Structure.createDefault(), options);
+    }
+
+    @Override
+    public String toString() {
+        return "SharedSnowflakeIdGenerator{" +
+            "file=" + file +
+            ", generatorId=" + generatorId +
+            ", timeSource=" + timeSource +
+            ", structure=" + structure +
+            ", options=" + options +
+            '}';
+    }
+}
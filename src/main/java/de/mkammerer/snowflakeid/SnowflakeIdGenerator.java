@@ -1,13 +1,25 @@
 package de.mkammerer.snowflakeid;
 
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
 import de.mkammerer.snowflakeid.options.Options;
 import de.mkammerer.snowflakeid.structure.Structure;
 import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
 import de.mkammerer.snowflakeid.time.TimeSource;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.LongBuffer;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
  * Generates snowflake ids. This class is thread safe.
@@ -16,7 +28,27 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class SnowflakeIdGenerator {
     /**
-     * Lock for sequence and lastTimestamp.
+     * Returned by {@link #tryNext()} if no id is available in the current tick. Ids are never negative.
+     */
+    public static final long NO_ID = -1;
+
+    private static final VarHandle LAST_ID;
+
+    /**
+     * Number of ids {@link #stream()} and {@link #publisher()} reserve at once.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+
+    static {
+        try {
+            LAST_ID = MethodHandles.lookup().findVarHandle(SnowflakeIdGenerator.class, "lastId", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Lock for lastId, only used with {@link Options.ConcurrencyStrategy#LOCK}.
      */
     private final Lock lock = new ReentrantLock();
 
@@ -25,21 +57,24 @@ public class SnowflakeIdGenerator {
     private final TimeSource timeSource;
     private final Structure structure;
     private final Options options;
+    private final boolean lockFree;
+    private final Sequencer sequencer;
+    private final SequenceOverflowHandler overflowHandler;
+    private final MetricsRecorder metrics;
+    private final AsyncIdQueue asyncQueue;
 
     // precalculated variables for bit magic
     private final long maxSequence;
     private final long maskTime;
-    private final int shiftTime;
-    private final int shiftGenerator;
+    private final long generatorPrefix;
 
     /**
-     * Tracks the last generated timestamp.
-     */
-    private long lastTimestamp = -1;
-    /**
-     * Sequence number, unique per timestamp.
+     * The last generated id, -1 if no id has been generated yet. As the generator bits are constant, this packs the last
+     * timestamp and the sequence into a single long.
+     * <p>
+     * Guarded by {@link #lock} or accessed through {@link #LAST_ID}, depending on the concurrency strategy.
      */
-    private long sequence = 0;
+    private long lastId = -1;
 
     // Structure:
     // time || generator || sequence
@@ -53,11 +88,15 @@ public class SnowflakeIdGenerator {
         }
 
         this.generatorId = generatorId;
+        this.lockFree = options.getConcurrencyStrategy() == Options.ConcurrencyStrategy.LOCK_FREE;
 
         maskTime = calculateMask(structure.getTimestampBits());
         maxSequence = calculateMask(structure.getSequenceBits());
-        shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
-        shiftGenerator = structure.getSequenceBits();
+        generatorPrefix = generatorId << structure.getSequenceBits();
+        metrics = new MetricsRecorder(options);
+        sequencer = new Sequencer(timeSource, structure, options, metrics);
+        overflowHandler = new SequenceOverflowHandler(timeSource, options, sequencer, metrics);
+        asyncQueue = new AsyncIdQueue(this);
     }
 
     /**
@@ -67,38 +106,365 @@ public class SnowflakeIdGenerator {
      * @throws IllegalStateException if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred
      */
     public long next() {
-        lock.lock();
-        try {
+        return reserveRun(1);
+    }
+
+    /**
+     * Generates the next id, if one is available without waiting. Never waits for the clock, so it's safe to call on an
+     * event loop.
+     *
+     * @return next id, or {@link #NO_ID} if the sequence of the current tick is exhausted or the generator waits for the
+     * clock to catch up. The sequence overflow strategy isn't applied
+     * @throws IllegalStateException if some invariant has been broken, e.g. the clock moved backwards too far
+     */
+    public long tryNext() {
+        long id = tryReserveRun(1);
+        return id >= 0 ? id : NO_ID;
+    }
+
+    /**
+     * Generates the next id asynchronously. Never waits for the clock on the calling thread.
+     * <p>
+     * If an id is available and no other caller waits, the returned future is already completed. Otherwise the future is
+     * completed on {@code scheduler} when the next tick starts, after the futures of the callers which already wait. All callers which wait for a tick share a single scheduled task, no
+     * matter how many of them there are. With {@link Options.SequenceOverflowStrategy#THROW_EXCEPTION}, the future fails
+     * instead of waiting.
+     *
+     * @param scheduler the scheduler for the wake-up, e.g. an event loop
+     * @return the future id
+     */
+    public CompletableFuture<Long> nextAsync(ScheduledExecutorService scheduler) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        return asyncQueue.next(scheduler, (task, nanos) -> scheduler.schedule(task, nanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Generates the next id asynchronously. Never waits for the clock on the calling thread.
+     * <p>
+     * Like {@link #nextAsync(ScheduledExecutorService)}, but the wake-up is scheduled with
+     * {@link CompletableFuture#delayedExecutor(long, TimeUnit, Executor)} and the future is completed on {@code executor}.
+     *
+     * @param executor the executor to complete the future on
+     * @return the future id
+     */
+    public CompletableFuture<Long> nextAsync(Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+        return asyncQueue.next(executor, (task, nanos) -> CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS, executor).execute(task));
+    }
+
+    /**
+     * Generates {@code len} ids and stores them in {@code dst}, starting at {@code off}.
+     * <p>
+     * The ids are identical to what {@code len} calls to {@link #next()} would produce, but are reserved in contiguous
+     * runs: the generator state is only synchronized once per tick instead of once per id. If the sequence space of a tick
+     * runs out, the sequence overflow strategy is applied and generation continues in a later tick.
+     *
+     * @param dst the array to store the ids in
+     * @param off the offset in {@code dst} of the first id
+     * @param len the number of ids to generate
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} are out of bounds
+     * @throws IllegalStateException     if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred. In this case {@code dst} may be partially filled
+     */
+    public void next(long[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+
+        int end = off + len;
+        while (off < end) {
+            long first = reserveRun(end - off);
+            int run = runLength(first, end - off);
+            for (int i = 0; i < run; i++) {
+                dst[off + i] = first + i;
+            }
+            off += run;
+        }
+    }
+
+    /**
+     * Fills the remaining space of {@code dst} with ids. On return, the position of the buffer equals its limit.
+     * <p>
+     * See {@link #next(long[], int, int)} for details.
+     *
+     * @param dst the buffer to store the ids in
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only
+     * @throws IllegalStateException            if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred. In this case the position is behind the last id which has been generated, so the ids before it can still be used
+     */
+    public void next(LongBuffer dst) {
+        if (dst.hasArray()) {
+            long[] array = dst.array();
+            while (dst.hasRemaining()) {
+                long first = reserveRun(dst.remaining());
+                int run = runLength(first, dst.remaining());
+                int start = dst.arrayOffset() + dst.position();
+                for (int i = 0; i < run; i++) {
+                    array[start + i] = first + i;
+                }
+                dst.position(dst.position() + run);
+            }
+            return;
+        }
+
+        while (dst.hasRemaining()) {
+            long first = reserveRun(dst.remaining());
+            int run = runLength(first, dst.remaining());
+            for (int i = 0; i < run; i++) {
+                dst.put(first + i);
+            }
+        }
+    }
+
+    /**
+     * Returns an infinite stream of ids. Reserves the ids in runs of up to 256 ids, see {@link #stream(int)}.
+     *
+     * @return stream of ids
+     */
+    public LongStream stream() {
+        return stream(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns an infinite, sequential stream of ids. The ids are increasing.
+     * <p>
+     * The ids are reserved in runs of up to {@code chunkSize} ids, so the generator state is only synchronized once per
+     * run. Reserved ids which are not consumed, e.g. because of {@link LongStream#limit(long)}, are lost. Generator
+     * failures, e.g. a sequence overflow, are thrown by the terminal operation.
+     *
+     * @param chunkSize the maximum number of ids to reserve at once. Must be positive
+     * @return stream of ids
+     */
+    public LongStream stream(int chunkSize) {
+        checkChunkSize(chunkSize);
+        return StreamSupport.longStream(new IdSpliterator(this, chunkSize), false);
+    }
+
+    /**
+     * Returns a publisher of ids. Reserves the ids in runs of up to 256 ids, see {@link #publisher(int)}.
+     *
+     * @return publisher of ids
+     */
+    public Flow.Publisher<Long> publisher() {
+        return publisher(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns a publisher of ids. Every subscriber gets its own infinite sequence of increasing ids.
+     * <p>
+     * Ids are emitted on the thread which requests them. The requested ids are reserved in runs of up to {@code chunkSize}
+     * ids, so the generator state is only synchronized once per run instead of once per id. Generator failures, e.g. a
+     * sequence overflow, are signalled with {@link Flow.Subscriber#onError(Throwable)}.
+     *
+     * @param chunkSize the maximum number of ids to reserve at once. Must be positive
+     * @return publisher of ids
+     */
+    public Flow.Publisher<Long> publisher(int chunkSize) {
+        checkChunkSize(chunkSize);
+        return new IdPublisher(this, chunkSize);
+    }
+
+    private static void checkChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, but was " + chunkSize);
+        }
+    }
+
+    /**
+     * Reserves up to {@code count} ids in the current tick.
+     *
+     * @param count the number of ids wanted, must be greater than 0
+     * @return the first reserved id. Use {@link #runLength(long, int)} to find out how many ids have been reserved
+     */
+    long reserveRun(int count) {
+        return lockFree ? reserveRunLockFree(count) : reserveRunLocked(count);
+    }
+
+    private long reserveRunLocked(int count) {
+        while (true) {
+            long last;
+            long first;
+            if (!lock.tryLock()) {
+                metrics.contention();
+                lock.lock();
+            }
+            try {
+                last = lastId;
+                long ticks = timeSource.getTicks();
+                first = sequencer.next(last, ticks, maxSequence, generatorPrefix);
+                if (first >= 0) {
+                    int run = runLength(first, count);
+                    lastId = first + run - 1;
+                    sequencer.issued(first, ticks, run);
+                    return first;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Wait without holding the lock, so that waiting threads don't queue up behind each other and virtual threads
+            // can unmount. The state is read again afterwards
+            overflowHandler.handle(first, sequencer.timestampOf(last));
+        }
+    }
+
+    private long reserveRunLockFree(int count) {
+        while (true) {
+            // Read the state before the clock, otherwise a concurrent update could look like a clock moving backwards
+            long last = (long) LAST_ID.getVolatile(this);
             long ticks = timeSource.getTicks();
-            if (ticks < 0) {
-                throw new IllegalStateException("Clock gave negative ticks");
+            long first = sequencer.next(last, ticks, maxSequence, generatorPrefix);
+            if (first < 0) {
+                overflowHandler.handle(first, sequencer.timestampOf(last));
+                continue;
             }
-            long timestamp = ticks & maskTime;
+            int run = runLength(first, count);
+            if (LAST_ID.compareAndSet(this, last, first + run - 1)) {
+                sequencer.issued(first, ticks, run);
+                return first;
+            }
+            metrics.contention();
+        }
+    }
 
-            // Guard against non-monotonic clocks
-            if (timestamp < lastTimestamp) {
-                throw new IllegalStateException("Timestamp moved backwards or wrapped around");
+    /**
+     * Fast path of {@link Specialized#next()}. Generates an id if that doesn't need any waiting, contention handling or
+     * special cases.
+     *
+     * @param assembler the assembler of the specialized generator
+     * @return the id, or {@link IdAssembler#SLOW_PATH} if the generic path has to be taken
+     */
+    private long nextFast(IdAssembler assembler) {
+        if (lockFree) {
+            long last = (long) LAST_ID.getVolatile(this);
+            long id = assembler.next(timeSource, last);
+            if (id != IdAssembler.SLOW_PATH && LAST_ID.compareAndSet(this, last, id)) {
+                metrics.idsIssued(1);
+                return id;
+            }
+            return IdAssembler.SLOW_PATH;
+        }
+        if (!lock.tryLock()) {
+            return IdAssembler.SLOW_PATH;
+        }
+        try {
+            long id = assembler.next(timeSource, lastId);
+            if (id != IdAssembler.SLOW_PATH) {
+                lastId = id;
+                metrics.idsIssued(1);
             }
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (timestamp == lastTimestamp) {
-                // Same timeslot
-                if (sequence >= maxSequence) {
-                    handleSequenceOverflow();
-                    return next();
+    /**
+     * Reserves up to {@code count} ids in the current tick, without waiting.
+     *
+     * @param count the number of ids wanted, must be greater than 0
+     * @return the first reserved id, or {@link Sequencer#SEQUENCE_OVERFLOW} or {@link Sequencer#CLOCK_REGRESSION}
+     */
+    long tryReserveRun(int count) {
+        if (lockFree) {
+            while (true) {
+                long last = (long) LAST_ID.getVolatile(this);
+                long ticks = timeSource.getTicks();
+                long first = sequencer.next(last, ticks, maxSequence, generatorPrefix);
+                if (first < 0) {
+                    return first;
                 }
-                sequence++;
-            } else {
-                // other timeslot, reset sequence
-                sequence = 0;
-                lastTimestamp = timestamp;
+                int run = runLength(first, count);
+                if (LAST_ID.compareAndSet(this, last, first + run - 1)) {
+                    sequencer.issued(first, ticks, run);
+                    return first;
+                }
+                metrics.contention();
+            }
+        }
+
+        if (!lock.tryLock()) {
+            metrics.contention();
+            lock.lock();
+        }
+        try {
+            long ticks = timeSource.getTicks();
+            long first = sequencer.next(lastId, ticks, maxSequence, generatorPrefix);
+            if (first >= 0) {
+                int run = runLength(first, count);
+                lastId = first + run - 1;
+                sequencer.issued(first, ticks, run);
             }
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Calculates how long it takes until the next id is available: until the tick after the last timestamp, or with
+     * {@link Options.SequenceOverflowStrategy#BORROW} until the drift is below the limit again.
+     *
+     * @return the nanoseconds until the next id is available, 0 if it's available now
+     */
+    long nanosUntilNextId() {
+        long lastTimestamp = sequencer.timestampOf(readLastId());
+        long tick = lastTimestamp + 1 - sequencer.getMaxDriftTicks();
+        long ticks = timeSource.getTicks();
+        // tick is masked, translate it back to the ticks of the time source
+        return Math.max(0, timeSource.nanosUntilTick(ticks + tick - (ticks & maskTime)));
+    }
 
-            return (timestamp << shiftTime) + (generatorId << shiftGenerator) + sequence;
+    /**
+     * Reads the last id outside of id generation. With {@link Options.ConcurrencyStrategy#LOCK}, {@link #lastId} is
+     * written with plain stores, so it has to be read under the lock.
+     *
+     * @return the last id
+     */
+    private long readLastId() {
+        if (lockFree) {
+            return (long) LAST_ID.getVolatile(this);
+        }
+        lock.lock();
+        try {
+            return lastId;
         } finally {
             lock.unlock();
         }
     }
 
+    boolean throwsOnSequenceOverflow() {
+        return options.getSequenceOverflowStrategy() == Options.SequenceOverflowStrategy.THROW_EXCEPTION;
+    }
+
+    /**
+     * Calculates how many ids, starting at {@code first}, fit into the sequence space of the tick of {@code first}.
+     *
+     * @param first the first id of the run
+     * @param count the number of ids wanted
+     * @return the number of ids in the run, between 1 and {@code count}
+     */
+    int runLength(long first, int count) {
+        return (int) Math.min(count, maxSequence - (first & maxSequence) + 1);
+    }
+
+    /**
+     * Returns how far the generator currently runs ahead of the clock. This is only greater than zero with
+     * {@link Options.SequenceOverflowStrategy#BORROW}, and never exceeds {@link Options#getMaxDrift()}.
+     *
+     * @return the current drift
+     */
+    public Duration getDrift() {
+        long lastTimestamp = sequencer.timestampOf(readLastId());
+        long drift = lastTimestamp - (timeSource.getTicks() & maskTime);
+        return drift > 0 ? timeSource.getTickDuration().multipliedBy(drift) : Duration.ZERO;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this generator.
+     *
+     * @return the metrics
+     * @throws IllegalStateException if metrics are disabled, see {@link Options#withMetricsEnabled(boolean)}
+     */
+    public GeneratorMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
     /**
      * Returns the generator id.
      *
@@ -148,6 +514,29 @@ public class SnowflakeIdGenerator {
         return new SnowflakeIdGenerator(generatorId, timeSource, structure, options);
     }
 
+    /**
+     * Creates a snowflake id generator which is specialized for the given generator id, structure and time source.
+     * <p>
+     * A class is generated for the bit layout and the generator id, in which they are constants. {@link #next()} takes a
+     * fast path through this class for the common cases, a new tick or a free sequence in the current tick: the JIT folds
+     * the masks and shifts, and an id is assembled with a single OR. The time source is read from a call site in the
+     * generated class, which stays monomorphic when an application uses several time source implementations. Everything
+     * else, e.g. a sequence overflow, takes the generic path. The ids are the same as with
+     * {@link #createCustom(long, TimeSource, Structure, Options)}.
+     * <p>
+     * Generated classes are reused for the same layout, generator id and time source class, and are never unloaded. Create
+     * specialized generators for a few long-lived layouts, not per request.
+     *
+     * @param generatorId the id of the generator. Must be unique across all instances
+     * @param timeSource  the timesource to use
+     * @param structure   the id structure
+     * @param options     the options
+     * @return the created snowflake id generator
+     */
+    public static SnowflakeIdGenerator createSpecialized(long generatorId, TimeSource timeSource, Structure structure, Options options) {
+        return new Specialized(generatorId, timeSource, structure, options);
+    }
+
     /**
      * Creates a generator with default settings.
      * <p>
@@ -161,37 +550,6 @@ public class SnowflakeIdGenerator {
         return new SnowflakeIdGenerator(generatorId, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault());
     }
 
-    private void handleSequenceOverflow() {
-        switch (this.options.getSequenceOverflowStrategy()) {
-            case THROW_EXCEPTION:
-                throw new IllegalStateException("Sequence overflow");
-            case SPIN_WAIT:
-                spinWaitForNextTick(lastTimestamp);
-                break;
-            case SLEEP:
-                sleepForTickDuration();
-                break;
-            default:
-                throw new AssertionError("Unexpected enum value: " + this.options.getSequenceOverflowStrategy());
-        }
-    }
-
-    private void sleepForTickDuration() {
-        try {
-            Thread.sleep(timeSource.getTickDuration().toMillis());
-        } catch (InterruptedException e) {
-            // Do nothing
-        }
-    }
-
-    private void spinWaitForNextTick(long lastTimestamp) {
-        long timestamp;
-        do {
-            Thread.onSpinWait();
-            timestamp = timeSource.getTicks() & maskTime;
-        } while (timestamp == lastTimestamp);
-    }
-
     private long calculateMask(int bits) {
         return (1L << bits) - 1;
     }
@@ -205,4 +563,22 @@ public class SnowflakeIdGenerator {
             ", options=" + options +
             '}';
     }
+
+    /**
+     * Generator with a fast path for {@link #next()}, see {@link #createSpecialized(long, TimeSource, Structure, Options)}.
+     */
+    private static final class Specialized extends SnowflakeIdGenerator {
+        private final IdAssembler assembler;
+
+        private Specialized(long generatorId, TimeSource timeSource, Structure structure, Options options) {
+            super(generatorId, timeSource, structure, options);
+            this.assembler = IdAssembler.of(structure, generatorId, timeSource);
+        }
+
+        @Override
+        public long next() {
+            long id = super.nextFast(assembler);
+            return id != IdAssembler.SLOW_PATH ? id : reserveRun(1);
+        }
+    }
 }
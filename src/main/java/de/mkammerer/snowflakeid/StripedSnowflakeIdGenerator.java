@@ -0,0 +1,229 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generates snowflake ids with a striped sequence space. This class is thread safe.
+ * <p>
+ * The upper bits of the sequence select a stripe, the lower bits are a counter which is owned by that stripe. Every stripe
+ * has its own state on its own cache line, and a thread always uses the same stripe. This way, threads don't contend on a
+ * single memory location and throughput scales with the number of cores. The price is that a stripe only has
+ * {@code maxSequenceIds / stripes} ids per tick.
+ * <p>
+ * Ordering guarantees:
+ * <ul>
+ *     <li>Ids are unique, as the stripe is encoded in the id.</li>
+ *     <li>Ids from the same stripe are monotonically increasing. As a thread always uses the same stripe, ids generated by
+ *     the same thread are monotonically increasing, too.</li>
+ *     <li>Ids from different stripes are only ordered by their timestamp. Within the same tick, ids are ordered by their
+ *     stripe, not by the time they have been generated. Overall, ids are roughly sorted by time.</li>
+ * </ul>
+ * The {@link Options.ConcurrencyStrategy} is ignored, the stripes are always advanced with compare-and-set.
+ *
+ * @author Moritz Halbritter
+ */
+public class StripedSnowflakeIdGenerator {
+    /**
+     * Distance between two stripes in the state array. 16 longs are 128 bytes, which keeps stripes on separate cache
+     * lines, even with adjacent line prefetching.
+     */
+    private static final int PADDING = 16;
+
+    // Stuff which is set in the constructor
+    private final long generatorId;
+    private final int stripes;
+    private final TimeSource timeSource;
+    private final Structure structure;
+    private final Options options;
+    private final Sequencer sequencer;
+    private final SequenceOverflowHandler overflowHandler;
+    private final MetricsRecorder metrics;
+
+    // precalculated variables for bit magic
+    private final long maxCounter;
+    private final long generatorPrefix;
+    private final int shiftStripe;
+
+    /**
+     * Last generated id per stripe, -1 if the stripe hasn't generated an id yet. The stripe {@code i} is stored at index
+     * {@code i * PADDING}.
+     */
+    private final AtomicLongArray lastIds;
+
+    // Structure:
+    // time || generator || stripe || counter
+    private StripedSnowflakeIdGenerator(long generatorId, int stripes, TimeSource timeSource, Structure structure, Options options) {
+        this.timeSource = Objects.requireNonNull(timeSource, "timeSource");
+        this.structure = Objects.requireNonNull(structure, "structure");
+        this.options = Objects.requireNonNull(options, "options");
+
+        if (generatorId < 0 || generatorId >= structure.maxGenerators()) {
+            throw new IllegalArgumentException("generatorId must be between 0 (inclusive) and " + structure.maxGenerators() + " (exclusive), but was " + generatorId);
+        }
+        if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two, but was " + stripes);
+        }
+        int stripeBits = Integer.numberOfTrailingZeros(stripes);
+        if (stripeBits >= structure.getSequenceBits()) {
+            throw new IllegalArgumentException("stripes must be less than " + structure.maxSequenceIds() + ", but was " + stripes);
+        }
+
+        this.generatorId = generatorId;
+        this.stripes = stripes;
+
+        shiftStripe = structure.getSequenceBits() - stripeBits;
+        maxCounter = calculateMask(shiftStripe);
+        generatorPrefix = generatorId << structure.getSequenceBits();
+        metrics = new MetricsRecorder(options);
+        sequencer = new Sequencer(timeSource, structure, options, metrics);
+        overflowHandler = new SequenceOverflowHandler(timeSource, options, sequencer, metrics);
+
+        lastIds = new AtomicLongArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            lastIds.set(i * PADDING, -1);
+        }
+    }
+
+    /**
+     * Generates the next id on the stripe of the current thread.
+     *
+     * @return next id
+     * @throws IllegalStateException if some invariant has been broken, e.g. the clock moved backwards or a sequence overflow occurred
+     */
+    public long next() {
+        int stripe = (int) Thread.currentThread().getId() & (stripes - 1);
+        int index = stripe * PADDING;
+        long prefix = generatorPrefix + ((long) stripe << shiftStripe);
+
+        while (true) {
+            // Read the state before the clock, otherwise a concurrent update could look like a clock moving backwards
+            long last = lastIds.get(index);
+            long ticks = timeSource.getTicks();
+            long id = sequencer.next(last, ticks, maxCounter, prefix);
+            if (id < 0) {
+                overflowHandler.handle(id, sequencer.timestampOf(last));
+            } else if (lastIds.compareAndSet(index, last, id)) {
+                sequencer.issued(id, ticks, 1);
+                return id;
+            } else {
+                metrics.contention();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this generator, summed over all stripes.
+     *
+     * @return the metrics
+     * @throws IllegalStateException if metrics are disabled, see {@link Options#withMetricsEnabled(boolean)}
+     */
+    public GeneratorMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Returns the generator id.
+     *
+     * @return the generator id
+     */
+    public long getGeneratorId() {
+        return generatorId;
+    }
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return the number of stripes
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Returns the maximum number of ids a single stripe can generate per tick.
+     *
+     * @return the maximum number of ids per stripe and tick
+     */
+    public long maxSequenceIdsPerStripe() {
+        return maxCounter + 1;
+    }
+
+    /**
+     * Returns the time source.
+     *
+     * @return the time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Returns the options.
+     *
+     * @return the options
+     */
+    public Options getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the structure.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Creates a custom striped snowflake id generator.
+     *
+     * @param generatorId the id of the generator. Must be unique across all instances
+     * @param stripes     the number of stripes. Must be a power of two and less than {@link Structure#maxSequenceIds()}
+     * @param timeSource  the timesource to use
+     * @param structure   the id structure
+     * @param options     the options
+     * @return the created striped snowflake id generator
+     */
+    public static StripedSnowflakeIdGenerator createCustom(long generatorId, int stripes, TimeSource timeSource, Structure structure, Options options) {
+        return new StripedSnowflakeIdGenerator(generatorId, stripes, timeSource, structure, options);
+    }
+
+    /**
+     * Creates a striped generator with default settings.
+     * <p>
+     * Uses the smallest power of two which is greater than or equal to the number of available processors as stripe count,
+     * but not more than 64 stripes. Uses 2020-01-01T00:00:00Z as epoch, 41 bits for the timestamp, 10 for the generator id
+     * and 12 for the sequence. If a sequence overflow occurs, uses spin wait to wait for the next timestamp.
+     *
+     * @param generatorId the id of the generator. Must be unique across all instances
+     * @return generator
+     */
+    public static StripedSnowflakeIdGenerator createDefault(int generatorId) {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        int stripes = processors == 1 ? 1 : Integer.highestOneBit(processors - 1) << 1;
+        return new StripedSnowflakeIdGenerator(generatorId, stripes, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault());
+    }
+
+    private long calculateMask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "StripedSnowflakeIdGenerator{" +
+            "generatorId=" + generatorId +
+            ", stripes=" + stripes +
+            ", timeSource=" + timeSource +
+            ", structure=" + structure +
+            ", options=" + options +
+            '}';
+    }
+}
@@ -0,0 +1,114 @@
+package de.mkammerer.snowflakeid.codec;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Packs values with a fixed bit width into bytes, least significant bit first.
+ *
+ * @author Moritz Halbritter
+ */
+final class BitPacking {
+    /**
+     * Bytes which {@link #unpack(byte[], int, int, int, long[], int)} may read past the packed values. Arrays passed to it
+     * must have this much padding.
+     */
+    static final int PADDING = 2 * Long.BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private BitPacking() {
+    }
+
+    /**
+     * Returns the number of bytes {@code count} values with {@code width} bits need.
+     *
+     * @param count the number of values
+     * @param width the bit width
+     * @return the number of bytes
+     */
+    static int packedLength(int count, int width) {
+        return (int) (((long) count * width + 7) >>> 3);
+    }
+
+    /**
+     * Packs {@code count} values from {@code src}, starting at {@code off}, into {@code dst} at {@code pos}.
+     *
+     * @param src   the values, each must fit into {@code width} bits
+     * @param off   the offset of the first value
+     * @param count the number of values
+     * @param width the bit width, between 0 and 63
+     * @param dst   the array to write to
+     * @param pos   the position of the first byte
+     * @return the position after the last written byte
+     */
+    static int pack(long[] src, int off, int count, int width, byte[] dst, int pos) {
+        if (width == 0) {
+            return pos;
+        }
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < count; i++) {
+            long value = src[off + i];
+            int remaining = width;
+            while (remaining > 0) {
+                // acc holds less than 8 bits here, so 56 more bits always fit
+                int take = Math.min(remaining, 56);
+                acc |= (value & ((1L << take) - 1)) << accBits;
+                accBits += take;
+                value >>>= take;
+                remaining -= take;
+                while (accBits >= 8) {
+                    dst[pos++] = (byte) acc;
+                    acc >>>= 8;
+                    accBits -= 8;
+                }
+            }
+        }
+        if (accBits > 0) {
+            dst[pos++] = (byte) acc;
+        }
+        return pos;
+    }
+
+    /**
+     * Unpacks {@code count} values from {@code src} at {@code pos} into {@code dst}, starting at {@code off}.
+     *
+     * @param src   the packed values, followed by at least {@link #PADDING} bytes
+     * @param pos   the position of the first byte
+     * @param count the number of values
+     * @param width the bit width, between 0 and 63
+     * @param dst   the array to store the values in
+     * @param off   the offset of the first value
+     */
+    static void unpack(byte[] src, int pos, int count, int width, long[] dst, int off) {
+        if (width == 0) {
+            for (int i = 0; i < count; i++) {
+                dst[off + i] = 0;
+            }
+            return;
+        }
+        long mask = (1L << width) - 1;
+        long bitPos = (long) pos << 3;
+        if (width <= 56) {
+            // A value and its offset in the first byte fit into a single long
+            for (int i = 0; i < count; i++) {
+                long word = (long) LONGS.get(src, (int) (bitPos >>> 3));
+                dst[off + i] = (word >>> (bitPos & 7)) & mask;
+                bitPos += width;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int index = (int) (bitPos >>> 3);
+                int shift = (int) (bitPos & 7);
+                long value = (long) LONGS.get(src, index) >>> shift;
+                if (shift != 0) {
+                    value |= (long) LONGS.get(src, index + Long.BYTES) << (64 - shift);
+                }
+                dst[off + i] = value & mask;
+                bitPos += width;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package de.mkammerer.snowflakeid.codec;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Compresses sorted sequences of ids. This class is thread safe, the encoders and decoders it creates are not.
+ * <p>
+ * Ids are written in blocks. Every block starts with a header containing the number of ids, the first and the last id,
+ * and the length of the block, so a decoder can skip blocks without decoding them, see
+ * {@link IdSequenceDecoder#skipTo(long)}. The rest of the block stores the ids relative to their predecessor, in one of
+ * two formats:
+ * <ul>
+ *     <li>{@link Format#PACKED} splits every id at the timestamp, as defined by the {@link Structure}. It stores the
+ *     timestamp deltas and the generator and sequence bits in two columns, each bit-packed with the smallest width
+ *     which fits all values of the block. Ids of one generator compress to a few bits per id.</li>
+ *     <li>{@link Format#VARINT} stores the difference to the previous id as a varint. Doesn't need a structure, but
+ *     compresses less, as a new tick results in a large difference.</li>
+ * </ul>
+ * The encoded data is self-describing, a decoder doesn't need to know the format or the structure.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdSequenceCodec {
+    /**
+     * Default number of ids per block.
+     */
+    private static final int DEFAULT_BLOCK_SIZE = 128;
+
+    private final Format format;
+    private final int shiftTime;
+    private final int blockSize;
+
+    /**
+     * Constructor.
+     *
+     * @param structure the structure of the ids
+     * @param format    the format of the blocks
+     * @param blockSize the maximum number of ids per block. Must be between 1 (inclusive) and 65536 (inclusive)
+     */
+    public IdSequenceCodec(Structure structure, Format format, int blockSize) {
+        Objects.requireNonNull(structure, "structure");
+        this.format = Objects.requireNonNull(format, "format");
+        if (blockSize < 1 || blockSize > 65536) {
+            throw new IllegalArgumentException("blockSize must be between 1 (inclusive) and 65536 (inclusive), but was " + blockSize);
+        }
+        this.shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Creates an encoder which writes to the given stream. The stream isn't closed by the encoder.
+     *
+     * @param out the stream to write to
+     * @return encoder
+     */
+    public IdSequenceEncoder encoder(OutputStream out) {
+        return new IdSequenceEncoder(Objects.requireNonNull(out, "out"), format, shiftTime, blockSize);
+    }
+
+    /**
+     * Creates an encoder which writes to the given buffer, starting at its position. Advances the position of the buffer.
+     *
+     * @param dst the buffer to write to
+     * @return encoder
+     */
+    public IdSequenceEncoder encoder(ByteBuffer dst) {
+        Objects.requireNonNull(dst, "dst");
+        return new IdSequenceEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+                dst.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                dst.put(b, off, len);
+            }
+        }, format, shiftTime, blockSize);
+    }
+
+    /**
+     * Creates a decoder which reads from the given buffer, starting at its position. The position of the buffer isn't
+     * changed.
+     *
+     * @param src the buffer to read from
+     * @return decoder
+     */
+    public static IdSequenceDecoder decoder(ByteBuffer src) {
+        return new IdSequenceDecoder(Objects.requireNonNull(src, "src"));
+    }
+
+    /**
+     * Returns the format.
+     *
+     * @return the format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the maximum number of ids per block.
+     *
+     * @return the block size
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Creates a codec with default settings.
+     * <p>
+     * Uses {@link Format#PACKED} with 128 ids per block.
+     *
+     * @param structure the structure of the ids
+     * @return codec
+     */
+    public static IdSequenceCodec createDefault(Structure structure) {
+        return new IdSequenceCodec(structure, Format.PACKED, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    public String toString() {
+        return "IdSequenceCodec{" +
+            "format=" + format +
+            ", shiftTime=" + shiftTime +
+            ", blockSize=" + blockSize +
+            '}';
+    }
+
+    /**
+     * Format of the ids in a block.
+     */
+    public enum Format {
+        /**
+         * Stores the difference to the previous id as a varint.
+         */
+        VARINT,
+        /**
+         * Splits the ids at the timestamp and bit-packs timestamp deltas and the remaining bits in two columns.
+         */
+        PACKED
+    }
+}
@@ -0,0 +1,241 @@
+package de.mkammerer.snowflakeid.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Reads a sequence of ids written by an {@link IdSequenceEncoder}. Create one with
+ * {@link IdSequenceCodec#decoder(ByteBuffer)}. This class is not thread safe.
+ * <p>
+ * Ids are decoded a block at a time. {@link #skipTo(long)} uses the block headers to skip whole blocks without decoding
+ * them.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdSequenceDecoder {
+    private final ByteBuffer buffer;
+    private final int[] varintEnd = new int[1];
+
+    // Decoded ids of the current block
+    private long[] ids = new long[0];
+    private long[] lows = new long[0];
+    private int count;
+    private int index;
+    private byte[] payload = new byte[BitPacking.PADDING];
+
+    // Header of the next block
+    private int blockCount;
+    private byte blockFormat;
+    private long blockFirst;
+    private long blockLast;
+    private int payloadLength;
+    private boolean end;
+
+    IdSequenceDecoder(ByteBuffer src) {
+        this.buffer = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns whether there are more ids.
+     *
+     * @return whether there are more ids
+     * @throws IllegalStateException if the data is corrupted
+     */
+    public boolean hasNext() {
+        if (index < count) {
+            return true;
+        }
+        if (!readHeader()) {
+            return false;
+        }
+        decodeBlock();
+        return true;
+    }
+
+    /**
+     * Returns the next id.
+     *
+     * @return the next id
+     * @throws NoSuchElementException if there are no more ids
+     * @throws IllegalStateException  if the data is corrupted
+     */
+    public long next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return ids[index++];
+    }
+
+    /**
+     * Reads up to {@code len} ids into {@code dst}, starting at {@code off}.
+     *
+     * @param dst the array to store the ids in
+     * @param off the offset of the first id
+     * @param len the maximum number of ids to read
+     * @return the number of ids read, less than {@code len} only if there are no more ids
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} are out of bounds
+     * @throws IllegalStateException     if the data is corrupted
+     */
+    public int next(long[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+        int read = 0;
+        while (read < len && hasNext()) {
+            int n = Math.min(count - index, len - read);
+            System.arraycopy(ids, index, dst, off + read, n);
+            index += n;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Skips all ids which are less than {@code target}. Blocks which only contain smaller ids are skipped without
+     * decoding them.
+     *
+     * @param target the id to skip to
+     * @return whether there is an id which is greater than or equal to {@code target}. If so, {@link #next()} returns it
+     * @throws IllegalStateException if the data is corrupted
+     */
+    public boolean skipTo(long target) {
+        if (index < count) {
+            if (ids[count - 1] >= target) {
+                index = lowerBound(target);
+                return true;
+            }
+            index = count;
+        }
+        while (readHeader()) {
+            if (blockLast >= target) {
+                decodeBlock();
+                index = lowerBound(target);
+                return true;
+            }
+            buffer.position(buffer.position() + payloadLength);
+        }
+        return false;
+    }
+
+    private int lowerBound(long target) {
+        int low = index;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the header of the next block.
+     *
+     * @return false if the end has been reached
+     */
+    private boolean readHeader() {
+        if (end || !buffer.hasRemaining()) {
+            end = true;
+            return false;
+        }
+        long payloadLength;
+        try {
+            long blockCount = Varint.read(buffer);
+            if (blockCount == 0) {
+                end = true;
+                return false;
+            }
+            if (blockCount < 0 || blockCount > 65536) {
+                throw new IllegalStateException("Corrupted id sequence: block with " + blockCount + " ids");
+            }
+            this.blockCount = (int) blockCount;
+            blockFormat = buffer.get();
+            if (blockFormat != IdSequenceEncoder.FORMAT_VARINT && blockFormat != IdSequenceEncoder.FORMAT_PACKED) {
+                throw new IllegalStateException("Corrupted id sequence: unknown block format " + blockFormat);
+            }
+            blockFirst = buffer.getLong();
+            blockLast = blockFirst + Varint.read(buffer);
+            payloadLength = Varint.read(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Corrupted id sequence: truncated block header", e);
+        }
+        if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+            throw new IllegalStateException("Corrupted id sequence: block of " + payloadLength + " bytes, but only " + buffer.remaining() + " bytes remaining");
+        }
+        this.payloadLength = (int) payloadLength;
+        return true;
+    }
+
+    private void decodeBlock() {
+        if (ids.length < blockCount) {
+            ids = new long[blockCount];
+            lows = new long[blockCount];
+        }
+        if (payload.length < payloadLength + BitPacking.PADDING) {
+            payload = new byte[payloadLength + BitPacking.PADDING];
+        }
+        buffer.get(payload, 0, payloadLength);
+
+        if (blockFormat == IdSequenceEncoder.FORMAT_PACKED) {
+            decodePacked();
+        } else {
+            decodeVarint();
+        }
+        count = blockCount;
+        index = 0;
+    }
+
+    private void decodeVarint() {
+        long id = blockFirst;
+        ids[0] = id;
+        int pos = 0;
+        for (int i = 1; i < blockCount; i++) {
+            id += readVarint(pos);
+            pos = varintEnd[0];
+            ids[i] = id;
+        }
+    }
+
+    private void decodePacked() {
+        if (payloadLength < 3) {
+            throw new IllegalStateException("Corrupted id sequence: invalid packed block");
+        }
+        int shiftTime = payload[0];
+        int timestampWidth = payload[1];
+        int lowWidth = payload[2];
+        long minLow = readVarint(3);
+        int pos = varintEnd[0];
+        int n = blockCount - 1;
+        if (shiftTime < 1 || shiftTime > 62 || timestampWidth < 0 || timestampWidth > 63 || lowWidth < 0 || lowWidth > shiftTime
+            || pos + BitPacking.packedLength(n, timestampWidth) + BitPacking.packedLength(n, lowWidth) > payloadLength) {
+            throw new IllegalStateException("Corrupted id sequence: invalid packed block");
+        }
+
+        // Timestamp deltas go directly into ids, the lows into their own column
+        BitPacking.unpack(payload, pos, n, timestampWidth, ids, 1);
+        pos += BitPacking.packedLength(n, timestampWidth);
+        BitPacking.unpack(payload, pos, n, lowWidth, lows, 1);
+
+        ids[0] = blockFirst;
+        long timestamp = blockFirst >>> shiftTime;
+        for (int i = 1; i <= n; i++) {
+            timestamp += ids[i];
+            ids[i] = (timestamp << shiftTime) | (minLow + lows[i]);
+        }
+    }
+
+    /**
+     * Reads a varint from the payload of the current block. Stores its end in {@code varintEnd[0]}.
+     */
+    private long readVarint(int pos) {
+        try {
+            return Varint.read(payload, pos, payloadLength, varintEnd);
+        } catch (IllegalStateException e) {
+            throw new IllegalStateException("Corrupted id sequence: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package de.mkammerer.snowflakeid.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Writes a sorted sequence of ids in blocks. Create one with {@link IdSequenceCodec#encoder(OutputStream)} or
+ * {@link IdSequenceCodec#encoder(java.nio.ByteBuffer)}. This class is not thread safe.
+ * <p>
+ * Ids are buffered until a block is full. Call {@link #finish()} after the last id to write the last block and the end
+ * marker.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdSequenceEncoder {
+    /**
+     * Block format marker of {@link IdSequenceCodec.Format#VARINT}.
+     */
+    static final byte FORMAT_VARINT = 0;
+    /**
+     * Block format marker of {@link IdSequenceCodec.Format#PACKED}.
+     */
+    static final byte FORMAT_PACKED = 1;
+
+    private final OutputStream out;
+    private final IdSequenceCodec.Format format;
+    private final int shiftTime;
+    private final long lowMask;
+    private final long[] block;
+    /**
+     * Scratch space for the encoded block. Large enough for the header and the larger of both payload formats.
+     */
+    private final byte[] bytes;
+    private final byte[] header = new byte[4 * Varint.MAX_BYTES + Long.BYTES];
+    private final long[] timestampDeltas;
+    private final long[] lows;
+
+    private int count;
+    private long previous;
+    private boolean finished;
+
+    IdSequenceEncoder(OutputStream out, IdSequenceCodec.Format format, int shiftTime, int blockSize) {
+        this.out = out;
+        this.format = format;
+        this.shiftTime = shiftTime;
+        this.lowMask = (1L << shiftTime) - 1;
+        this.block = new long[blockSize];
+        this.bytes = new byte[blockSize * 2 * Long.BYTES + 3 + Varint.MAX_BYTES];
+        this.timestampDeltas = new long[blockSize];
+        this.lows = new long[blockSize];
+    }
+
+    /**
+     * Adds an id.
+     *
+     * @param id the id. Must not be negative, and not less than the previous id
+     * @throws IOException              if the block can't be written
+     * @throws IllegalArgumentException if the id is negative or less than the previous id
+     * @throws IllegalStateException    if {@link #finish()} has been called
+     */
+    public void add(long id) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Encoder has been finished");
+        }
+        if (id < previous) {
+            throw new IllegalArgumentException("ids must be sorted ascending and not negative, but " + id + " follows " + previous);
+        }
+        block[count++] = id;
+        previous = id;
+        if (count == block.length) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Adds {@code len} ids from {@code ids}, starting at {@code off}.
+     *
+     * @param ids the ids. Must not be negative, and sorted ascending
+     * @param off the offset of the first id
+     * @param len the number of ids
+     * @throws IOException               if a block can't be written
+     * @throws IllegalArgumentException  if an id is negative or less than the previous id. The ids before it have been
+     *                                   added
+     * @throws IllegalStateException     if {@link #finish()} has been called
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} are out of bounds
+     */
+    public void add(long[] ids, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        for (int i = 0; i < len; i++) {
+            add(ids[off + i]);
+        }
+    }
+
+    /**
+     * Writes the buffered ids and the end marker, and flushes the stream. Afterwards, no more ids can be added. Calling
+     * this method again does nothing.
+     *
+     * @throws IOException if the block can't be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (count > 0) {
+            writeBlock();
+        }
+        out.write(0);
+        out.flush();
+        finished = true;
+    }
+
+    private void writeBlock() throws IOException {
+        int payloadLength = format == IdSequenceCodec.Format.PACKED ? writePacked() : writeVarint();
+
+        long first = block[0];
+        int pos = Varint.write(count, header, 0);
+        header[pos++] = format == IdSequenceCodec.Format.PACKED ? FORMAT_PACKED : FORMAT_VARINT;
+        for (int i = 0; i < Long.BYTES; i++) {
+            header[pos++] = (byte) (first >>> (8 * i));
+        }
+        pos = Varint.write(block[count - 1] - first, header, pos);
+        pos = Varint.write(payloadLength, header, pos);
+
+        out.write(header, 0, pos);
+        out.write(bytes, 0, payloadLength);
+        count = 0;
+    }
+
+    private int writeVarint() {
+        int pos = 0;
+        for (int i = 1; i < count; i++) {
+            pos = Varint.write(block[i] - block[i - 1], bytes, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Layout: shift of the timestamp, bit width of the timestamp deltas, bit width of the lows, minimum low as varint,
+     * packed timestamp deltas, packed lows. Lows are the bits below the timestamp, minus the minimum low of the block.
+     */
+    private int writePacked() {
+        long minLow = Long.MAX_VALUE;
+        for (int i = 1; i < count; i++) {
+            minLow = Math.min(minLow, block[i] & lowMask);
+        }
+        long timestampBitsUsed = 0;
+        long lowBitsUsed = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = (block[i] >>> shiftTime) - (block[i - 1] >>> shiftTime);
+            long low = (block[i] & lowMask) - minLow;
+            timestampDeltas[i] = delta;
+            lows[i] = low;
+            timestampBitsUsed |= delta;
+            lowBitsUsed |= low;
+        }
+        int timestampWidth = 64 - Long.numberOfLeadingZeros(timestampBitsUsed);
+        int lowWidth = 64 - Long.numberOfLeadingZeros(lowBitsUsed);
+
+        int pos = 0;
+        bytes[pos++] = (byte) shiftTime;
+        bytes[pos++] = (byte) timestampWidth;
+        bytes[pos++] = (byte) lowWidth;
+        pos = Varint.write(count > 1 ? minLow : 0, bytes, pos);
+        pos = BitPacking.pack(timestampDeltas, 1, count - 1, timestampWidth, bytes, pos);
+        return BitPacking.pack(lows, 1, count - 1, lowWidth, bytes, pos);
+    }
+}
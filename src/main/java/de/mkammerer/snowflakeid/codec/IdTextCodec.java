@@ -0,0 +1,363 @@
+package de.mkammerer.snowflakeid.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Encodes ids as fixed-width text which sorts like the ids. This class is thread safe.
+ * <p>
+ * Every id is encoded with exactly {@link #width()} characters, padded with leading zeros. As the alphabets are in ASCII
+ * order, the lexicographic order of the encoded ids is the numeric order of the ids. Only non-negative ids can be
+ * encoded, which are all ids a generator produces.
+ * <p>
+ * The methods which encode into or decode from caller-supplied arrays, buffers and char sequences don't allocate. Bytes
+ * are ASCII.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdTextCodec {
+    private static final IdTextCodec CROCKFORD_BASE32 = new IdTextCodec("Crockford base32", "0123456789ABCDEFGHJKMNPQRSTVWXYZ", 13, true);
+    private static final IdTextCodec BASE62 = new IdTextCodec("base62", "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz", 11, false);
+
+    private final String name;
+    private final byte[] alphabet;
+    private final char[] chars;
+    private final int width;
+    /**
+     * Maps ASCII characters to digits, -1 for characters which aren't part of the alphabet.
+     */
+    private final byte[] digits = new byte[128];
+    /**
+     * Base32 digits are 5 bits and can be extracted with shifts, base62 needs divisions.
+     */
+    private final boolean base32;
+
+    private IdTextCodec(String name, String alphabet, int width, boolean crockford) {
+        this.name = name;
+        this.alphabet = alphabet.getBytes(StandardCharsets.US_ASCII);
+        this.chars = alphabet.toCharArray();
+        this.width = width;
+        this.base32 = alphabet.length() == 32;
+
+        Arrays.fill(digits, (byte) -1);
+        for (int i = 0; i < this.alphabet.length; i++) {
+            digits[this.alphabet[i]] = (byte) i;
+        }
+        if (crockford) {
+            // Crockford base32 decodes case-insensitive and accepts I and L for 1, O for 0
+            for (int i = 10; i < this.alphabet.length; i++) {
+                digits[Character.toLowerCase(this.alphabet[i])] = (byte) i;
+            }
+            digits['I'] = 1;
+            digits['i'] = 1;
+            digits['L'] = 1;
+            digits['l'] = 1;
+            digits['O'] = 0;
+            digits['o'] = 0;
+        }
+    }
+
+    /**
+     * Returns the number of characters of an encoded id.
+     *
+     * @return the width
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Encodes the id into {@code dst}, starting at {@code off}. Writes {@link #width()} bytes.
+     *
+     * @param id  the id. Must not be negative
+     * @param dst the array to write to
+     * @param off the offset of the first byte
+     * @throws IllegalArgumentException  if the id is negative
+     * @throws IndexOutOfBoundsException if {@code dst} is too small
+     */
+    public void encode(long id, byte[] dst, int off) {
+        Objects.checkFromIndexSize(off, width, dst.length);
+        checkId(id);
+        encodeUnchecked(id, dst, off);
+    }
+
+    /**
+     * Encodes the id into {@code dst}, starting at {@code off}. Writes {@link #width()} chars.
+     *
+     * @param id  the id. Must not be negative
+     * @param dst the array to write to
+     * @param off the offset of the first char
+     * @throws IllegalArgumentException  if the id is negative
+     * @throws IndexOutOfBoundsException if {@code dst} is too small
+     */
+    public void encode(long id, char[] dst, int off) {
+        Objects.checkFromIndexSize(off, width, dst.length);
+        checkId(id);
+        if (base32) {
+            for (int i = width - 1; i >= 0; i--) {
+                dst[off + i] = chars[(int) (id & 31)];
+                id >>>= 5;
+            }
+        } else {
+            for (int i = width - 1; i >= 0; i--) {
+                long quotient = id / 62;
+                dst[off + i] = chars[(int) (id - quotient * 62)];
+                id = quotient;
+            }
+        }
+    }
+
+    /**
+     * Encodes the id into {@code dst} at its position, and advances the position by {@link #width()} bytes.
+     *
+     * @param id  the id. Must not be negative
+     * @param dst the buffer to write to
+     * @throws IllegalArgumentException if the id is negative
+     * @throws BufferOverflowException  if {@code dst} has not enough space remaining
+     * @throws ReadOnlyBufferException  if {@code dst} is read-only
+     */
+    public void encode(long id, ByteBuffer dst) {
+        checkId(id);
+        int position = dst.position();
+        if (dst.remaining() < width) {
+            throw new BufferOverflowException();
+        }
+        if (dst.hasArray()) {
+            encodeUnchecked(id, dst.array(), dst.arrayOffset() + position);
+        } else if (base32) {
+            for (int i = width - 1; i >= 0; i--) {
+                dst.put(position + i, alphabet[(int) (id & 31)]);
+                id >>>= 5;
+            }
+        } else {
+            for (int i = width - 1; i >= 0; i--) {
+                long quotient = id / 62;
+                dst.put(position + i, alphabet[(int) (id - quotient * 62)]);
+                id = quotient;
+            }
+        }
+        dst.position(position + width);
+    }
+
+    /**
+     * Encodes the id into a string. Allocates, use the other encode methods on hot paths.
+     *
+     * @param id the id. Must not be negative
+     * @return the encoded id
+     * @throws IllegalArgumentException if the id is negative
+     */
+    public String encode(long id) {
+        byte[] bytes = new byte[width];
+        encode(id, bytes, 0);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes {@code len} ids from {@code ids}, starting at {@code off}, back to back into {@code dst}, starting at
+     * {@code dstOff}. Writes {@code len * width()} bytes.
+     *
+     * @param ids    the ids. Must not be negative
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first byte
+     * @throws IllegalArgumentException  if an id is negative. In this case {@code dst} may be partially written
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void encode(long[] ids, int off, int len, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        Objects.checkFromIndexSize(dstOff, Math.multiplyExact(len, width), dst.length);
+        for (int i = 0; i < len; i++) {
+            long id = ids[off + i];
+            checkId(id);
+            encodeUnchecked(id, dst, dstOff + i * width);
+        }
+    }
+
+    /**
+     * Encodes {@code len} ids from {@code ids}, starting at {@code off}, back to back into {@code dst}, starting at
+     * {@code dstOff}. Writes {@code len * width()} chars.
+     *
+     * @param ids    the ids. Must not be negative
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first char
+     * @throws IllegalArgumentException  if an id is negative. In this case {@code dst} may be partially written
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void encode(long[] ids, int off, int len, char[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        Objects.checkFromIndexSize(dstOff, Math.multiplyExact(len, width), dst.length);
+        for (int i = 0; i < len; i++) {
+            encode(ids[off + i], dst, dstOff + i * width);
+        }
+    }
+
+    /**
+     * Decodes the id at the start of {@code src}.
+     *
+     * @param src the encoded id
+     * @return the id
+     * @throws IllegalArgumentException  if {@code src} contains an invalid character or an encoded value which is too large
+     * @throws IndexOutOfBoundsException if {@code src} is shorter than {@link #width()}
+     */
+    public long decode(CharSequence src) {
+        return decode(src, 0);
+    }
+
+    /**
+     * Decodes the id at {@code off} in {@code src}.
+     *
+     * @param src the text containing the encoded id
+     * @param off the offset of the first character
+     * @return the id
+     * @throws IllegalArgumentException  if {@code src} contains an invalid character or an encoded value which is too large
+     * @throws IndexOutOfBoundsException if {@code src} is too short
+     */
+    public long decode(CharSequence src, int off) {
+        Objects.checkFromIndexSize(off, width, src.length());
+        long id = 0;
+        for (int i = 0; i < width - 1; i++) {
+            id = id * radix() + digit(src.charAt(off + i));
+        }
+        return lastDigit(id, digit(src.charAt(off + width - 1)));
+    }
+
+    /**
+     * Decodes the id at {@code off} in {@code src}.
+     *
+     * @param src the ASCII bytes containing the encoded id
+     * @param off the offset of the first byte
+     * @return the id
+     * @throws IllegalArgumentException  if {@code src} contains an invalid character or an encoded value which is too large
+     * @throws IndexOutOfBoundsException if {@code src} is too short
+     */
+    public long decode(byte[] src, int off) {
+        Objects.checkFromIndexSize(off, width, src.length);
+        long id = 0;
+        for (int i = 0; i < width - 1; i++) {
+            id = id * radix() + digit(src[off + i]);
+        }
+        return lastDigit(id, digit(src[off + width - 1]));
+    }
+
+    /**
+     * Decodes {@code len} back to back encoded ids from {@code src}, starting at {@code srcOff}, into {@code dst},
+     * starting at {@code off}.
+     *
+     * @param src    the ASCII bytes containing the encoded ids
+     * @param srcOff the offset of the first byte
+     * @param dst    the array to store the ids in
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @throws IllegalArgumentException  if {@code src} contains an invalid character or an encoded value which is too large.
+     *                                   In this case {@code dst} may be partially written
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void decode(byte[] src, int srcOff, long[] dst, int off, int len) {
+        Objects.checkFromIndexSize(srcOff, Math.multiplyExact(len, width), src.length);
+        Objects.checkFromIndexSize(off, len, dst.length);
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = decode(src, srcOff + i * width);
+        }
+    }
+
+    /**
+     * Decodes {@code len} back to back encoded ids from {@code src}, starting at {@code srcOff}, into {@code dst},
+     * starting at {@code off}.
+     *
+     * @param src    the text containing the encoded ids
+     * @param srcOff the offset of the first character
+     * @param dst    the array to store the ids in
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @throws IllegalArgumentException  if {@code src} contains an invalid character or an encoded value which is too large.
+     *                                   In this case {@code dst} may be partially written
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void decode(CharSequence src, int srcOff, long[] dst, int off, int len) {
+        Objects.checkFromIndexSize(srcOff, Math.multiplyExact(len, width), src.length());
+        Objects.checkFromIndexSize(off, len, dst.length);
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = decode(src, srcOff + i * width);
+        }
+    }
+
+    private void encodeUnchecked(long id, byte[] dst, int off) {
+        if (base32) {
+            for (int i = width - 1; i >= 0; i--) {
+                dst[off + i] = alphabet[(int) (id & 31)];
+                id >>>= 5;
+            }
+        } else {
+            for (int i = width - 1; i >= 0; i--) {
+                long quotient = id / 62;
+                dst[off + i] = alphabet[(int) (id - quotient * 62)];
+                id = quotient;
+            }
+        }
+    }
+
+    private int radix() {
+        return base32 ? 32 : 62;
+    }
+
+    private int digit(int c) {
+        int digit = (c & ~127) == 0 ? digits[c] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("Invalid " + name + " character '" + (char) c + "'");
+        }
+        return digit;
+    }
+
+    /**
+     * Adds the last digit. The digits before it can't overflow a long, the last one can.
+     */
+    private long lastDigit(long id, int digit) {
+        if (id > (Long.MAX_VALUE - digit) / radix()) {
+            throw new IllegalArgumentException("Encoded " + name + " value is too large for an id");
+        }
+        return id * radix() + digit;
+    }
+
+    private static void checkId(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("id must not be negative, but was " + id);
+        }
+    }
+
+    /**
+     * Returns a codec which uses Crockford's base32. Ids are encoded with 13 characters of {@code 0-9} and {@code A-Z}
+     * without {@code I}, {@code L}, {@code O} and {@code U}. Decoding is case-insensitive and accepts {@code I} and
+     * {@code L} as {@code 1} and {@code O} as {@code 0}.
+     *
+     * @return codec
+     */
+    public static IdTextCodec crockfordBase32() {
+        return CROCKFORD_BASE32;
+    }
+
+    /**
+     * Returns a codec which uses base62. Ids are encoded with 11 characters of {@code 0-9}, {@code A-Z} and {@code a-z}.
+     * Decoding is case-sensitive. Note that case-insensitive collations, e.g. of some databases, don't sort base62
+     * correctly.
+     *
+     * @return codec
+     */
+    public static IdTextCodec base62() {
+        return BASE62;
+    }
+
+    @Override
+    public String toString() {
+        return "IdTextCodec{" +
+            "name=" + name +
+            ", width=" + width +
+            '}';
+    }
+}
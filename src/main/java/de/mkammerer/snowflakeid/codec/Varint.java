@@ -0,0 +1,80 @@
+package de.mkammerer.snowflakeid.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 varints: 7 bits per byte, least significant group first, the high bit marks that more bytes follow.
+ *
+ * @author Moritz Halbritter
+ */
+final class Varint {
+    /**
+     * Maximum number of bytes of a varint encoded long.
+     */
+    static final int MAX_BYTES = 10;
+
+    private Varint() {
+    }
+
+    /**
+     * Writes the value to {@code dst} at {@code pos}.
+     *
+     * @param value the value, interpreted as unsigned
+     * @param dst   the array to write to
+     * @param pos   the position of the first byte
+     * @return the position after the last written byte
+     */
+    static int write(long value, byte[] dst, int pos) {
+        while ((value & ~0x7FL) != 0) {
+            dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads a value from {@code src} at {@code pos}. The end of the value is stored in {@code end[0]}.
+     *
+     * @param src   the array to read from
+     * @param pos   the position of the first byte
+     * @param limit the position after the last byte which may be read
+     * @param end   receives the position after the last read byte
+     * @return the value
+     * @throws IllegalStateException if the varint is longer than {@link #MAX_BYTES}, or doesn't end before {@code limit}
+     */
+    static long read(byte[] src, int pos, int limit, int[] end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IllegalStateException("Truncated varint");
+            }
+            byte b = src[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                end[0] = pos;
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    /**
+     * Reads a value from the position of {@code src}, and advances the position.
+     *
+     * @param src the buffer to read from
+     * @return the value
+     * @throws IllegalStateException if the varint is longer than {@link #MAX_BYTES}
+     */
+    static long read(ByteBuffer src) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = src.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+}
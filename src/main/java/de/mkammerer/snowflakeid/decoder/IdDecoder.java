@@ -0,0 +1,388 @@
+package de.mkammerer.snowflakeid.decoder;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.nio.BufferOverflowException;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Decodes ids into their timestamp, generator and sequence. This class is thread safe.
+ * <p>
+ * Masks and shifts are precalculated. All methods besides {@link #instantOf(long)} return primitives and don't allocate.
+ * <p>
+ * The bulk methods decode arrays or buffers of ids in plain counted loops without calls or branches, which the JIT can
+ * compile to SIMD instructions. See {@link IdHistogram} to count ids per time interval.
+ *
+ * @author Moritz Halbritter
+ */
+public class IdDecoder {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final Structure structure;
+    private final TimeSource timeSource;
+
+    // precalculated variables for bit magic
+    private final long maskTime;
+    private final long maskGenerator;
+    private final long maskSequence;
+    private final int shiftTime;
+    private final int shiftGenerator;
+
+    // precalculated variables for time conversion
+    private final long epochSecond;
+    private final long epochNano;
+    private final long epochMillis;
+    private final long tickNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param structure  the structure of the ids
+     * @param timeSource the time source which has been used to generate the ids
+     */
+    public IdDecoder(Structure structure, TimeSource timeSource) {
+        this.structure = Objects.requireNonNull(structure, "structure");
+        this.timeSource = Objects.requireNonNull(timeSource, "timeSource");
+
+        maskTime = calculateMask(structure.getTimestampBits());
+        maskGenerator = calculateMask(structure.getGeneratorBits());
+        maskSequence = calculateMask(structure.getSequenceBits());
+        shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
+        shiftGenerator = structure.getSequenceBits();
+
+        Instant epoch = timeSource.getEpoch();
+        epochSecond = epoch.getEpochSecond();
+        epochNano = epoch.getNano();
+        epochMillis = epoch.toEpochMilli();
+        tickNanos = timeSource.getTickDuration().toNanos();
+    }
+
+    /**
+     * Returns the timestamp of the given id, in ticks of the time source since its epoch.
+     *
+     * @param id the id
+     * @return the timestamp
+     */
+    public long timestampOf(long id) {
+        return (id >>> shiftTime) & maskTime;
+    }
+
+    /**
+     * Returns the generator id of the given id.
+     *
+     * @param id the id
+     * @return the generator id
+     */
+    public long generatorOf(long id) {
+        return (id >>> shiftGenerator) & maskGenerator;
+    }
+
+    /**
+     * Returns the sequence of the given id.
+     *
+     * @param id the id
+     * @return the sequence
+     */
+    public long sequenceOf(long id) {
+        return id & maskSequence;
+    }
+
+    /**
+     * Writes the timestamps of {@code len} ids from {@code ids}, starting at {@code off}, into {@code dst}, starting at
+     * {@code dstOff}. See {@link #timestampOf(long)}.
+     *
+     * @param ids    the ids
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first timestamp
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void timestampsOf(long[] ids, int off, int len, long[] dst, int dstOff) {
+        extract(ids, off, len, dst, dstOff, shiftTime, maskTime);
+    }
+
+    /**
+     * Writes the timestamps of the remaining ids in {@code ids} into {@code dst}. Advances the positions of both buffers.
+     * See {@link #timestampOf(long)}.
+     *
+     * @param ids the ids
+     * @param dst the buffer to write to
+     * @throws BufferOverflowException if {@code dst} has less remaining space than {@code ids} has remaining ids
+     */
+    public void timestampsOf(LongBuffer ids, LongBuffer dst) {
+        extract(ids, dst, shiftTime, maskTime);
+    }
+
+    /**
+     * Writes the generator ids of {@code len} ids from {@code ids}, starting at {@code off}, into {@code dst}, starting at
+     * {@code dstOff}. See {@link #generatorOf(long)}.
+     *
+     * @param ids    the ids
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first generator id
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void generatorsOf(long[] ids, int off, int len, long[] dst, int dstOff) {
+        extract(ids, off, len, dst, dstOff, shiftGenerator, maskGenerator);
+    }
+
+    /**
+     * Writes the generator ids of the remaining ids in {@code ids} into {@code dst}. Advances the positions of both
+     * buffers. See {@link #generatorOf(long)}.
+     *
+     * @param ids the ids
+     * @param dst the buffer to write to
+     * @throws BufferOverflowException if {@code dst} has less remaining space than {@code ids} has remaining ids
+     */
+    public void generatorsOf(LongBuffer ids, LongBuffer dst) {
+        extract(ids, dst, shiftGenerator, maskGenerator);
+    }
+
+    /**
+     * Writes the sequences of {@code len} ids from {@code ids}, starting at {@code off}, into {@code dst}, starting at
+     * {@code dstOff}. See {@link #sequenceOf(long)}.
+     *
+     * @param ids    the ids
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first sequence
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void sequencesOf(long[] ids, int off, int len, long[] dst, int dstOff) {
+        extract(ids, off, len, dst, dstOff, 0, maskSequence);
+    }
+
+    /**
+     * Writes the sequences of the remaining ids in {@code ids} into {@code dst}. Advances the positions of both buffers.
+     * See {@link #sequenceOf(long)}.
+     *
+     * @param ids the ids
+     * @param dst the buffer to write to
+     * @throws BufferOverflowException if {@code dst} has less remaining space than {@code ids} has remaining ids
+     */
+    public void sequencesOf(LongBuffer ids, LongBuffer dst) {
+        extract(ids, dst, 0, maskSequence);
+    }
+
+    /**
+     * Copies the ids which have been generated in the given time range from {@code len} ids from {@code ids}, starting at
+     * {@code off}, into {@code dst}, starting at {@code dstOff}. Keeps the order of the ids.
+     * <p>
+     * {@code dst} must have room for {@code len} ids, as every id is written and only kept if it is in the time range.
+     * This avoids branches, which are mispredicted for unsorted ids.
+     *
+     * @param ids    the ids
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param from   the start of the time range, inclusive
+     * @param to     the end of the time range, exclusive
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first copied id
+     * @return the number of copied ids
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public int filterByTime(long[] ids, int off, int len, Instant from, Instant to, long[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        Objects.checkFromIndexSize(dstOff, len, dst.length);
+        long min = minIdFor(from);
+        long max = maxIdBefore(to);
+        int count = 0;
+        for (int i = 0; i < len; i++) {
+            long id = ids[off + i];
+            dst[dstOff + count] = id;
+            count += (id >= min & id <= max) ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the ids which have been generated in the given time range from the remaining ids in {@code ids} into
+     * {@code dst}. Keeps the order of the ids. Advances the position of {@code ids} to its limit, and the position of
+     * {@code dst} by the number of copied ids.
+     *
+     * @param ids  the ids
+     * @param from the start of the time range, inclusive
+     * @param to   the end of the time range, exclusive
+     * @param dst  the buffer to write to
+     * @return the number of copied ids
+     * @throws BufferOverflowException if {@code dst} has no room for the copied ids
+     */
+    public int filterByTime(LongBuffer ids, Instant from, Instant to, LongBuffer dst) {
+        if (ids.hasArray() && dst.hasArray() && dst.remaining() >= ids.remaining()) {
+            int count = filterByTime(ids.array(), ids.arrayOffset() + ids.position(), ids.remaining(), from, to, dst.array(), dst.arrayOffset() + dst.position());
+            ids.position(ids.limit());
+            dst.position(dst.position() + count);
+            return count;
+        }
+
+        long min = minIdFor(from);
+        long max = maxIdBefore(to);
+        int count = 0;
+        while (ids.hasRemaining()) {
+            long id = ids.get();
+            if (id >= min && id <= max) {
+                dst.put(id);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time at which the given id has been generated, in milliseconds since 1970-01-01T00:00:00Z. If the tick
+     * duration isn't a whole number of milliseconds, the result is rounded down.
+     *
+     * @param id the id
+     * @return the milliseconds since 1970-01-01T00:00:00Z
+     */
+    public long epochMillisOf(long id) {
+        long timestamp = timestampOf(id);
+        if (tickNanos % NANOS_PER_MILLI == 0) {
+            return epochMillis + timestamp * (tickNanos / NANOS_PER_MILLI);
+        }
+        // Sub-millisecond ticks: split into seconds and nanoseconds, as the epoch may have a nanosecond part
+        long elapsed = Math.multiplyExact(timestamp, tickNanos);
+        long nanos = elapsed % NANOS_PER_SECOND + epochNano;
+        return (epochSecond + elapsed / NANOS_PER_SECOND) * 1000 + nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns the time at which the given id has been generated.
+     *
+     * @param id the id
+     * @return the instant
+     */
+    public Instant instantOf(long id) {
+        long nanos = Math.multiplyExact(timestampOf(id), tickNanos);
+        return Instant.ofEpochSecond(epochSecond, epochNano + nanos);
+    }
+
+    /**
+     * Returns the smallest id which could have been generated at the given instant. Use this as inclusive lower bound for
+     * range queries.
+     * <p>
+     * Instants before the epoch result in the smallest possible id, instants after the wraparound date result in the
+     * smallest id of the last timestamp.
+     *
+     * @param instant the instant
+     * @return the smallest id
+     */
+    public long minIdFor(Instant instant) {
+        return timestampFor(instant) << shiftTime;
+    }
+
+    /**
+     * Returns the largest id which could have been generated at the given instant. Use this as inclusive upper bound for
+     * range queries.
+     * <p>
+     * Instants before the epoch result in the largest id of the first timestamp, instants after the wraparound date result
+     * in the largest possible id.
+     *
+     * @param instant the instant
+     * @return the largest id
+     */
+    public long maxIdFor(Instant instant) {
+        return (timestampFor(instant) << shiftTime) | calculateMask(shiftTime);
+    }
+
+    /**
+     * Returns the largest id which has been generated in a tick before the tick of the given instant. Use this as inclusive
+     * upper bound for range queries with an exclusive end. Unlike {@code minIdFor(instant) - 1}, this includes the last
+     * timestamp for instants after the wraparound date.
+     *
+     * @param instant the instant
+     * @return the largest id, or -1 if there is none
+     */
+    public long maxIdBefore(Instant instant) {
+        Duration tickDuration = timeSource.getTickDuration();
+        if (instant.isBefore(timeSource.getEpoch().plus(tickDuration))) {
+            return -1;
+        }
+        return maxIdFor(instant.minus(tickDuration));
+    }
+
+    /**
+     * Returns the structure.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Returns the time source.
+     *
+     * @return the time source
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    /**
+     * Calculates the timestamp of the given instant, clamped to the valid timestamps.
+     *
+     * @param instant the instant
+     * @return the timestamp
+     */
+    private long timestampFor(Instant instant) {
+        long seconds = instant.getEpochSecond() - epochSecond;
+        long nanos = instant.getNano() - epochNano;
+        if (seconds < 0 || (seconds == 0 && nanos < 0)) {
+            return 0;
+        }
+        if (seconds >= Long.MAX_VALUE / NANOS_PER_SECOND - 1) {
+            return maskTime;
+        }
+        long ticks = (seconds * NANOS_PER_SECOND + nanos) / tickNanos;
+        return Math.min(ticks, maskTime);
+    }
+
+    private static void extract(long[] ids, int off, int len, long[] dst, int dstOff, int shift, long mask) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        Objects.checkFromIndexSize(dstOff, len, dst.length);
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = (ids[off + i] >>> shift) & mask;
+        }
+    }
+
+    private static void extract(LongBuffer ids, LongBuffer dst, int shift, long mask) {
+        int len = ids.remaining();
+        if (dst.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (ids.hasArray() && dst.hasArray()) {
+            extract(ids.array(), ids.arrayOffset() + ids.position(), len, dst.array(), dst.arrayOffset() + dst.position(), shift, mask);
+        } else {
+            // Absolute gets and puts, so that the loop doesn't update the positions
+            int position = ids.position();
+            int dstPosition = dst.position();
+            for (int i = 0; i < len; i++) {
+                dst.put(dstPosition + i, (ids.get(position + i) >>> shift) & mask);
+            }
+        }
+        ids.position(ids.position() + len);
+        dst.position(dst.position() + len);
+    }
+
+    private static long calculateMask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "IdDecoder{" +
+            "structure=" + structure +
+            ", timeSource=" + timeSource +
+            '}';
+    }
+}
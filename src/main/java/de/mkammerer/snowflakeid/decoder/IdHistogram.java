@@ -0,0 +1,226 @@
+package de.mkammerer.snowflakeid.decoder;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+
+import java.math.BigInteger;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Counts ids per time interval, e.g. to bucket events by minute. This class is not thread safe.
+ * <p>
+ * The buckets are consecutive intervals, starting at the timestamp of {@code from}. Ids outside of the buckets are
+ * counted separately, in an extra slot after the buckets. The bucket of an id is calculated from its timestamp with a
+ * shift, or a multiplication with a precalculated reciprocal, so adding an id doesn't need a division. Adding ids doesn't
+ * branch on the ids: an unsigned comparison selects either the bucket or the extra slot.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdHistogram {
+    /**
+     * Timestamps have at most 61 bits, see {@link Structure}, so offsets are below {@code 2^62}.
+     */
+    private static final int DIVIDEND_BITS = 62;
+
+    private final IdDecoder decoder;
+    private final Duration interval;
+    private final int buckets;
+    /**
+     * The counts of the buckets, followed by the count of the ids outside of all buckets.
+     */
+    private final long[] counts;
+
+    // precalculated variables for bit magic
+    private final long maskTime;
+    private final int shiftTime;
+    private final long firstTimestamp;
+    private final long rangeTicks;
+    private final long multiplier;
+    private final int shift;
+
+    /**
+     * Constructor.
+     *
+     * @param decoder  the decoder for the ids
+     * @param from     the start of the first bucket. Rounded down to a tick of the time source. Must not be before the
+     *                 epoch of the time source
+     * @param interval the length of a bucket. Must be a positive multiple of the tick duration of the time source
+     * @param buckets  the number of buckets. Must be positive
+     */
+    public IdHistogram(IdDecoder decoder, Instant from, Duration interval, int buckets) {
+        this.decoder = Objects.requireNonNull(decoder, "decoder");
+        Objects.requireNonNull(from, "from");
+        this.interval = Objects.requireNonNull(interval, "interval");
+        Duration tickDuration = decoder.getTimeSource().getTickDuration();
+        long intervalTicks = interval.dividedBy(tickDuration);
+        if (intervalTicks <= 0 || !tickDuration.multipliedBy(intervalTicks).equals(interval)) {
+            throw new IllegalArgumentException("interval must be a positive multiple of the tick duration " + tickDuration + ", but was " + interval);
+        }
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets must be positive, but was " + buckets);
+        }
+        Instant epoch = decoder.getTimeSource().getEpoch();
+        if (from.isBefore(epoch)) {
+            // The buckets would be shifted, as there are no timestamps before the epoch
+            throw new IllegalArgumentException("from must not be before the epoch " + epoch + ", but was " + from);
+        }
+        this.buckets = buckets;
+        this.counts = new long[buckets + 1];
+
+        Structure structure = decoder.getStructure();
+        maskTime = (1L << structure.getTimestampBits()) - 1;
+        shiftTime = structure.getGeneratorBits() + structure.getSequenceBits();
+        firstTimestamp = decoder.timestampOf(decoder.minIdFor(from));
+        // Ranges beyond the timestamps of the structure can't contain ids
+        rangeTicks = intervalTicks > maskTime / buckets ? maskTime + 1 : intervalTicks * buckets;
+
+        if (Long.bitCount(intervalTicks) == 1) {
+            multiplier = 0;
+            shift = Long.numberOfTrailingZeros(intervalTicks);
+        } else {
+            // ceil(2^(62 + log) / intervalTicks) with log = ceil(log2(intervalTicks)) is exact for dividends below 2^62,
+            // see Granlund and Montgomery, "Division by Invariant Integers using Multiplication"
+            int log = Long.SIZE - Long.numberOfLeadingZeros(intervalTicks - 1);
+            multiplier = BigInteger.ONE.shiftLeft(DIVIDEND_BITS + log)
+                .add(BigInteger.valueOf(intervalTicks - 1))
+                .divide(BigInteger.valueOf(intervalTicks))
+                .longValueExact();
+            shift = DIVIDEND_BITS + log - Long.SIZE;
+        }
+    }
+
+    /**
+     * Counts the given id.
+     *
+     * @param id the id
+     */
+    public void add(long id) {
+        long offset = offsetOf(id);
+        counts[Long.compareUnsigned(offset, rangeTicks) < 0 ? bucketOf(offset) : buckets]++;
+    }
+
+    /**
+     * Counts {@code len} ids from {@code ids}, starting at {@code off}.
+     *
+     * @param ids the ids
+     * @param off the offset of the first id
+     * @param len the number of ids
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} are out of bounds
+     */
+    public void add(long[] ids, int off, int len) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        long[] counts = this.counts;
+        // Decide between shift and multiplication once, so that the loops don't branch
+        if (multiplier == 0) {
+            for (int i = off; i < off + len; i++) {
+                long offset = offsetOf(ids[i]);
+                // Offsets before the first bucket are negative, so they are outside as unsigned numbers, too
+                int bucket = (int) (offset >>> shift);
+                counts[Long.compareUnsigned(offset, rangeTicks) < 0 ? bucket : buckets]++;
+            }
+        } else {
+            for (int i = off; i < off + len; i++) {
+                long offset = offsetOf(ids[i]);
+                int bucket = (int) (Math.multiplyHigh(offset, multiplier) >>> shift);
+                counts[Long.compareUnsigned(offset, rangeTicks) < 0 ? bucket : buckets]++;
+            }
+        }
+    }
+
+    /**
+     * Counts the remaining ids in {@code ids}. Advances the position to the limit.
+     *
+     * @param ids the ids
+     */
+    public void add(LongBuffer ids) {
+        if (ids.hasArray()) {
+            add(ids.array(), ids.arrayOffset() + ids.position(), ids.remaining());
+            ids.position(ids.limit());
+            return;
+        }
+        while (ids.hasRemaining()) {
+            add(ids.get());
+        }
+    }
+
+    private long offsetOf(long id) {
+        return ((id >>> shiftTime) & maskTime) - firstTimestamp;
+    }
+
+    private int bucketOf(long offset) {
+        if (multiplier == 0) {
+            return (int) (offset >>> shift);
+        }
+        return (int) (Math.multiplyHigh(offset, multiplier) >>> shift);
+    }
+
+    /**
+     * Returns the number of ids in the given bucket.
+     *
+     * @param bucket the bucket
+     * @return the number of ids
+     * @throws IndexOutOfBoundsException if there is no such bucket
+     */
+    public long count(int bucket) {
+        return counts[Objects.checkIndex(bucket, buckets)];
+    }
+
+    /**
+     * Returns the number of ids per bucket.
+     *
+     * @return the counts, a copy
+     */
+    public long[] getCounts() {
+        return Arrays.copyOf(counts, buckets);
+    }
+
+    /**
+     * Returns the number of ids which are outside of all buckets.
+     *
+     * @return the number of ids
+     */
+    public long getOutside() {
+        return counts[buckets];
+    }
+
+    /**
+     * Returns the start of the given bucket.
+     *
+     * @param bucket the bucket
+     * @return the start, inclusive
+     * @throws IndexOutOfBoundsException if there is no such bucket
+     */
+    public Instant bucketStart(int bucket) {
+        Objects.checkIndex(bucket, buckets);
+        return decoder.instantOf(firstTimestamp << shiftTime).plus(interval.multipliedBy(bucket));
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return the number of buckets
+     */
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * Resets all counts to 0.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "IdHistogram{" +
+            "from=" + bucketStart(0) +
+            ", interval=" + interval +
+            ", buckets=" + buckets +
+            ", outside=" + getOutside() +
+            '}';
+    }
+}
@@ -0,0 +1,131 @@
+package de.mkammerer.snowflakeid.metrics;
+
+/**
+ * Snapshot of the metrics of a generator. All values are counted since the creation of the generator.
+ *
+ * @author Moritz Halbritter
+ */
+public class GeneratorMetrics {
+    private final long idsIssued;
+    private final long contentions;
+    private final long sequenceOverflows;
+    private final long spinIterations;
+    private final long sleepNanos;
+    private final long clockRegressions;
+    private final long clockRegressionIds;
+    private final long maxClockRegressionTicks;
+
+    /**
+     * Constructor.
+     *
+     * @param idsIssued               the number of generated ids
+     * @param contentions             how many times a thread had to wait for the lock or retry a compare-and-set
+     * @param sequenceOverflows       the number of sequence overflows
+     * @param spinIterations          the number of spin wait iterations
+     * @param sleepNanos              the time threads slept or parked, in nanoseconds
+     * @param clockRegressions        how many times the clock has fallen behind the last timestamp
+     * @param clockRegressionIds      the number of ids generated while the clock was behind the last timestamp
+     * @param maxClockRegressionTicks the largest observed clock regression, in ticks
+     */
+    public GeneratorMetrics(long idsIssued, long contentions, long sequenceOverflows, long spinIterations, long sleepNanos, long clockRegressions, long clockRegressionIds, long maxClockRegressionTicks) {
+        this.idsIssued = idsIssued;
+        this.contentions = contentions;
+        this.sequenceOverflows = sequenceOverflows;
+        this.spinIterations = spinIterations;
+        this.sleepNanos = sleepNanos;
+        this.clockRegressions = clockRegressions;
+        this.clockRegressionIds = clockRegressionIds;
+        this.maxClockRegressionTicks = maxClockRegressionTicks;
+    }
+
+    /**
+     * Returns the number of generated ids.
+     *
+     * @return the number of generated ids
+     */
+    public long getIdsIssued() {
+        return idsIssued;
+    }
+
+    /**
+     * Returns how many times a thread had to wait for the lock, or had to retry a compare-and-set.
+     *
+     * @return the number of contentions
+     */
+    public long getContentions() {
+        return contentions;
+    }
+
+    /**
+     * Returns the number of sequence overflows. With {@link de.mkammerer.snowflakeid.options.Options.SequenceOverflowStrategy#BORROW},
+     * only overflows which exceeded the drift limit are counted.
+     *
+     * @return the number of sequence overflows
+     */
+    public long getSequenceOverflows() {
+        return sequenceOverflows;
+    }
+
+    /**
+     * Returns the number of spin wait iterations.
+     *
+     * @return the number of spin wait iterations
+     */
+    public long getSpinIterations() {
+        return spinIterations;
+    }
+
+    /**
+     * Returns the time threads slept or parked while waiting for the clock, in nanoseconds.
+     *
+     * @return the sleep time in nanoseconds
+     */
+    public long getSleepNanos() {
+        return sleepNanos;
+    }
+
+    /**
+     * Returns how many times the clock has fallen behind the last timestamp, not counting the drift of
+     * {@link de.mkammerer.snowflakeid.options.Options.SequenceOverflowStrategy#BORROW}. A regression is counted once,
+     * no matter how many ids are generated until the clock has caught up.
+     *
+     * @return the number of clock regressions
+     */
+    public long getClockRegressions() {
+        return clockRegressions;
+    }
+
+    /**
+     * Returns the number of ids which have been generated with the last timestamp while the clock was behind it, with
+     * {@link de.mkammerer.snowflakeid.options.Options.ClockRegressionStrategy#CONTINUE}.
+     *
+     * @return the number of ids generated during clock regressions
+     */
+    public long getClockRegressionIds() {
+        return clockRegressionIds;
+    }
+
+    /**
+     * Returns the largest observed clock regression, in ticks. Compare this with the clock regression tolerance to see how
+     * close the generator came to failing.
+     *
+     * @return the largest clock regression in ticks
+     */
+    public long getMaxClockRegressionTicks() {
+        return maxClockRegressionTicks;
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratorMetrics{" +
+            "idsIssued=" + idsIssued +
+            ", contentions=" + contentions +
+            ", sequenceOverflows=" + sequenceOverflows +
+            ", spinIterations=" + spinIterations +
+            ", sleepNanos=" + sleepNanos +
+            ", clockRegressions=" + clockRegressions +
+            ", clockRegressionIds=" + clockRegressionIds +
+            ", maxClockRegressionTicks=" + maxClockRegressionTicks +
+            '}';
+    }
+}
@@ -1,5 +1,6 @@
 package de.mkammerer.snowflakeid.options;
 
+import java.time.Duration;
 import java.util.Objects;
 
 /**
@@ -9,6 +10,12 @@ import java.util.Objects;
  */
 public class Options {
     private final SequenceOverflowStrategy sequenceOverflowStrategy;
+    private final ConcurrencyStrategy concurrencyStrategy;
+    private final Duration maxDrift;
+    private final ClockRegressionStrategy clockRegressionStrategy;
+    private final Duration clockRegressionTolerance;
+    private final boolean metricsEnabled;
+    private final boolean jfrEventsEnabled;
 
     /**
      * Constructor.
@@ -16,7 +23,23 @@ public class Options {
      * @param sequenceOverflowStrategy the sequence overflow strategy
      */
     public Options(SequenceOverflowStrategy sequenceOverflowStrategy) {
+        this(sequenceOverflowStrategy, ConcurrencyStrategy.LOCK, Duration.ofMillis(100), ClockRegressionStrategy.THROW_EXCEPTION, Duration.ofMillis(100), false, false);
+    }
+
+    private Options(SequenceOverflowStrategy sequenceOverflowStrategy, ConcurrencyStrategy concurrencyStrategy, Duration maxDrift, ClockRegressionStrategy clockRegressionStrategy, Duration clockRegressionTolerance, boolean metricsEnabled, boolean jfrEventsEnabled) {
         this.sequenceOverflowStrategy = Objects.requireNonNull(sequenceOverflowStrategy, "sequenceOverflowStrategy");
+        this.concurrencyStrategy = Objects.requireNonNull(concurrencyStrategy, "concurrencyStrategy");
+        this.maxDrift = Objects.requireNonNull(maxDrift, "maxDrift");
+        this.clockRegressionStrategy = Objects.requireNonNull(clockRegressionStrategy, "clockRegressionStrategy");
+        this.clockRegressionTolerance = Objects.requireNonNull(clockRegressionTolerance, "clockRegressionTolerance");
+        this.metricsEnabled = metricsEnabled;
+        this.jfrEventsEnabled = jfrEventsEnabled;
+        if (maxDrift.isNegative()) {
+            throw new IllegalArgumentException("maxDrift must not be negative, but was " + maxDrift);
+        }
+        if (clockRegressionTolerance.isNegative()) {
+            throw new IllegalArgumentException("clockRegressionTolerance must not be negative, but was " + clockRegressionTolerance);
+        }
     }
 
     /**
@@ -28,10 +51,123 @@ public class Options {
         return sequenceOverflowStrategy;
     }
 
+    /**
+     * Returns the concurrency strategy.
+     *
+     * @return the concurrency strategy
+     */
+    public ConcurrencyStrategy getConcurrencyStrategy() {
+        return concurrencyStrategy;
+    }
+
+    /**
+     * Returns how far the generator may run ahead of the clock with {@link SequenceOverflowStrategy#BORROW}.
+     *
+     * @return the maximum drift
+     */
+    public Duration getMaxDrift() {
+        return maxDrift;
+    }
+
+    /**
+     * Returns the clock regression strategy.
+     *
+     * @return the clock regression strategy
+     */
+    public ClockRegressionStrategy getClockRegressionStrategy() {
+        return clockRegressionStrategy;
+    }
+
+    /**
+     * Returns the largest clock regression which is handled by the clock regression strategy. Larger regressions always
+     * throw an exception.
+     *
+     * @return the clock regression tolerance
+     */
+    public Duration getClockRegressionTolerance() {
+        return clockRegressionTolerance;
+    }
+
+    /**
+     * Returns whether the generator records metrics.
+     *
+     * @return whether metrics are enabled
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Returns whether the generator emits JFR events for sequence overflows and clock regressions.
+     *
+     * @return whether JFR events are enabled
+     */
+    public boolean isJfrEventsEnabled() {
+        return jfrEventsEnabled;
+    }
+
+    /**
+     * Returns a copy of these options with the given concurrency strategy.
+     *
+     * @param concurrencyStrategy the concurrency strategy
+     * @return new options
+     */
+    public Options withConcurrencyStrategy(ConcurrencyStrategy concurrencyStrategy) {
+        return new Options(sequenceOverflowStrategy, concurrencyStrategy, maxDrift, clockRegressionStrategy, clockRegressionTolerance, metricsEnabled, jfrEventsEnabled);
+    }
+
+    /**
+     * Returns a copy of these options with the given maximum drift. Only used with
+     * {@link SequenceOverflowStrategy#BORROW}. Defaults to 100 ms.
+     *
+     * @param maxDrift how far the generator may run ahead of the clock. Must not be negative
+     * @return new options
+     */
+    public Options withMaxDrift(Duration maxDrift) {
+        return new Options(sequenceOverflowStrategy, concurrencyStrategy, maxDrift, clockRegressionStrategy, clockRegressionTolerance, metricsEnabled, jfrEventsEnabled);
+    }
+
+    /**
+     * Returns a copy of these options with the given clock regression strategy and tolerance. Defaults to
+     * {@link ClockRegressionStrategy#THROW_EXCEPTION}.
+     *
+     * @param clockRegressionStrategy  the clock regression strategy
+     * @param clockRegressionTolerance the largest clock regression which is handled by the strategy. Larger regressions
+     *                                 always throw an exception. Must not be negative
+     * @return new options
+     */
+    public Options withClockRegressionStrategy(ClockRegressionStrategy clockRegressionStrategy, Duration clockRegressionTolerance) {
+        return new Options(sequenceOverflowStrategy, concurrencyStrategy, maxDrift, clockRegressionStrategy, clockRegressionTolerance, metricsEnabled, jfrEventsEnabled);
+    }
+
+    /**
+     * Returns a copy of these options with metrics enabled or disabled. Metrics are recorded in striped counters and can be
+     * read with {@code getMetrics()} on the generator. Defaults to disabled.
+     *
+     * @param metricsEnabled whether to record metrics
+     * @return new options
+     */
+    public Options withMetricsEnabled(boolean metricsEnabled) {
+        return new Options(sequenceOverflowStrategy, concurrencyStrategy, maxDrift, clockRegressionStrategy, clockRegressionTolerance, metricsEnabled, jfrEventsEnabled);
+    }
+
+    /**
+     * Returns a copy of these options with JFR events enabled or disabled. If enabled, the generator emits
+     * {@code de.mkammerer.snowflakeid.SequenceOverflow} and {@code de.mkammerer.snowflakeid.ClockRegression} events. Needs
+     * the {@code jdk.jfr} module at runtime. Defaults to disabled.
+     *
+     * @param jfrEventsEnabled whether to emit JFR events
+     * @return new options
+     */
+    public Options withJfrEventsEnabled(boolean jfrEventsEnabled) {
+        return new Options(sequenceOverflowStrategy, concurrencyStrategy, maxDrift, clockRegressionStrategy, clockRegressionTolerance, metricsEnabled, jfrEventsEnabled);
+    }
+
     /**
      * Creates options with default settings.
      * <p>
-     * If a sequence overflow occurs, uses spin wait to wait for the next timestamp.
+     * If a sequence overflow occurs, uses spin wait to wait for the next timestamp. Uses a lock to guard the generator
+     * state. If the clock moves backwards, throws an exception.
      *
      * @return options
      */
@@ -43,6 +179,12 @@ public class Options {
     public String toString() {
         return "Options{" +
             "sequenceOverflowStrategy=" + sequenceOverflowStrategy +
+            ", concurrencyStrategy=" + concurrencyStrategy +
+            ", maxDrift=" + maxDrift +
+            ", clockRegressionStrategy=" + clockRegressionStrategy +
+            ", clockRegressionTolerance=" + clockRegressionTolerance +
+            ", metricsEnabled=" + metricsEnabled +
+            ", jfrEventsEnabled=" + jfrEventsEnabled +
             '}';
     }
 
@@ -59,8 +201,62 @@ public class Options {
          */
         SPIN_WAIT,
         /**
-         * Sleeps until the next sequence if a sequence overflow occurs.
+         * Sleeps for one tick duration if a sequence overflow occurs. The thread may oversleep by a scheduler quantum,
+         * prefer {@link #PARK}.
+         */
+        SLEEP,
+        /**
+         * Parks until the next tick if a sequence overflow occurs. The park time is calculated from the time source, so
+         * the thread wakes up when the next tick starts, also with sub-millisecond tick durations. Doesn't occupy a CPU
+         * while waiting, which makes this a good fit for virtual threads.
+         */
+        PARK,
+        /**
+         * Spins, then yields, then parks until the next tick if a sequence overflow occurs. The spin and yield windows are
+         * calibrated from the measured cost of reading the time source and from how often overflows occur: rare overflows
+         * are spun through for low latency, frequent overflows park early, so the waiting threads don't occupy a CPU.
+         */
+        ADAPTIVE,
+        /**
+         * Borrows from the future if a sequence overflow occurs: the generator advances its timestamp ahead of the clock,
+         * without waiting. Once the generator runs more than {@link Options#getMaxDrift()} ahead of the clock, spin waits until
+         * the clock has caught up.
+         */
+        BORROW
+    }
+
+    /**
+     * Concurrency strategy, defines how the generator state is protected against concurrent access.
+     */
+    public enum ConcurrencyStrategy {
+        /**
+         * Guards the generator state with a lock.
+         */
+        LOCK,
+        /**
+         * Packs the last timestamp and the sequence into a single long and advances it with compare-and-set. Scales
+         * better than {@link #LOCK} when a lot of threads generate ids concurrently.
+         */
+        LOCK_FREE
+    }
+
+    /**
+     * Clock regression strategy, defines what happens if the clock moves backwards. Regressions larger than
+     * {@link Options#getClockRegressionTolerance()} always throw an exception.
+     */
+    public enum ClockRegressionStrategy {
+        /**
+         * Throws an exception if the clock moves backwards.
+         */
+        THROW_EXCEPTION,
+        /**
+         * Waits until the clock has caught up with the last timestamp.
+         */
+        WAIT,
+        /**
+         * Continues to generate ids with the last timestamp, using its remaining sequence space. If that is exhausted, the
+         * sequence overflow strategy is applied until the clock has caught up.
          */
-        SLEEP
+        CONTINUE
     }
 }
@@ -0,0 +1,293 @@
+package de.mkammerer.snowflakeid.partition;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.nio.BufferOverflowException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Routes ids to partitions, e.g. Kafka partitions, database shards or stripes. This class is immutable and thread
+ * safe.
+ * <p>
+ * The partition is calculated from a part of the id, see {@link Mode}. The part is mixed into a 64 bit hash and mapped
+ * to a partition with jump consistent hashing (Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm").
+ * If the number of partitions grows from {@code n} to {@code n + 1}, only {@code 1 / (n + 1)} of the ids move, and only
+ * to the new partition. No modulo is needed, and the mapping doesn't allocate.
+ * <p>
+ * Jump consistent hashing takes about {@code ln(partitions)} iterations. If the part has at most 16 bits, e.g. the
+ * generator id, the partitions of all values are precalculated into a table, and routing is a single lookup.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdPartitioner {
+    /**
+     * Parts with at most this many bits use a table with the partition of every value.
+     */
+    private static final int MAX_TABLE_BITS = 16;
+
+    private final Structure structure;
+    private final Mode mode;
+    private final Duration timeBucket;
+    private final int partitions;
+
+    // precalculated variables for bit magic
+    private final int shift;
+    private final long mask;
+    private final long bucketTicks;
+    private final int[] table;
+
+    private IdPartitioner(Structure structure, Mode mode, Duration timeBucket, long bucketTicks, int partitions) {
+        this.structure = structure;
+        this.mode = mode;
+        this.timeBucket = timeBucket;
+        this.bucketTicks = bucketTicks;
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions must be positive, but was " + partitions);
+        }
+        this.partitions = partitions;
+
+        switch (mode) {
+            case GENERATOR:
+                shift = structure.getSequenceBits();
+                mask = calculateMask(structure.getGeneratorBits());
+                break;
+            case HASH:
+                shift = 0;
+                mask = calculateMask(structure.getGeneratorBits() + structure.getSequenceBits());
+                break;
+            case TIME:
+                shift = structure.getGeneratorBits() + structure.getSequenceBits();
+                mask = calculateMask(structure.getTimestampBits());
+                break;
+            default:
+                throw new AssertionError("Unexpected enum value: " + mode);
+        }
+
+        if (mode != Mode.TIME && Long.bitCount(mask) <= MAX_TABLE_BITS) {
+            table = new int[(int) mask + 1];
+            for (int key = 0; key < table.length; key++) {
+                table[key] = jumpConsistentHash(mix(key), partitions);
+            }
+        } else {
+            table = null;
+        }
+    }
+
+    /**
+     * Creates a partitioner which routes by the generator id. All ids of a generator end up in the same partition.
+     *
+     * @param structure  the structure of the ids
+     * @param partitions the number of partitions. Must be positive
+     * @return partitioner
+     */
+    public static IdPartitioner byGenerator(Structure structure, int partitions) {
+        return new IdPartitioner(Objects.requireNonNull(structure, "structure"), Mode.GENERATOR, null, 1, partitions);
+    }
+
+    /**
+     * Creates a partitioner which routes by a hash of the generator id and the sequence. Ids which have been generated
+     * in the same tick are spread over all partitions.
+     *
+     * @param structure  the structure of the ids
+     * @param partitions the number of partitions. Must be positive
+     * @return partitioner
+     */
+    public static IdPartitioner byHash(Structure structure, int partitions) {
+        return new IdPartitioner(Objects.requireNonNull(structure, "structure"), Mode.HASH, null, 1, partitions);
+    }
+
+    /**
+     * Creates a partitioner which routes by time bucket, e.g. for time partitioned tables. All ids of a time bucket end up
+     * in the same partition.
+     *
+     * @param structure  the structure of the ids
+     * @param timeSource the time source which has been used to generate the ids
+     * @param timeBucket the length of a time bucket. Must be a positive multiple of the tick duration of the time source
+     * @param partitions the number of partitions. Must be positive
+     * @return partitioner
+     */
+    public static IdPartitioner byTime(Structure structure, TimeSource timeSource, Duration timeBucket, int partitions) {
+        Objects.requireNonNull(structure, "structure");
+        Objects.requireNonNull(timeSource, "timeSource");
+        Objects.requireNonNull(timeBucket, "timeBucket");
+        Duration tickDuration = timeSource.getTickDuration();
+        long bucketTicks = timeBucket.dividedBy(tickDuration);
+        if (bucketTicks <= 0 || !tickDuration.multipliedBy(bucketTicks).equals(timeBucket)) {
+            throw new IllegalArgumentException("timeBucket must be a positive multiple of the tick duration " + tickDuration + ", but was " + timeBucket);
+        }
+        return new IdPartitioner(structure, Mode.TIME, timeBucket, bucketTicks, partitions);
+    }
+
+    /**
+     * Returns a partitioner with the same mode and a different number of partitions.
+     *
+     * @param partitions the number of partitions. Must be positive
+     * @return partitioner
+     */
+    public IdPartitioner withPartitions(int partitions) {
+        return new IdPartitioner(structure, mode, timeBucket, bucketTicks, partitions);
+    }
+
+    /**
+     * Returns the partition of the given id.
+     *
+     * @param id the id
+     * @return the partition, between 0 (inclusive) and {@link #getPartitions()} (exclusive)
+     */
+    public int partitionOf(long id) {
+        long key = (id >>> shift) & mask;
+        if (table != null) {
+            return table[(int) key];
+        }
+        if (mode == Mode.TIME) {
+            key /= bucketTicks;
+        }
+        return jumpConsistentHash(mix(key), partitions);
+    }
+
+    /**
+     * Writes the partitions of {@code len} ids from {@code ids}, starting at {@code off}, into {@code dst}, starting at
+     * {@code dstOff}.
+     *
+     * @param ids    the ids
+     * @param off    the offset of the first id
+     * @param len    the number of ids
+     * @param dst    the array to write to
+     * @param dstOff the offset of the first partition
+     * @throws IndexOutOfBoundsException if an offset or length is out of bounds
+     */
+    public void partitionsOf(long[] ids, int off, int len, int[] dst, int dstOff) {
+        Objects.checkFromIndexSize(off, len, ids.length);
+        Objects.checkFromIndexSize(dstOff, len, dst.length);
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = partitionOf(ids[off + i]);
+        }
+    }
+
+    /**
+     * Writes the partitions of the remaining ids in {@code ids} into {@code dst}. Advances the positions of both buffers.
+     *
+     * @param ids the ids
+     * @param dst the buffer to write to
+     * @throws BufferOverflowException if {@code dst} has less remaining space than {@code ids} has remaining ids
+     */
+    public void partitionsOf(LongBuffer ids, IntBuffer dst) {
+        int len = ids.remaining();
+        if (dst.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (ids.hasArray() && dst.hasArray()) {
+            partitionsOf(ids.array(), ids.arrayOffset() + ids.position(), len, dst.array(), dst.arrayOffset() + dst.position());
+            ids.position(ids.limit());
+            dst.position(dst.position() + len);
+            return;
+        }
+        while (ids.hasRemaining()) {
+            dst.put(partitionOf(ids.get()));
+        }
+    }
+
+    /**
+     * Spreads the bits of the given key, so that keys which only differ in a few low bits get unrelated hashes. This is
+     * the finalizer of {@link java.util.SplittableRandom}.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    /**
+     * Maps the given hash to a bucket, see Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm". Takes
+     * about {@code ln(buckets)} iterations.
+     *
+     * @param hash    the hash
+     * @param buckets the number of buckets
+     * @return the bucket
+     */
+    private static int jumpConsistentHash(long hash, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            hash = hash * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((hash >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    private static long calculateMask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    /**
+     * Returns the structure.
+     *
+     * @return the structure
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Returns the mode.
+     *
+     * @return the mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the length of a time bucket, only set with {@link Mode#TIME}.
+     *
+     * @return the length of a time bucket, or {@code null}
+     */
+    public Duration getTimeBucket() {
+        return timeBucket;
+    }
+
+    /**
+     * Returns the number of partitions.
+     *
+     * @return the number of partitions
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public String toString() {
+        return "IdPartitioner{" +
+            "structure=" + structure +
+            ", mode=" + mode +
+            ", timeBucket=" + timeBucket +
+            ", partitions=" + partitions +
+            '}';
+    }
+
+    /**
+     * Which part of the id determines the partition.
+     */
+    public enum Mode {
+        /**
+         * The generator id.
+         */
+        GENERATOR,
+        /**
+         * The generator id and the sequence.
+         */
+        HASH,
+        /**
+         * The time bucket of the timestamp.
+         */
+        TIME
+    }
+}
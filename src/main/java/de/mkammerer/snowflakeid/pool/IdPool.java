@@ -0,0 +1,242 @@
+package de.mkammerer.snowflakeid.pool;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.decoder.IdDecoder;
+
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of pregenerated ids. This class is thread safe.
+ * <p>
+ * A daemon producer thread generates ids in bulk and stores them in a bounded lock-free ring buffer. {@link #take()}
+ * removes an id from the buffer without touching the lock of the generator or the clock. When the number of ids in the
+ * pool drops to the low-water mark, the producer refills the pool. If the pool is empty, {@link #take()} falls back to
+ * generating the id directly.
+ * <p>
+ * Ids handed out by the pool are unique, but not necessarily increasing between {@link #take()} calls: they are as old as
+ * the moment they have been pregenerated, and direct ids from the fallback can overtake pooled ids. See
+ * {@link StaleIdStrategy} for how old ids are handled.
+ *
+ * @author Moritz Halbritter
+ */
+public class IdPool implements AutoCloseable {
+    private final SnowflakeIdGenerator generator;
+    private final LongRingBuffer buffer;
+    private final int lowWaterMark;
+    private final StaleIdStrategy staleIdStrategy;
+    private final Duration maxAge;
+    private final long maxAgeTicks;
+    private final long pollIntervalNanos;
+    private final IdDecoder decoder;
+    private final Thread producer;
+
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+    private final LongAdder fallbacks = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Starts the producer thread.
+     *
+     * @param generator       the generator to take the ids from
+     * @param capacity        the capacity of the pool, is rounded up to the next power of two
+     * @param lowWaterMark    if the pool has this many ids or less, it is refilled. Must be between 0 (inclusive) and
+     *                        capacity (exclusive)
+     * @param staleIdStrategy what to do with ids which have been in the pool for longer than {@code maxAge}
+     * @param maxAge          the maximum age of ids in the pool, only used with {@link StaleIdStrategy#DISCARD}. Must be
+     *                        positive
+     */
+    public IdPool(SnowflakeIdGenerator generator, int capacity, int lowWaterMark, StaleIdStrategy staleIdStrategy, Duration maxAge) {
+        this.generator = Objects.requireNonNull(generator, "generator");
+        this.staleIdStrategy = Objects.requireNonNull(staleIdStrategy, "staleIdStrategy");
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+        if (lowWaterMark < 0 || lowWaterMark >= capacity) {
+            throw new IllegalArgumentException("lowWaterMark must be between 0 (inclusive) and " + capacity + " (exclusive), but was " + lowWaterMark);
+        }
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("maxAge must be positive, but was " + maxAge);
+        }
+
+        this.buffer = new LongRingBuffer(capacity);
+        this.lowWaterMark = lowWaterMark;
+        this.decoder = new IdDecoder(generator.getStructure(), generator.getTimeSource());
+        this.maxAgeTicks = Math.max(1, maxAge.toNanos() / generator.getTimeSource().getTickDuration().toNanos());
+        // When discarding, the producer has to look for stale ids regularly. Otherwise, it only has to wake up when
+        // consumers request a refill, the timeout is a safety net
+        this.pollIntervalNanos = staleIdStrategy == StaleIdStrategy.DISCARD ? Math.max(1, maxAge.toNanos() / 2) : Duration.ofSeconds(1).toNanos();
+
+        producer = new Thread(this::produce, "snowflake-id-pool");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Takes an id from the pool. If the pool is empty, generates the id directly.
+     *
+     * @return the id
+     * @throws IllegalStateException if the pool is empty and the generator fails, see {@link SnowflakeIdGenerator#next()}
+     */
+    public long take() {
+        long id = buffer.poll();
+        if (buffer.size() <= lowWaterMark) {
+            requestRefill();
+        }
+        if (id != LongRingBuffer.EMPTY) {
+            return id;
+        }
+        fallbacks.increment();
+        return generator.next();
+    }
+
+    /**
+     * Returns the number of ids in the pool. This is only an estimate, as other threads take ids concurrently.
+     *
+     * @return the number of ids in the pool
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns the capacity of the pool.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns how many times {@link #take()} found the pool empty and generated the id directly.
+     *
+     * @return the number of fallbacks
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Returns the generator.
+     *
+     * @return the generator
+     */
+    public SnowflakeIdGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Stops the producer thread and waits for it to terminate. Ids still in the pool can be taken, afterwards
+     * {@link #take()} generates ids directly.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(producer);
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void requestRefill() {
+        // Only unpark once per refill, so that consumers don't pay for unpark on every take
+        if (!refillRequested.get() && refillRequested.compareAndSet(false, true)) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    private void produce() {
+        long[] chunk = new long[buffer.capacity()];
+        boolean initial = true;
+        while (running) {
+            // Clear before looking at the pool, so that a consumer which sees a low pool afterwards unparks us again
+            refillRequested.set(false);
+            if (staleIdStrategy == StaleIdStrategy.DISCARD) {
+                discardStaleIds();
+            }
+            int size = buffer.size();
+            if (initial || size <= lowWaterMark) {
+                fill(chunk, buffer.capacity() - size);
+                initial = false;
+            }
+            LockSupport.parkNanos(this, pollIntervalNanos);
+        }
+    }
+
+    private void fill(long[] chunk, int count) {
+        if (count <= 0) {
+            return;
+        }
+        LongBuffer ids = LongBuffer.wrap(chunk, 0, count);
+        try {
+            generator.next(ids);
+        } catch (IllegalStateException e) {
+            // The generator failed, e.g. because of a clock regression. Consumers will see the exception in the fallback.
+            // The ids generated before the failure have been reserved, publish them instead of losing them
+        }
+        for (int i = 0; i < ids.position(); i++) {
+            if (!buffer.offer(chunk[i])) {
+                // Pool is full. Can't happen with a single producer, but don't spin if it does
+                return;
+            }
+        }
+    }
+
+    private void discardStaleIds() {
+        long now = generator.getTimeSource().getTicks();
+        // Only removes the id which has been checked, a concurrent take() can't make us discard a fresh id. Ids are
+        // ordered by age, so stop at the first fresh one
+        while (buffer.pollIf(id -> now - decoder.timestampOf(id) > maxAgeTicks) != LongRingBuffer.EMPTY) {
+            // Discard
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IdPool{" +
+            "generator=" + generator +
+            ", capacity=" + buffer.capacity() +
+            ", lowWaterMark=" + lowWaterMark +
+            ", staleIdStrategy=" + staleIdStrategy +
+            ", maxAge=" + maxAge +
+            '}';
+    }
+
+    /**
+     * Creates a pool with default settings.
+     * <p>
+     * Uses a capacity of 4096 ids and refills when 1024 or less ids are left. Stale ids are kept.
+     *
+     * @param generator the generator to take the ids from
+     * @return pool
+     */
+    public static IdPool createDefault(SnowflakeIdGenerator generator) {
+        return new IdPool(generator, 4096, 1024, StaleIdStrategy.KEEP, Duration.ofSeconds(1));
+    }
+
+    /**
+     * Defines what happens with ids which have been in the pool for too long.
+     */
+    public enum StaleIdStrategy {
+        /**
+         * Hands out stale ids. They still sort by the time they have been generated, not by the time they have been taken.
+         */
+        KEEP,
+        /**
+         * Discards ids which are older than the maximum age. As the producer looks for stale ids every half of the maximum
+         * age, ids may be up to 1.5 times the maximum age old when they are taken.
+         */
+        DISCARD
+    }
+}
@@ -0,0 +1,143 @@
+package de.mkammerer.snowflakeid.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Bounded lock-free ring buffer for non-negative longs, for a single producer and multiple consumers.
+ * <p>
+ * Every slot has a sequence number which tells if the slot is ready to be written or read, see Dmitry Vyukov's bounded
+ * MPMC queue. This class is thread safe, as long as only one thread calls {@link #offer(long)}.
+ *
+ * @author Moritz Halbritter
+ */
+final class LongRingBuffer {
+    /**
+     * Returned by {@link #poll()} and {@link #pollIf(LongPredicate)} if the buffer is empty.
+     */
+    static final long EMPTY = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the capacity, is rounded up to the next power of two
+     */
+    LongRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 (inclusive) and " + (1 << 30) + " (inclusive), but was " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.values = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a value. Must only be called by the producer thread.
+     *
+     * @param value the value
+     * @return true if the value has been added, false if the buffer is full
+     */
+    boolean offer(long value) {
+        long position = tail.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position) {
+            // Slot still contains a value which hasn't been consumed
+            return false;
+        }
+        values[index] = value;
+        // Publishes the value to the consumers
+        sequences.set(index, position + 1);
+        tail.set(position + 1);
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest value.
+     *
+     * @return the oldest value, or {@link #EMPTY} if the buffer is empty
+     */
+    long poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference < 0) {
+                return EMPTY;
+            }
+            if (difference == 0 && head.compareAndSet(position, position + 1)) {
+                long value = values[index];
+                // Hands the slot back to the producer
+                sequences.lazySet(index, position + capacity);
+                return value;
+            }
+            // Another consumer has been faster, retry
+        }
+    }
+
+    /**
+     * Removes and returns the oldest value, but only if it matches the given condition. The condition sees exactly the
+     * value which is removed: if another consumer takes the value concurrently, the condition is evaluated again on the
+     * new oldest value.
+     *
+     * @param condition the condition
+     * @return the removed value, or {@link #EMPTY} if the buffer is empty or the oldest value doesn't match
+     */
+    long pollIf(LongPredicate condition) {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference < 0) {
+                return EMPTY;
+            }
+            if (difference == 0) {
+                // The slot can't be overwritten before the head moves past it, so a successful CAS removes this value
+                long value = values[index];
+                if (head.get() != position) {
+                    // Another consumer has been faster, retry
+                    continue;
+                }
+                if (!condition.test(value)) {
+                    return EMPTY;
+                }
+                if (head.compareAndSet(position, position + 1)) {
+                    // Hands the slot back to the producer
+                    sequences.lazySet(index, position + capacity);
+                    return value;
+                }
+            }
+            // Another consumer has been faster, retry
+        }
+    }
+
+    /**
+     * Returns the number of values in the buffer. This is only an estimate if other threads modify the buffer.
+     *
+     * @return the number of values
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    /**
+     * Returns the capacity.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,426 @@
+package de.mkammerer.snowflakeid.set;
+
+import de.mkammerer.snowflakeid.decoder.IdDecoder;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.time.TimeSource;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of ids which stores ids in time buckets. This class is not thread safe.
+ * <p>
+ * The upper bits of an id select its bucket, the lower bits are stored in the bucket: as a sorted {@code char} array
+ * while the bucket is small, as a bitmap once it holds as many ids as a bitmap takes {@code char}s. The lower bits are
+ * the generator and sequence bits of the {@link Structure}, capped to 16 bits. So a bucket never spans more than one
+ * timestamp, and buckets are ordered by time. With the default {@link Structure}, the bucket key is the timestamp and
+ * the upper 6 generator bits, buckets hold up to 65536 ids in bitmaps of 8 KiB, and dense sets take about 2 bytes per id.
+ * <p>
+ * {@link #removeBefore(Instant)} drops whole buckets without touching them: it finds the first bucket to keep with a
+ * binary search, and a running prefix sum of the bucket sizes gives the number of removed ids. Dropped
+ * buckets are released later, when their slots are reused or the buckets are moved. Adding ids keeps the prefix sum up
+ * to date for free if the ids are added in time order, an id added to an older bucket costs one increment per later
+ * bucket.
+ *
+ * @author Moritz Halbritter
+ */
+public final class IdSet {
+    /**
+     * Buckets hold at most {@code 2^MAX_LOW_BITS} ids, so the lower bits of an id fit into a {@code char}.
+     */
+    private static final int MAX_LOW_BITS = Character.SIZE;
+    private static final int INITIAL_ARRAY_SIZE = 4;
+    private static final int INITIAL_BUCKETS = 16;
+
+    private final IdDecoder decoder;
+    private final int lowBits;
+    private final int lowMask;
+    /**
+     * An array of this many {@code char}s takes as much memory as a bitmap.
+     */
+    private final int maxArraySize;
+    private final int bitmapWords;
+
+    // Buckets, sorted by key, are stored in [head, tail). A container is either a char[] or a long[] bitmap. Slots
+    // outside of [head, tail) may still reference the containers of dropped buckets
+    private long[] keys = new long[INITIAL_BUCKETS];
+    private Object[] containers = new Object[INITIAL_BUCKETS];
+    private int[] cardinalities = new int[INITIAL_BUCKETS];
+    /**
+     * Prefix sum of the cardinalities: the number of ids in the buckets before a bucket, plus an arbitrary offset.
+     */
+    private long[] starts = new long[INITIAL_BUCKETS];
+    private int head;
+    private int tail;
+    private long size;
+
+    /**
+     * Constructor.
+     *
+     * @param structure  the structure of the ids
+     * @param timeSource the time source which has been used to generate the ids
+     */
+    public IdSet(Structure structure, TimeSource timeSource) {
+        this.decoder = new IdDecoder(structure, timeSource);
+        this.lowBits = Math.min(structure.getGeneratorBits() + structure.getSequenceBits(), MAX_LOW_BITS);
+        this.lowMask = (1 << lowBits) - 1;
+        this.bitmapWords = Math.max(1, (1 << lowBits) / Long.SIZE);
+        this.maxArraySize = bitmapWords * (Long.SIZE / Character.SIZE);
+    }
+
+    /**
+     * Adds an id.
+     *
+     * @param id the id. Must not be negative
+     * @return whether the id has been added, false if it already was in the set
+     */
+    public boolean add(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("id must not be negative, but was " + id);
+        }
+        long key = id >>> lowBits;
+        char low = (char) (id & lowMask);
+
+        int bucket = indexOf(key);
+        if (bucket < 0) {
+            bucket = insertBucket(-bucket - 1, key);
+        }
+        Object container = containers[bucket];
+        if (container instanceof long[]) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ((bitmap[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            bitmap[low >>> 6] |= bit;
+        } else {
+            char[] array = (char[]) container;
+            int cardinality = cardinalities[bucket];
+            // Fast path for ids which are added in order
+            int position = cardinality == 0 || array[cardinality - 1] < low ? -cardinality - 1 : Arrays.binarySearch(array, 0, cardinality, low);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            if (cardinality == maxArraySize) {
+                long[] bitmap = toBitmap(array, cardinality);
+                bitmap[low >>> 6] |= 1L << low;
+                containers[bucket] = bitmap;
+            } else {
+                if (cardinality == array.length) {
+                    array = Arrays.copyOf(array, Math.min(cardinality * 2, maxArraySize));
+                    containers[bucket] = array;
+                }
+                System.arraycopy(array, position, array, position + 1, cardinality - position);
+                array[position] = low;
+            }
+        }
+        cardinalities[bucket]++;
+        for (int i = bucket + 1; i < tail; i++) {
+            starts[i]++;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns whether the set contains the given id.
+     *
+     * @param id the id
+     * @return whether the set contains the id
+     */
+    public boolean contains(long id) {
+        if (id < 0) {
+            return false;
+        }
+        int bucket = indexOf(id >>> lowBits);
+        if (bucket < 0) {
+            return false;
+        }
+        char low = (char) (id & lowMask);
+        Object container = containers[bucket];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[bucket], low) >= 0;
+    }
+
+    /**
+     * Returns an iterator over all ids, in ascending order. The set must not be modified while iterating.
+     *
+     * @return iterator
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new RangeIterator(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the ids between {@code from} (inclusive) and {@code to} (exclusive), in ascending order.
+     * The set must not be modified while iterating.
+     *
+     * @param from the smallest id
+     * @param to   the id after the largest id
+     * @return iterator
+     */
+    public PrimitiveIterator.OfLong range(long from, long to) {
+        if (to <= from || to <= 0) {
+            return new RangeIterator(0, -1);
+        }
+        return new RangeIterator(Math.max(from, 0), to - 1);
+    }
+
+    /**
+     * Returns an iterator over the ids which have been generated between {@code from} (inclusive) and {@code to}
+     * (exclusive), in ascending order. The set must not be modified while iterating.
+     * <p>
+     * The instants are converted to timestamps with the epoch and the tick duration of the time source. Buckets before
+     * {@code from} aren't visited. If {@code to} is after the wraparound date, the ids of the last timestamp are included.
+     *
+     * @param from the start
+     * @param to   the end
+     * @return iterator
+     */
+    public PrimitiveIterator.OfLong rangeByTime(Instant from, Instant to) {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        long first = decoder.minIdFor(from);
+        long last = decoder.maxIdBefore(to);
+        if (last < first) {
+            return new RangeIterator(0, -1);
+        }
+        return new RangeIterator(first, last);
+    }
+
+    /**
+     * Removes all ids which have been generated before the given instant.
+     * <p>
+     * Buckets which only contain older ids are dropped without looking at them, see the class documentation. If the
+     * instant is after the wraparound date, all ids are removed.
+     *
+     * @param instant the instant
+     * @return the number of removed ids
+     */
+    public long removeBefore(Instant instant) {
+        Objects.requireNonNull(instant, "instant");
+        long last = decoder.maxIdBefore(instant);
+        if (last < 0) {
+            return 0;
+        }
+        // Buckets don't span timestamps, and the lower bits of the last id are all set, so the last id ends a bucket
+        int end = lowerBound((last >>> lowBits) + 1);
+        long removed = end == tail ? size : starts[end] - starts[head];
+        // The containers are released lazily, see insertBucket and makeRoom
+        head = end;
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Removes all ids.
+     */
+    public void clear() {
+        Arrays.fill(containers, null);
+        head = 0;
+        tail = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of ids.
+     *
+     * @return the number of ids
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return whether the set is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long key) {
+        // Fast path for ids which are added in order
+        if (tail > head && keys[tail - 1] == key) {
+            return tail - 1;
+        }
+        return Arrays.binarySearch(keys, head, tail, key);
+    }
+
+    /**
+     * Returns the index of the first bucket with a key greater than or equal to the given key.
+     */
+    private int lowerBound(long key) {
+        int index = Arrays.binarySearch(keys, head, tail, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Inserts an empty bucket before the given index.
+     *
+     * @return the index of the new bucket
+     */
+    private int insertBucket(int index, long key) {
+        // The new bucket is empty, so it starts where the bucket at its index starts
+        long start = index < tail ? starts[index] : tail > head ? starts[tail - 1] + cardinalities[tail - 1] : 0;
+        if (index == head && head > 0) {
+            head--;
+            index = head;
+        } else {
+            if (tail == keys.length) {
+                index -= head;
+                makeRoom();
+            }
+            System.arraycopy(keys, index, keys, index + 1, tail - index);
+            System.arraycopy(containers, index, containers, index + 1, tail - index);
+            System.arraycopy(cardinalities, index, cardinalities, index + 1, tail - index);
+            System.arraycopy(starts, index, starts, index + 1, tail - index);
+            tail++;
+        }
+        keys[index] = key;
+        // Releases the container of a dropped bucket, if the slot had one
+        containers[index] = new char[Math.min(INITIAL_ARRAY_SIZE, maxArraySize)];
+        cardinalities[index] = 0;
+        starts[index] = start;
+        return index;
+    }
+
+    /**
+     * Moves the buckets to the start of the arrays, growing them if they're more than half full. Releases the containers
+     * of dropped buckets.
+     */
+    private void makeRoom() {
+        int buckets = tail - head;
+        int capacity = buckets < keys.length / 2 ? keys.length : keys.length * 2;
+        long[] newKeys = capacity == keys.length ? keys : new long[capacity];
+        Object[] newContainers = capacity == keys.length ? containers : new Object[capacity];
+        int[] newCardinalities = capacity == keys.length ? cardinalities : new int[capacity];
+        long[] newStarts = capacity == keys.length ? starts : new long[capacity];
+        System.arraycopy(keys, head, newKeys, 0, buckets);
+        System.arraycopy(containers, head, newContainers, 0, buckets);
+        System.arraycopy(cardinalities, head, newCardinalities, 0, buckets);
+        System.arraycopy(starts, head, newStarts, 0, buckets);
+        Arrays.fill(newContainers, buckets, capacity, null);
+        keys = newKeys;
+        containers = newContainers;
+        cardinalities = newCardinalities;
+        starts = newStarts;
+        head = 0;
+        tail = buckets;
+    }
+
+    private long[] toBitmap(char[] array, int cardinality) {
+        long[] bitmap = new long[bitmapWords];
+        for (int i = 0; i < cardinality; i++) {
+            char low = array[i];
+            bitmap[low >>> 6] |= 1L << low;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the first set bit at or after {@code from}, or -1 if there is none.
+     */
+    private int nextSetBit(long[] bitmap, int from) {
+        if (from > lowMask) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = bitmap[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == bitmapWords) {
+                return -1;
+            }
+            bits = bitmap[word];
+        }
+        return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public String toString() {
+        return "IdSet{" +
+            "size=" + size +
+            ", buckets=" + (tail - head) +
+            '}';
+    }
+
+    /**
+     * Iterates over the ids between two ids, both inclusive.
+     */
+    private final class RangeIterator implements PrimitiveIterator.OfLong {
+        private final long last;
+        private int bucket;
+        /**
+         * For arrays: the index of the next id. For bitmaps: the lower bits of the next id.
+         */
+        private int position;
+        /**
+         * The next id, or -1 if there is none.
+         */
+        private long next;
+
+        RangeIterator(long first, long last) {
+            this.last = last;
+            long key = first >>> lowBits;
+            bucket = lowerBound(key);
+            if (bucket < tail && keys[bucket] == key) {
+                char low = (char) (first & lowMask);
+                Object container = containers[bucket];
+                if (container instanceof long[]) {
+                    position = low;
+                } else {
+                    int index = Arrays.binarySearch((char[]) container, 0, cardinalities[bucket], low);
+                    position = index >= 0 ? index : -index - 1;
+                }
+            }
+            advance();
+        }
+
+        private void advance() {
+            while (bucket < tail) {
+                Object container = containers[bucket];
+                int low = -1;
+                if (container instanceof long[]) {
+                    low = nextSetBit((long[]) container, position);
+                    position = low + 1;
+                } else if (position < cardinalities[bucket]) {
+                    low = ((char[]) container)[position++];
+                }
+                if (low >= 0) {
+                    long id = (keys[bucket] << lowBits) | low;
+                    next = id <= last ? id : -1;
+                    return;
+                }
+                bucket++;
+                position = 0;
+            }
+            next = -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public long nextLong() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            long id = next;
+            advance();
+            return id;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.mkammerer.snowflakeid.time;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A time source which caches the ticks of another time source.
+ * <p>
+ * A daemon ticker thread polls the delegate and publishes its ticks into a volatile field, so {@link #getTicks()} is a
+ * plain volatile read. This helps if the delegate is slow, e.g. if {@link System#nanoTime()} is slow on your machine.
+ * <p>
+ * The returned ticks never move backwards, even if the delegate does. If the ticker thread lags behind, the ticks are
+ * stale, but still safe to use: a generator will just use more of the sequence space of the stale tick. After
+ * {@link #close()}, the ticker thread is stopped and the delegate is queried directly.
+ *
+ * @author Moritz Halbritter
+ */
+public class CachedTimeSource implements TimeSource, AutoCloseable {
+    private static final VarHandle TICKS;
+
+    static {
+        try {
+            TICKS = MethodHandles.lookup().findVarHandle(CachedTimeSource.class, "ticks", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final TimeSource delegate;
+    private final long pollIntervalNanos;
+    private final Thread ticker;
+
+    /**
+     * The published ticks. Only ever increases, see {@link #publish(long)}.
+     */
+    private volatile long ticks;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Starts the ticker thread, which polls the delegate every quarter of its tick duration.
+     *
+     * @param delegate the time source to cache
+     */
+    public CachedTimeSource(TimeSource delegate) {
+        this(delegate, Objects.requireNonNull(delegate, "delegate").getTickDuration().dividedBy(4));
+    }
+
+    /**
+     * Constructor. Starts the ticker thread.
+     *
+     * @param delegate     the time source to cache
+     * @param pollInterval the interval in which the ticker thread polls the delegate. Must be positive
+     */
+    public CachedTimeSource(TimeSource delegate, Duration pollInterval) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        Objects.requireNonNull(pollInterval, "pollInterval");
+        if (pollInterval.isNegative() || pollInterval.isZero()) {
+            throw new IllegalArgumentException("pollInterval must be positive, but was " + pollInterval);
+        }
+        this.pollIntervalNanos = pollInterval.toNanos();
+
+        ticks = delegate.getTicks();
+        ticker = new Thread(this::tick, "snowflake-id-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long getTicks() {
+        if (running) {
+            return ticks;
+        }
+        // Ticker has been stopped, use the delegate, but never go backwards
+        return publish(delegate.getTicks());
+    }
+
+    @Override
+    public Duration getTickDuration() {
+        return delegate.getTickDuration();
+    }
+
+    @Override
+    public Instant getEpoch() {
+        return delegate.getEpoch();
+    }
+
+    @Override
+    public long nanosUntilTick(long tick) {
+        if (getTicks() >= tick) {
+            return 0;
+        }
+        // If the delegate already reached the tick, the ticker publishes it within one poll interval
+        long nanos = delegate.nanosUntilTick(tick);
+        return nanos > 0 ? nanos : pollIntervalNanos;
+    }
+
+    /**
+     * Returns the cached time source.
+     *
+     * @return the cached time source
+     */
+    public TimeSource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Stops the ticker thread and waits for it to terminate. Afterwards, {@link #getTicks()} queries the delegate
+     * directly.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        boolean interrupted = false;
+        while (ticker.isAlive()) {
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tick() {
+        while (running) {
+            publish(delegate.getTicks());
+            LockSupport.parkNanos(this, pollIntervalNanos);
+        }
+    }
+
+    /**
+     * Publishes the given ticks, if they are greater than the currently published ticks.
+     *
+     * @param now the ticks to publish
+     * @return the published ticks after the update
+     */
+    private long publish(long now) {
+        long current;
+        do {
+            current = ticks;
+            if (now <= current) {
+                return current;
+            }
+        } while (!TICKS.compareAndSet(this, current, now));
+        return now;
+    }
+
+    /**
+     * Creates a cached time source with default settings.
+     * <p>
+     * Caches a {@link MonotonicTimeSource} with 2020-01-01T00:00:00Z as epoch.
+     *
+     * @return time source
+     */
+    public static CachedTimeSource createDefault() {
+        return new CachedTimeSource(MonotonicTimeSource.createDefault());
+    }
+
+    @Override
+    public String toString() {
+        return "CachedTimeSource{" +
+            "delegate=" + delegate +
+            ", pollIntervalNanos=" + pollIntervalNanos +
+            '}';
+    }
+}
@@ -0,0 +1,373 @@
+package de.mkammerer.snowflakeid.time;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * A time source which persists a high-water mark of its ticks in a memory-mapped file, so that ticks don't move
+ * backwards across restarts.
+ * <p>
+ * The file doesn't record every tick. Instead, the time source takes a lease: it writes {@code ticks + lease} to the file
+ * and flushes it to disk, and can then hand out ticks up to that value without touching the file. A daemon renewer
+ * thread writes the next lease when half of the current lease has passed, so {@link #getTicks()} never does I/O: it
+ * only compares the ticks against the end of the current lease. If the renewer falls behind, {@link #getTicks()}
+ * returns the last tick of the lease until the next lease has been written, like a clock which stands still.
+ * <p>
+ * On startup, the time source reads the lease of the previous run. All ids of the previous run have been generated with
+ * ticks below it, so if the clock is behind that lease, e.g. because the host clock has been set back, the constructor
+ * waits until the clock has passed it, or fails if that would take longer than {@code maxWait}.
+ * <p>
+ * A generator with {@link de.mkammerer.snowflakeid.options.Options.SequenceOverflowStrategy#BORROW} issues timestamps
+ * up to {@link de.mkammerer.snowflakeid.options.Options#getMaxDrift()} ahead of the ticks. To cover them, the
+ * constructor waits until the clock has passed the previous lease plus half a lease, and generators reject a
+ * {@code maxDrift} above {@link #getMaxDrift()}, which is half the lease. Size the lease to at least twice the drift.
+ * <p>
+ * The file is locked while the time source is open, so only one process can use it at a time. The file contains the
+ * epoch and tick duration of the delegate, and the time source refuses to open a file written with a different epoch or
+ * tick duration, or a corrupted file.
+ *
+ * @author Moritz Halbritter
+ */
+public class CheckpointedTimeSource implements TimeSource, AutoCloseable {
+    private static final int MAGIC = 0x534E4350; // SNCP
+    private static final int VERSION = 1;
+
+    // File layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int TICK_NANOS_OFFSET = 8;
+    private static final int EPOCH_SECONDS_OFFSET = 16;
+    private static final int EPOCH_NANOS_OFFSET = 24;
+    /**
+     * Leases are written alternately into two slots of 16 bytes: the lease end and its CRC32. If the process dies while
+     * writing a slot, the other slot still holds the previous lease.
+     */
+    private static final int SLOTS_OFFSET = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int FILE_SIZE = SLOTS_OFFSET + 2 * SLOT_SIZE;
+
+    private final TimeSource delegate;
+    private final Path file;
+    private final long leaseTicks;
+    /**
+     * How far ahead of the ticks the previous run may have issued timestamps.
+     */
+    private final long maxDriftTicks;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer crcBuffer = ByteBuffer.allocate(Long.BYTES);
+
+    /**
+     * Ticks below this value are covered by the lease on disk.
+     */
+    private volatile long leaseEnd;
+    /**
+     * Slot which receives the next lease. Guarded by {@code this}.
+     */
+    private int nextSlot;
+    private volatile boolean open = true;
+    /**
+     * Set if the renewer failed to write a lease.
+     */
+    private volatile RuntimeException renewalFailure;
+    private final Thread renewer;
+
+    /**
+     * Constructor. Opens or creates the checkpoint file and takes the first lease. If the clock is behind the lease of
+     * the previous run, waits until it has caught up.
+     *
+     * @param delegate the time source which provides the ticks
+     * @param file     the checkpoint file. Is created if it doesn't exist
+     * @param lease    how far ahead of the clock a lease reaches. Must be at least one tick
+     * @param maxWait  how long to wait for the clock if it is behind the lease of the previous run. Zero fails immediately
+     * @throws IOException           if the file can't be opened, or is locked by another process
+     * @throws IllegalStateException if the file is corrupted or belongs to a time source with a different epoch or tick
+     *                               duration, or if the clock is behind the previous lease by more than {@code maxWait}
+     */
+    public CheckpointedTimeSource(TimeSource delegate, Path file, Duration lease, Duration maxWait) throws IOException {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.file = Objects.requireNonNull(file, "file");
+        Objects.requireNonNull(lease, "lease");
+        Objects.requireNonNull(maxWait, "maxWait");
+        long tickNanos = delegate.getTickDuration().toNanos();
+        this.leaseTicks = lease.toNanos() / tickNanos;
+        if (leaseTicks < 1) {
+            throw new IllegalArgumentException("lease must be at least " + delegate.getTickDuration() + ", but was " + lease);
+        }
+        this.maxDriftTicks = leaseTicks / 2;
+        if (maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative, but was " + maxWait);
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Locked by this JVM
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Checkpoint file " + file + " is locked by another process");
+            }
+            long size = channel.size();
+            if (size != 0 && size != FILE_SIZE) {
+                throw new IllegalStateException("Checkpoint file " + file + " is corrupted: expected " + FILE_SIZE + " bytes, but got " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+
+            long previousLease;
+            if (size == 0) {
+                writeHeader(tickNanos);
+                previousLease = -1;
+            } else {
+                checkHeader(tickNanos);
+                previousLease = readLease();
+            }
+
+            // The previous run may have issued timestamps beyond its lease by up to maxDrift
+            long previousEnd = previousLease < 0 ? -1 : previousLease + maxDriftTicks;
+            awaitTicks(previousEnd, maxWait);
+            renew(Math.max(delegate.getTicks(), previousEnd));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        renewer = new Thread(this::renewAhead, "snowflake-id-checkpoint");
+        renewer.setDaemon(true);
+        renewer.start();
+    }
+
+    @Override
+    public long getTicks() {
+        long ticks = delegate.getTicks();
+        long end = leaseEnd;
+        if (ticks < end) {
+            return ticks;
+        }
+        if (!open || renewalFailure != null) {
+            throw new IllegalStateException("Checkpoint file " + file + " has been closed or can't be written, and the lease has ended", renewalFailure);
+        }
+        // The renewer is behind, don't hand out ticks beyond the lease
+        LockSupport.unpark(renewer);
+        return end - 1;
+    }
+
+    @Override
+    public Duration getTickDuration() {
+        return delegate.getTickDuration();
+    }
+
+    @Override
+    public Instant getEpoch() {
+        return delegate.getEpoch();
+    }
+
+    @Override
+    public long nanosUntilTick(long tick) {
+        long nanos = delegate.nanosUntilTick(tick);
+        if (nanos > 0 || tick < leaseEnd) {
+            return nanos;
+        }
+        // The delegate reached the tick, but the lease doesn't cover it yet
+        return delegate.getTickDuration().toNanos();
+    }
+
+    /**
+     * Returns the end of the current lease. Ticks below this value can be handed out without writing to the file.
+     *
+     * @return the end of the current lease
+     */
+    public long getLeaseEnd() {
+        return leaseEnd;
+    }
+
+    /**
+     * Returns how far a generator may run ahead of the ticks of this time source, which is half the lease. Generators
+     * reject a larger {@link de.mkammerer.snowflakeid.options.Options#getMaxDrift()}, because a restart could reissue
+     * the timestamps beyond it.
+     *
+     * @return the largest allowed drift
+     */
+    public Duration getMaxDrift() {
+        return delegate.getTickDuration().multipliedBy(maxDriftTicks);
+    }
+
+    /**
+     * Returns the checkpoint file.
+     *
+     * @return the checkpoint file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the time source which provides the ticks.
+     *
+     * @return the delegate
+     */
+    public TimeSource getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Stops the renewer thread and releases the lock on the checkpoint file. Afterwards, {@link #getTicks()} works until
+     * the current lease ends, and then throws an {@link IllegalStateException}.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+        }
+        LockSupport.unpark(renewer);
+        boolean interrupted = false;
+        while (renewer.isAlive()) {
+            try {
+                renewer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Runs on the renewer thread. Writes the next lease when half of the current lease has passed.
+     */
+    private void renewAhead() {
+        while (open) {
+            long renewAt = leaseEnd - (leaseTicks + 1) / 2;
+            long ticks = delegate.getTicks();
+            if (ticks < renewAt) {
+                LockSupport.parkNanos(this, Math.max(1, delegate.nanosUntilTick(renewAt)));
+                continue;
+            }
+            try {
+                renew(ticks);
+            } catch (RuntimeException e) {
+                renewalFailure = e;
+                return;
+            }
+        }
+    }
+
+    private synchronized void renew(long ticks) {
+        if (!open) {
+            return;
+        }
+        long end = ticks + leaseTicks;
+        if (end <= leaseEnd) {
+            return;
+        }
+        int offset = SLOTS_OFFSET + nextSlot * SLOT_SIZE;
+        buffer.putLong(offset, end);
+        buffer.putLong(offset + Long.BYTES, checksum(end));
+        // The lease must be on disk before ticks from it are handed out
+        buffer.force();
+        nextSlot ^= 1;
+        leaseEnd = end;
+    }
+
+    private void awaitTicks(long tick, Duration maxWait) {
+        long ticks = delegate.getTicks();
+        if (ticks >= tick) {
+            return;
+        }
+        long nanos = delegate.nanosUntilTick(tick);
+        if (nanos > maxWait.toNanos()) {
+            throw new IllegalStateException("Clock is behind the checkpoint in " + file + " by " + Duration.ofNanos(nanos) + ", which is more than " + maxWait);
+        }
+        while (delegate.getTicks() < tick) {
+            LockSupport.parkNanos(this, Math.max(1, delegate.nanosUntilTick(tick)));
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted while waiting for the clock");
+            }
+        }
+    }
+
+    private void writeHeader(long tickNanos) {
+        Instant epoch = delegate.getEpoch();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putLong(TICK_NANOS_OFFSET, tickNanos);
+        buffer.putLong(EPOCH_SECONDS_OFFSET, epoch.getEpochSecond());
+        buffer.putInt(EPOCH_NANOS_OFFSET, epoch.getNano());
+    }
+
+    private void checkHeader(long tickNanos) {
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IllegalStateException("Checkpoint file " + file + " is corrupted or has an unsupported version");
+        }
+        Instant epoch = Instant.ofEpochSecond(buffer.getLong(EPOCH_SECONDS_OFFSET), buffer.getInt(EPOCH_NANOS_OFFSET));
+        if (buffer.getLong(TICK_NANOS_OFFSET) != tickNanos || !epoch.equals(delegate.getEpoch())) {
+            throw new IllegalStateException("Checkpoint file " + file + " has been written with epoch " + epoch + " and tick duration " + Duration.ofNanos(buffer.getLong(TICK_NANOS_OFFSET)) + ", but the time source uses epoch " + delegate.getEpoch() + " and tick duration " + delegate.getTickDuration());
+        }
+    }
+
+    /**
+     * Reads the latest valid lease, and selects the other slot for the next lease.
+     *
+     * @return the latest lease, or -1 if there is none
+     */
+    private long readLease() {
+        if (buffer.getLong(SLOTS_OFFSET) == 0 && buffer.getLong(SLOTS_OFFSET + SLOT_SIZE) == 0) {
+            // The previous run died before it took its first lease
+            return -1;
+        }
+        long lease = -1;
+        boolean valid = false;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+            long end = buffer.getLong(offset);
+            if (buffer.getLong(offset + Long.BYTES) == checksum(end) && end >= lease) {
+                lease = end;
+                nextSlot = slot ^ 1;
+                valid = true;
+            }
+        }
+        if (!valid) {
+            throw new IllegalStateException("Checkpoint file " + file + " is corrupted: no valid lease found");
+        }
+        return lease;
+    }
+
+    private long checksum(long value) {
+        crc.reset();
+        crcBuffer.putLong(0, value);
+        crc.update(crcBuffer.array());
+        return crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "CheckpointedTimeSource{" +
+            "delegate=" + delegate +
+            ", file=" + file +
+            ", leaseTicks=" + leaseTicks +
+            '}';
+    }
+}
@@ -1,41 +1,94 @@
 package de.mkammerer.snowflakeid.time;
 
+import java.math.BigInteger;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Objects;
 
 /**
  * A monotonic time source, based on {@link System#nanoTime()}.
+ * <p>
+ * The tick duration is 1 millisecond by default, but can be as short as 1 nanosecond. Shorter ticks allow more ids per
+ * second and generator, at the price of a shorter wraparound duration, see
+ * {@link de.mkammerer.snowflakeid.structure.Structure#calculateWraparoundDuration(TimeSource)}. The ticks are anchored to
+ * the epoch: tick {@code n} starts {@code n} tick durations after the epoch, according to the wall clock at creation.
  *
  * @author Moritz Halbritter
  */
 public class MonotonicTimeSource implements TimeSource {
-    private final long start;
-    private final long offset;
+    /**
+     * Elapsed nanoseconds since the epoch must be below {@code 2^DIVIDEND_BITS} (about 146 years) for the division
+     * without a division instruction.
+     */
+    private static final int DIVIDEND_BITS = 62;
+
     private final Instant epoch;
+    private final Duration tickDuration;
+    private final long tickNanos;
+    /**
+     * {@link System#nanoTime()} at creation of this time source.
+     */
+    private final long origin;
+    /**
+     * Nanoseconds from the epoch to the creation of this time source.
+     */
+    private final long originSinceEpoch;
+
+    // Division by tickNanos: a shift if tickNanos is a power of two, else a multiplication with the reciprocal and a shift
+    private final long multiplier;
+    private final int shift;
 
     /**
-     * Constructor.
+     * Constructor. Uses a tick duration of 1 millisecond.
      *
      * @param epoch the epoch
      */
     public MonotonicTimeSource(Instant epoch) {
+        this(epoch, Duration.ofMillis(1));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param epoch        the epoch
+     * @param tickDuration the duration of a tick. Must be positive
+     */
+    public MonotonicTimeSource(Instant epoch, Duration tickDuration) {
         this.epoch = Objects.requireNonNull(epoch, "epoch");
+        this.tickDuration = Objects.requireNonNull(tickDuration, "tickDuration");
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("tickDuration must be positive, but was " + tickDuration);
+        }
+        tickNanos = tickDuration.toNanos();
 
-        // Offset elapsed time by this amount (creation time of this time source since epoch)
-        offset = Instant.now().toEpochMilli() - epoch.toEpochMilli();
-        // Record creation of this time source in milliseconds
-        start = System.nanoTime() / 1_000_000;
+        if (Long.bitCount(tickNanos) == 1) {
+            multiplier = 0;
+            shift = Long.numberOfTrailingZeros(tickNanos);
+        } else {
+            // ceil(log2(tickNanos)), at least 2, as tickNanos is at least 3
+            int log = Long.SIZE - Long.numberOfLeadingZeros(tickNanos - 1);
+            // ceil(2^(62 + log) / tickNanos). For dividends below 2^62, the quotient is exact, see Granlund and
+            // Montgomery, "Division by Invariant Integers using Multiplication"
+            multiplier = BigInteger.ONE.shiftLeft(DIVIDEND_BITS + log)
+                .add(BigInteger.valueOf(tickNanos - 1))
+                .divide(BigInteger.valueOf(tickNanos))
+                .longValueExact();
+            shift = DIVIDEND_BITS + log - Long.SIZE;
+        }
+
+        Instant now = Instant.now();
+        origin = System.nanoTime();
+        originSinceEpoch = Duration.between(epoch, now).toNanos();
     }
 
     @Override
     public long getTicks() {
-        return offset + elapsed();
+        return divide(originSinceEpoch + (System.nanoTime() - origin));
     }
 
     @Override
     public Duration getTickDuration() {
-        return Duration.ofMillis(1);
+        return tickDuration;
     }
 
     @Override
@@ -43,10 +96,34 @@ public class MonotonicTimeSource implements TimeSource {
         return epoch;
     }
 
+    @Override
+    public long nanosUntilTick(long tick) {
+        // The tick starts when nanoTime() reaches this value, see getTicks()
+        long tickStart = origin + (tick * tickNanos - originSinceEpoch);
+        return Math.max(0, tickStart - System.nanoTime());
+    }
+
+    /**
+     * Divides the given nanoseconds by the tick duration, rounding down.
+     *
+     * @param nanos the nanoseconds
+     * @return the ticks
+     */
+    long divide(long nanos) {
+        if (nanos >>> DIVIDEND_BITS != 0) {
+            // Negative, or too large for the multiplication
+            return Math.floorDiv(nanos, tickNanos);
+        }
+        if (multiplier == 0) {
+            return nanos >>> shift;
+        }
+        return Math.multiplyHigh(nanos, multiplier) >>> shift;
+    }
+
     /**
      * Creates a time source with default settings.
      * <p>
-     * Uses 2020-01-01T00:00:00Z as epoch.
+     * Uses 2020-01-01T00:00:00Z as epoch and a tick duration of 1 millisecond.
      *
      * @return time source
      */
@@ -55,15 +132,11 @@ public class MonotonicTimeSource implements TimeSource {
         return new MonotonicTimeSource(Instant.ofEpochMilli(1577836800000L));
     }
 
-    private long elapsed() {
-        // Calculate elapsed time since creation of this time source in milliseconds
-        return (System.nanoTime() / 1_000_000) - start;
-    }
-
     @Override
     public String toString() {
         return "MonotonicTimeSource{" +
             "epoch=" + epoch +
+            ", tickDuration=" + tickDuration +
             '}';
     }
 }
@@ -29,4 +29,19 @@ public interface TimeSource {
      * @return the epoch
      */
     Instant getEpoch();
+
+    /**
+     * Returns the nanoseconds until the clock reaches the given tick, or 0 if it already has.
+     * <p>
+     * The default implementation doesn't know how far the current tick has progressed and assumes that it has just
+     * started, so the result is an upper bound which is off by less than one tick. Implementations which know the exact
+     * time should override this method, so that waiting for the next tick is precise.
+     *
+     * @param tick the tick
+     * @return the nanoseconds until the tick
+     */
+    default long nanosUntilTick(long tick) {
+        long ticks = getTicks();
+        return tick > ticks ? (tick - ticks) * getTickDuration().toNanos() : 0;
+    }
 }
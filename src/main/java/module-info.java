@@ -4,8 +4,16 @@
  * @author Moritz Halbritter
  */
 module de.mkammerer.snowflakeid {
+    requires static jdk.jfr;
+
     exports de.mkammerer.snowflakeid;
     exports de.mkammerer.snowflakeid.options;
     exports de.mkammerer.snowflakeid.time;
     exports de.mkammerer.snowflakeid.structure;
+    exports de.mkammerer.snowflakeid.decoder;
+    exports de.mkammerer.snowflakeid.pool;
+    exports de.mkammerer.snowflakeid.metrics;
+    exports de.mkammerer.snowflakeid.codec;
+    exports de.mkammerer.snowflakeid.set;
+    exports de.mkammerer.snowflakeid.partition;
 }
\ No newline at end of file
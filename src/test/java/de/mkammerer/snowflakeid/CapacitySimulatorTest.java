@@ -0,0 +1,171 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class CapacitySimulatorTest {
+    // Twice the sequence ids of the default structure within the first millisecond, on a single thread
+    private static final CapacitySimulator.Load BURST = CapacitySimulator.Load.trace(Duration.ofMillis(1), new long[]{8192}, 1);
+
+    @Test
+    public void no_overflows_below_capacity() {
+        CapacitySimulator sut = CapacitySimulator.createDefault();
+
+        CapacitySimulator.Result result = sut.run(CapacitySimulator.Load.poisson(100_000, 4, Duration.ofSeconds(1), 1));
+
+        assertThat(result.getRequests()).isBetween(99_000L, 101_000L);
+        assertThat(result.getIdsIssued()).isEqualTo(result.getRequests());
+        assertThat(result.getSequenceOverflows()).isZero();
+        assertThat(result.getStallPercentile(100)).isZero();
+        // About 100 requests per tick on average, Poisson peaks are higher
+        assertThat(result.getHeadroom()).isGreaterThan(10);
+    }
+
+    @Test
+    public void spin_wait_stalls_until_next_tick() {
+        CapacitySimulator sut = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), Options.createDefault());
+
+        CapacitySimulator.Result result = sut.run(BURST);
+
+        assertThat(result.getIdsIssued()).isEqualTo(8192);
+        assertThat(result.getFailures()).isZero();
+        assertThat(result.getSequenceOverflows()).isEqualTo(1);
+        assertThat(result.getTicksWithOverflow()).isEqualTo(1);
+        // Request 4097 arrives after half a millisecond and waits for the next tick, the others queue behind it
+        assertThat(result.getMaxStall()).isEqualTo(Duration.ofNanos(500_000));
+        assertThat(result.getStallPercentile(50)).isZero();
+        assertThat(result.getStallPercentile(99)).isBetween(Duration.ofNanos(400_000), Duration.ofNanos(500_000));
+        assertThat(result.getSimulatedDuration()).isEqualTo(Duration.ofMillis(1));
+        assertThat(result.getPeakIdsPerTick()).isEqualTo(4097);
+        assertThat(result.getHeadroom()).isLessThan(1);
+    }
+
+    @Test
+    public void sleep_stalls_for_a_tick() {
+        CapacitySimulator sut = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), new Options(Options.SequenceOverflowStrategy.SLEEP));
+
+        CapacitySimulator.Result result = sut.run(BURST);
+
+        assertThat(result.getIdsIssued()).isEqualTo(8192);
+        assertThat(result.getMaxStall()).isEqualTo(Duration.ofMillis(1));
+    }
+
+    @Test
+    public void throw_exception_fails_requests() {
+        CapacitySimulator sut = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+
+        CapacitySimulator.Result result = sut.run(BURST);
+
+        assertThat(result.getRequests()).isEqualTo(8192);
+        assertThat(result.getIdsIssued()).isEqualTo(4096);
+        assertThat(result.getFailures()).isEqualTo(4096);
+        assertThat(result.getSequenceOverflows()).isEqualTo(4096);
+        assertThat(result.getTicksWithOverflow()).isEqualTo(1);
+        assertThat(result.getMaxStall()).isZero();
+    }
+
+    @Test
+    public void borrow_drifts_instead_of_stalling() {
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(2));
+        CapacitySimulator sut = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), options);
+
+        CapacitySimulator.Result result = sut.run(BURST);
+
+        assertThat(result.getIdsIssued()).isEqualTo(8192);
+        assertThat(result.getSequenceOverflows()).isZero();
+        assertThat(result.getMaxStall()).isZero();
+        assertThat(result.getMaxDrift()).isEqualTo(Duration.ofMillis(1));
+        assertThat(result.getMeanDrift()).isEqualTo(Duration.ofNanos(500_000));
+    }
+
+    @Test
+    public void borrow_stalls_at_drift_limit() {
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(1));
+        CapacitySimulator sut = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), options);
+
+        CapacitySimulator.Result result = sut.run(CapacitySimulator.Load.trace(Duration.ofMillis(1), new long[]{3 * 4096}, 1));
+
+        assertThat(result.getIdsIssued()).isEqualTo(3 * 4096);
+        assertThat(result.getSequenceOverflows()).isEqualTo(1);
+        assertThat(result.getMaxDrift()).isEqualTo(Duration.ofMillis(1));
+        // Request 8193 arrives after two thirds of a millisecond and waits for the clock to reach tick 1
+        assertThat(result.getMaxStall()).isEqualTo(Duration.ofNanos(1_000_000 - 666_666));
+    }
+
+    @Test
+    public void shorter_ticks_increase_capacity() {
+        CapacitySimulator.Load load = CapacitySimulator.Load.poisson(10_000_000, 8, Duration.ofMillis(100), 1);
+
+        CapacitySimulator.Result millis = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofMillis(1), Options.createDefault()).run(load);
+        CapacitySimulator.Result micros = CapacitySimulator.createCustom(Structure.createDefault(), Duration.ofNanos(100_000), Options.createDefault()).run(load);
+
+        assertThat(millis.getSequenceOverflows()).isPositive();
+        assertThat(millis.getHeadroom()).isLessThan(1);
+        assertThat(micros.getSequenceOverflows()).isZero();
+        assertThat(micros.getHeadroom()).isGreaterThan(1);
+    }
+
+    @Test
+    public void bursts_overflow() {
+        CapacitySimulator sut = CapacitySimulator.createDefault();
+
+        CapacitySimulator.Result result = sut.run(CapacitySimulator.Load.bursty(1_000_000, 10_000_000, Duration.ofMillis(5), Duration.ofMillis(100), 4, Duration.ofSeconds(1), 1));
+
+        assertThat(result.getRequests()).isBetween(1_300_000L, 1_500_000L);
+        // Every tick of the 10 bursts overflows, and so do the ticks which work off the backlog of a burst
+        assertThat(result.getTicksWithOverflow()).isBetween(50L, 200L);
+        assertThat(result.getStallPercentile(50)).isZero();
+        assertThat(result.getMaxStall()).isGreaterThan(Duration.ofMillis(1));
+    }
+
+    @Test
+    public void is_deterministic() {
+        CapacitySimulator sut = CapacitySimulator.createDefault();
+        CapacitySimulator.Load load = CapacitySimulator.Load.bursty(1_000_000, 10_000_000, Duration.ofMillis(5), Duration.ofMillis(100), 4, Duration.ofMillis(200), 42);
+
+        assertThat(sut.run(load).toString()).isEqualTo(sut.run(load).toString());
+    }
+
+    @Test
+    public void trace_spreads_requests() {
+        CapacitySimulator.Load load = CapacitySimulator.Load.trace(Duration.ofMillis(1), new long[]{4, 0, 2}, 2);
+
+        assertThat(arrivals(load.arrivals(0))).containsExactly(0L, 500_000L, 2_000_000L);
+        assertThat(arrivals(load.arrivals(1))).containsExactly(250_000L, 750_000L, 2_500_000L);
+    }
+
+    @Test
+    public void validates_arguments() {
+        assertThatThrownBy(() -> CapacitySimulator.createCustom(Structure.createDefault(), Duration.ZERO, Options.createDefault()))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("tickDuration");
+        assertThatThrownBy(() -> CapacitySimulator.Load.poisson(-1, 1, Duration.ofSeconds(1), 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("idsPerSecond");
+        assertThatThrownBy(() -> CapacitySimulator.Load.poisson(1, 0, Duration.ofSeconds(1), 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("threads");
+        assertThatThrownBy(() -> CapacitySimulator.Load.bursty(1, 1, Duration.ofSeconds(2), Duration.ofSeconds(1), 1, Duration.ofSeconds(1), 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("burstLength");
+        assertThatThrownBy(() -> CapacitySimulator.Load.trace(Duration.ofMillis(1), new long[]{-1}, 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("idsPerInterval");
+    }
+
+    private static long[] arrivals(LongSupplier supplier) {
+        long[] result = new long[0];
+        long arrival;
+        while ((arrival = supplier.getAsLong()) != Long.MAX_VALUE) {
+            result = Arrays.copyOf(result, result.length + 1);
+            result[result.length - 1] = arrival;
+        }
+        return result;
+    }
+}
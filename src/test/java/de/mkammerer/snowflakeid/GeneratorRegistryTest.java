@@ -0,0 +1,144 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class GeneratorRegistryTest {
+    private final MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 100);
+
+    @Test
+    public void keys_have_independent_sequences() {
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(3, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ofSeconds(1));
+
+        long first = sut.next(1);
+        assertThat(sut.next(1)).isEqualTo(first + 1);
+        assertThat(sut.next(2)).isEqualTo(first);
+        assertThat(first).isEqualTo((100L << 22) | (3 << 12));
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void creates_many_generators() {
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ofSeconds(1));
+
+        for (long key = 0; key < 100_000; key++) {
+            assertThat(sut.next(key)).isEqualTo(100L << 22);
+        }
+        for (long key = 0; key < 100_000; key++) {
+            assertThat(sut.next(key)).isEqualTo((100L << 22) + 1);
+        }
+        assertThat(sut.size()).isEqualTo(100_000);
+    }
+
+    @Test
+    public void evicts_idle_generators() {
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ofMillis(10));
+        sut.next(1);
+        mockTimeSource.setTicks(105);
+        sut.next(2);
+
+        mockTimeSource.setTicks(111);
+        assertThat(sut.evictIdle()).isEqualTo(1);
+        assertThat(sut.size()).isEqualTo(1);
+        // Key 2 has been used within the idle timeout
+        assertThat(sut.next(2)).isEqualTo(111L << 22);
+    }
+
+    @Test
+    public void evicts_idle_generators_when_full() {
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ofMillis(10));
+        for (long key = 0; key < 100_000; key++) {
+            sut.next(key);
+        }
+
+        mockTimeSource.setTicks(200);
+        for (long key = 100_000; key < 200_000; key++) {
+            sut.next(key);
+        }
+
+        assertThat(sut.size()).isLessThan(200_000);
+    }
+
+    @Test
+    public void recreated_generators_dont_reissue_ids() {
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(0, mockTimeSource, Structure.createDefault(), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION), Duration.ofMillis(10));
+        long id = sut.next(1);
+        mockTimeSource.setTicks(200);
+        assertThat(sut.evictIdle()).isEqualTo(1);
+
+        // The clock jumps back to the tick of the evicted generator
+        mockTimeSource.setTicks(100);
+        assertThatThrownBy(() -> sut.next(1)).isInstanceOf(IllegalStateException.class).hasMessage("Sequence overflow");
+
+        mockTimeSource.setTicks(101);
+        assertThat(sut.next(1)).isGreaterThan(id);
+    }
+
+    @Test
+    public void generate_unique_ids_per_key() throws ExecutionException, InterruptedException {
+        int workers = 8;
+        int idsPerWorker = 50_000;
+        int keys = 100;
+
+        GeneratorRegistry sut = GeneratorRegistry.createCustom(1, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault(), Duration.ofMillis(1));
+        ExecutorService executorService = Executors.newFixedThreadPool(workers + 1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                int worker = i;
+                futures.add(executorService.submit(() -> {
+                    long[] ids = new long[idsPerWorker];
+                    for (int j = 0; j < idsPerWorker; j++) {
+                        ids[j] = sut.next((worker + j) % keys);
+                    }
+                    return ids;
+                }));
+            }
+            Future<?> evictor = executorService.submit(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sut.evictIdle();
+                }
+            });
+
+            List<Set<Long>> idsPerKey = new ArrayList<>();
+            for (int i = 0; i < keys; i++) {
+                idsPerKey.add(new HashSet<>());
+            }
+            for (int worker = 0; worker < workers; worker++) {
+                long[] ids = futures.get(worker).get();
+                for (int j = 0; j < ids.length; j++) {
+                    if (!idsPerKey.get((worker + j) % keys).add(ids[j])) {
+                        fail(ids[j] + " is a duplicate");
+                    }
+                }
+            }
+            evictor.cancel(true);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void validates_arguments() {
+        assertThatThrownBy(() -> GeneratorRegistry.createCustom(1024, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ofSeconds(1))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> GeneratorRegistry.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault(), Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
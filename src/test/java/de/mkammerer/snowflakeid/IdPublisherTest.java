@@ -0,0 +1,124 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdPublisherTest {
+    private final MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+
+    @Test
+    public void emits_requested_ids() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sut.publisher(4).subscribe(subscriber);
+
+        subscriber.subscription.request(3);
+        assertThat(subscriber.ids).hasSize(3);
+        subscriber.subscription.request(7);
+        assertThat(subscriber.ids).hasSize(10).isSorted().doesNotHaveDuplicates();
+        // The last chunk has been reserved exactly, no ids are lost
+        assertThat(sut.next()).isEqualTo(subscriber.ids.get(9) + 1);
+    }
+
+    @Test
+    public void honors_demand_requested_in_on_next() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(Long item) {
+                super.onNext(item);
+                if (ids.size() < 100) {
+                    subscription.request(1);
+                }
+            }
+        };
+        sut.publisher().subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.ids).hasSize(100).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void stops_after_cancel() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(Long item) {
+                super.onNext(item);
+                if (ids.size() == 5) {
+                    subscription.cancel();
+                }
+            }
+        };
+        sut.publisher().subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.ids).hasSize(5);
+        assertThat(subscriber.error).isNull();
+    }
+
+    @Test
+    public void signals_generator_failures() {
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sut.publisher().subscribe(subscriber);
+
+        subscriber.subscription.request(3);
+
+        assertThat(subscriber.ids).hasSize(2);
+        assertThat(subscriber.error).isInstanceOf(IllegalStateException.class).hasMessageContaining("Sequence overflow");
+        subscriber.subscription.request(1);
+        assertThat(subscriber.ids).hasSize(2);
+    }
+
+    @Test
+    public void signals_invalid_requests() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        sut.publisher().subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.ids).isEmpty();
+        assertThat(subscriber.error).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Long> {
+        final List<Long> ids = new ArrayList<>();
+        Flow.Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Long item) {
+            ids.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
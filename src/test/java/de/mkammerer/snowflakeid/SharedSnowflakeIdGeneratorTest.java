@@ -0,0 +1,149 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class SharedSnowflakeIdGeneratorTest {
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    public void instances_share_state() throws IOException {
+        Path file = tempDir.resolve("state");
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SharedSnowflakeIdGenerator first = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        SharedSnowflakeIdGenerator second = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+
+        long id = first.next();
+        assertThat(second.next()).isEqualTo(id + 1);
+        assertThat(first.next()).isEqualTo(id + 2);
+    }
+
+    @Test
+    public void continues_after_reopen() throws IOException {
+        Path file = tempDir.resolve("state");
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        long id = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()).next();
+
+        SharedSnowflakeIdGenerator sut = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+
+        assertThat(sut.next()).isEqualTo(id + 1);
+    }
+
+    @Test
+    public void instances_generate_unique_ids_concurrently() throws Exception {
+        Path file = tempDir.resolve("state");
+        int instances = 4;
+        int idsPerInstance = 20_000;
+        // 10 sequence bits, provokes overflows
+        Structure structure = new Structure(43, 10, 10);
+        // Every instance has its own clock, which differ slightly
+        Options options = Options.createDefault().withClockRegressionStrategy(Options.ClockRegressionStrategy.CONTINUE, Duration.ofMillis(100));
+
+        ExecutorService executorService = Executors.newFixedThreadPool(instances);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                // Every instance has its own mapping of the file, like a separate process
+                SharedSnowflakeIdGenerator sut = SharedSnowflakeIdGenerator.createCustom(file, 1, MonotonicTimeSource.createDefault(), structure, options);
+                futures.add(executorService.submit(() -> {
+                    long[] ids = new long[idsPerInstance];
+                    for (int j = 0; j < idsPerInstance; j++) {
+                        ids[j] = sut.next();
+                    }
+                    return ids;
+                }));
+            }
+
+            Set<Long> generatedIds = new HashSet<>(instances * idsPerInstance);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int j = 0; j < ids.length; j++) {
+                    if (j > 0) {
+                        assertThat(ids[j]).isGreaterThan(ids[j - 1]);
+                    }
+                    if (!generatedIds.add(ids[j])) {
+                        fail(ids[j] + " is a duplicate");
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void refuses_other_configuration() throws IOException {
+        Path file = tempDir.resolve("state");
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+
+        assertThatThrownBy(() -> SharedSnowflakeIdGenerator.createCustom(file, 4, mockTimeSource, Structure.createDefault(), Options.createDefault()))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("generator id");
+        assertThatThrownBy(() -> SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, new Structure(45, 6, 12), Options.createDefault()))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("structure");
+    }
+
+    @Test
+    public void detects_corrupted_file() throws IOException {
+        Path file = tempDir.resolve("state");
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()).next();
+
+        byte[] content = Files.readAllBytes(file);
+        content[26] ^= 1;
+        Files.write(file, content);
+        assertThatThrownBy(() -> SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("corrupted");
+
+        Files.write(file, new byte[10]);
+        assertThatThrownBy(() -> SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("corrupted");
+    }
+
+    @Test
+    public void initializes_zero_filled_file() throws IOException {
+        // Left by a process which died before writing the header
+        Path file = tempDir.resolve("state");
+        Files.write(file, new byte[128]);
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+
+        SharedSnowflakeIdGenerator sut = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        long id = sut.next();
+
+        SharedSnowflakeIdGenerator reopened = SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        assertThat(reopened.next()).isGreaterThan(id);
+    }
+
+    @Test
+    public void detects_stale_file() throws IOException {
+        Path file = tempDir.resolve("state");
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()).next();
+
+        mockTimeSource.setTicks(500);
+        assertThatThrownBy(() -> SharedSnowflakeIdGenerator.createCustom(file, 3, mockTimeSource, Structure.createDefault(), Options.createDefault()))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("stale");
+    }
+}
@@ -1,23 +1,38 @@
 package de.mkammerer.snowflakeid;
 
+import de.mkammerer.snowflakeid.metrics.GeneratorMetrics;
 import de.mkammerer.snowflakeid.options.Options;
 import de.mkammerer.snowflakeid.structure.Structure;
 import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.CheckpointedTimeSource;
 import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -108,6 +123,113 @@ public class SnowflakeIdGeneratorTest {
         }).doesNotThrowAnyException();
     }
 
+    @Test
+    public void sequence_overflow_park() {
+        // We use 1 bit for the sequence, this should overflow pretty fast!
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.PARK));
+
+        long last = -1;
+        for (int i = 0; i < 10; i++) {
+            long id = sut.next();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+    }
+
+    @Test
+    public void sequence_overflow_adaptive() {
+        // We use 1 bit for the sequence, this should overflow pretty fast!
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.ADAPTIVE));
+
+        long last = -1;
+        for (int i = 0; i < 1000; i++) {
+            long id = sut.next();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+    }
+
+    @Test
+    public void adaptive_parks_after_spinning() throws Exception {
+        // The clock doesn't move, so the generator waits forever after 2 ids
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.ADAPTIVE).withMetricsEnabled(true));
+        sut.next();
+        sut.next();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            AtomicReference<Thread> thread = new AtomicReference<>();
+            Future<Long> future = executorService.submit(() -> {
+                thread.set(Thread.currentThread());
+                return sut.next();
+            });
+            // The spin and yield windows are at most one tick
+            Thread.sleep(50);
+
+            assertThat(LockSupport.getBlocker(thread.get())).isInstanceOf(SequenceOverflowHandler.class);
+            mockTimeSource.setTicks(2);
+            assertThat(future.get()).isEqualTo(2L << 13);
+            assertThat(sut.getMetrics().getSpinIterations()).isPositive();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Options.SequenceOverflowStrategy.class, names = {"SLEEP", "PARK", "ADAPTIVE"})
+    public void waiting_propagates_interrupt(Options.SequenceOverflowStrategy strategy) {
+        // The clock doesn't move, so the generator waits forever after 2 ids
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(strategy));
+        sut.next();
+        sut.next();
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("Interrupted");
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void waiting_does_not_hold_the_lock() throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.PARK));
+        sut.next();
+        sut.next();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executorService.submit(() -> {
+                    synchronized (threads) {
+                        threads.add(Thread.currentThread());
+                    }
+                    return sut.next();
+                }));
+            }
+            Thread.sleep(50);
+
+            // Both threads park in the overflow handler, none of them is blocked on the lock
+            synchronized (threads) {
+                assertThat(threads).hasSize(2);
+                for (Thread thread : threads) {
+                    assertThat(LockSupport.getBlocker(thread)).isInstanceOf(SequenceOverflowHandler.class);
+                }
+            }
+
+            mockTimeSource.setTicks(2);
+            assertThat(futures.get(0).get(5, TimeUnit.SECONDS)).isNotEqualTo(futures.get(1).get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     @Test
     public void protect_against_negative_ticks() {
         MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, -1);
@@ -141,7 +263,7 @@ public class SnowflakeIdGeneratorTest {
         try {
             List<Future<Long>> futures = new ArrayList<>();
             for (int i = 0; i < ids; i++) {
-                futures.add(executorService.submit(sut::next));
+                futures.add(executorService.submit(() -> sut.next()));
             }
 
             Set<Long> generatedIds = new HashSet<>(ids);
@@ -156,4 +278,672 @@ public class SnowflakeIdGeneratorTest {
             executorService.shutdownNow();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void lock_free_generate_unique() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault().withConcurrencyStrategy(Options.ConcurrencyStrategy.LOCK_FREE));
+        int count = 10_000;
+
+        Set<Long> ids = new HashSet<>(count);
+        long lastId = -1;
+        for (int i = 0; i < count; i++) {
+            long id = sut.next();
+
+            assertThat(id).isGreaterThan(lastId);
+            lastId = id;
+            if (!ids.add(id)) {
+                fail(id + " is a duplicate");
+            }
+        }
+    }
+
+    @Test
+    public void lock_free_sequence_overflow_exception() {
+        // We use 1 bit for the sequence, this should overflow pretty fast!
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION).withConcurrencyStrategy(Options.ConcurrencyStrategy.LOCK_FREE));
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 10000; i++) {
+                sut.next();
+            }
+        }).isInstanceOf(IllegalStateException.class).hasMessageContaining("Sequence overflow");
+    }
+
+    @Test
+    public void lock_free_protect_against_clock_moved_backwards() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 2);
+
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault().withConcurrencyStrategy(Options.ConcurrencyStrategy.LOCK_FREE));
+        sut.next();
+
+        mockTimeSource.setTicks(1);
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("moved backwards");
+    }
+
+    @Test
+    public void lock_free_is_thread_safe() throws ExecutionException, InterruptedException {
+        int workers = 100;
+        int ids = 100_000;
+
+        // Use a small sequence to provoke overflows under contention
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(1, MonotonicTimeSource.createDefault(), new Structure(45, 10, 8), Options.createDefault().withConcurrencyStrategy(Options.ConcurrencyStrategy.LOCK_FREE));
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < ids; i++) {
+                futures.add(executorService.submit(() -> sut.next()));
+            }
+
+            Set<Long> generatedIds = new HashSet<>(ids);
+            for (Future<Long> future : futures) {
+                Long id = future.get();
+                if (!generatedIds.add(id)) {
+                    fail(id + " is a duplicate");
+                }
+            }
+            assertThat(generatedIds).hasSize(ids);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void bulk_is_identical_to_next(Options.ConcurrencyStrategy concurrencyStrategy) {
+        MockTimeSource bulkTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        MockTimeSource singleTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        Options options = Options.createDefault().withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator bulk = SnowflakeIdGenerator.createCustom(3, bulkTimeSource, Structure.createDefault(), options);
+        SnowflakeIdGenerator single = SnowflakeIdGenerator.createCustom(3, singleTimeSource, Structure.createDefault(), options);
+
+        long[] ids = new long[110];
+        bulk.next(ids, 10, 100);
+        bulkTimeSource.setTicks(6);
+        bulk.next(ids, 0, 10);
+
+        for (int i = 10; i < 110; i++) {
+            assertThat(ids[i]).isEqualTo(single.next());
+        }
+        singleTimeSource.setTicks(6);
+        for (int i = 0; i < 10; i++) {
+            assertThat(ids[i]).isEqualTo(single.next());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void specialized_is_identical_to_generic(Options.ConcurrencyStrategy concurrencyStrategy) {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        // 2 ids per tick, borrows up to 2 ticks ahead and continues on small clock regressions
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(2))
+            .withClockRegressionStrategy(Options.ClockRegressionStrategy.CONTINUE, Duration.ofMillis(2))
+            .withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator generic = SnowflakeIdGenerator.createCustom(3, mockTimeSource, new Structure(50, 12, 1), options);
+        SnowflakeIdGenerator specialized = SnowflakeIdGenerator.createSpecialized(3, mockTimeSource, new Structure(50, 12, 1), options);
+
+        for (long ticks : new long[]{5, 5, 5, 6, 9, 9, 9, 8, 12, 12, 11, 20}) {
+            mockTimeSource.setTicks(ticks);
+            assertThat(specialized.next()).isEqualTo(generic.next());
+        }
+        mockTimeSource.setTicks(-1);
+        assertThatThrownBy(specialized::next).isInstanceOf(IllegalStateException.class);
+        mockTimeSource.setTicks(10);
+        assertThatThrownBy(specialized::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("backwards");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void specialized_is_thread_safe(Options.ConcurrencyStrategy concurrencyStrategy) throws ExecutionException, InterruptedException {
+        int workers = 8;
+        int idsPerWorker = 20_000;
+
+        // Small sequence, provokes overflows
+        Options options = Options.createDefault().withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createSpecialized(1, MonotonicTimeSource.createDefault(), new Structure(43, 10, 10), options);
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(() -> {
+                    long[] ids = new long[idsPerWorker];
+                    for (int j = 0; j < idsPerWorker; j++) {
+                        ids[j] = sut.next();
+                    }
+                    return ids;
+                }));
+            }
+
+            Set<Long> generatedIds = new HashSet<>(workers * idsPerWorker);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int j = 0; j < ids.length; j++) {
+                    if (j > 0) {
+                        assertThat(ids[j]).isGreaterThan(ids[j - 1]);
+                    }
+                    if (!generatedIds.add(ids[j])) {
+                        fail(ids[j] + " is a duplicate");
+                    }
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void specialized_supports_every_layout() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0);
+        for (Structure structure : new Structure[]{Structure.createDefault(), new Structure(50, 12, 1), new Structure(45, 10, 8), new Structure(31, 1, 31)}) {
+            long generatorId = structure.maxGenerators() - 1;
+            SnowflakeIdGenerator generic = SnowflakeIdGenerator.createCustom(generatorId, mockTimeSource, structure, Options.createDefault());
+            SnowflakeIdGenerator specialized = SnowflakeIdGenerator.createSpecialized(generatorId, mockTimeSource, structure, Options.createDefault());
+
+            // Last tick before the wraparound
+            for (long ticks : new long[]{0, 0, 1, 7, structure.maxTimestamps() - 1}) {
+                mockTimeSource.setTicks(ticks);
+                assertThat(specialized.next()).isEqualTo(generic.next());
+            }
+        }
+    }
+
+    @Test
+    public void assembler_only_handles_common_cases() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        // 2 ids per tick, generator 3
+        IdAssembler sut = IdAssembler.of(new Structure(50, 12, 1), 3, mockTimeSource);
+        long first = (5L << 13) | (3 << 1);
+
+        assertThat(sut.next(mockTimeSource, -1)).isEqualTo(first);
+        assertThat(sut.next(mockTimeSource, first)).isEqualTo(first + 1);
+        // Sequence overflow
+        assertThat(sut.next(mockTimeSource, first + 1)).isEqualTo(IdAssembler.SLOW_PATH);
+        mockTimeSource.setTicks(6);
+        assertThat(sut.next(mockTimeSource, first + 1)).isEqualTo((6L << 13) | (3 << 1));
+        // Clock regression and negative ticks
+        mockTimeSource.setTicks(4);
+        assertThat(sut.next(mockTimeSource, first)).isEqualTo(IdAssembler.SLOW_PATH);
+        mockTimeSource.setTicks(-1);
+        assertThat(sut.next(mockTimeSource, -1)).isEqualTo(IdAssembler.SLOW_PATH);
+    }
+
+    @Test
+    public void specialized_layouts_are_generated_once() {
+        MonotonicTimeSource timeSource = MonotonicTimeSource.createDefault();
+
+        assertThat(IdAssembler.of(Structure.createDefault(), 1, timeSource)).isSameAs(IdAssembler.of(Structure.createDefault(), 1, timeSource));
+        assertThat(IdAssembler.of(Structure.createDefault(), 1, timeSource)).isNotSameAs(IdAssembler.of(Structure.createDefault(), 2, timeSource));
+        assertThat(IdAssembler.of(Structure.createDefault(), 1, timeSource)).isNotSameAs(IdAssembler.of(Structure.createDefault(), 1, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void bulk_spans_ticks(Options.ConcurrencyStrategy concurrencyStrategy) {
+        // 8 sequence ids per tick, the bulk request has to span multiple ticks
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, MonotonicTimeSource.createDefault(), new Structure(50, 10, 3), Options.createDefault().withConcurrencyStrategy(concurrencyStrategy));
+
+        long[] ids = new long[100];
+        sut.next(ids, 0, ids.length);
+
+        Set<Long> unique = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                assertThat(ids[i]).isGreaterThan(ids[i - 1]);
+            }
+            unique.add(ids[i]);
+        }
+        assertThat(unique).hasSize(ids.length);
+        assertThat(sut.next()).isGreaterThan(ids[ids.length - 1]);
+    }
+
+    @Test
+    public void bulk_fills_buffers() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createDefault(0);
+
+        LongBuffer heap = LongBuffer.allocate(20);
+        heap.position(5);
+        sut.next(heap);
+        assertThat(heap.position()).isEqualTo(20);
+        assertThat(heap.get(4)).isZero();
+        assertThat(heap.get(5)).isPositive();
+
+        LongBuffer direct = ByteBuffer.allocateDirect(20 * Long.BYTES).asLongBuffer();
+        sut.next(direct);
+        assertThat(direct.position()).isEqualTo(20);
+        assertThat(direct.get(0)).isGreaterThan(heap.get(19));
+        for (int i = 1; i < 20; i++) {
+            assertThat(direct.get(i)).isGreaterThan(direct.get(i - 1));
+        }
+    }
+
+    @Test
+    public void bulk_buffer_position_marks_generated_ids_on_failure() {
+        // 4 ids per tick, then the sequence overflows
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1), new Structure(41, 20, 2), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+
+        LongBuffer heap = LongBuffer.allocate(10);
+        assertThatThrownBy(() -> sut.next(heap)).isInstanceOf(IllegalStateException.class);
+        assertThat(heap.position()).isEqualTo(4);
+        assertThat(heap.get(3)).isGreaterThan(heap.get(0));
+    }
+
+    @Test
+    public void bulk_checks_bounds() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createDefault(0);
+
+        assertThatThrownBy(() -> sut.next(new long[10], 5, 6)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void sequence_overflow_borrow(Options.ConcurrencyStrategy concurrencyStrategy) throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        // 2 ids per tick, may run 3 ticks ahead of the clock
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(3)).withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), options);
+
+        // Ticks 5, 6, 7 and 8 can be used without waiting
+        long last = -1;
+        for (int i = 0; i < 8; i++) {
+            long id = sut.next();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+        assertThat(last >> 13).isEqualTo(8);
+        assertThat(sut.getDrift()).isEqualTo(Duration.ofMillis(3));
+
+        // Drift limit is exceeded, next() has to wait for the clock
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> future = executorService.submit(() -> sut.next());
+            Thread.sleep(50);
+            assertThat(future).isNotDone();
+
+            mockTimeSource.setTicks(6);
+            assertThat(future.get(5, TimeUnit.SECONDS) >> 13).isEqualTo(9);
+            assertThat(sut.getDrift()).isEqualTo(Duration.ofMillis(3));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void borrow_tolerates_clock_behind_last_timestamp() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(3));
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), options);
+
+        for (int i = 0; i < 8; i++) {
+            sut.next();
+        }
+        // Clock is 2 ticks behind, but within the drift limit
+        mockTimeSource.setTicks(6);
+        assertThat(sut.getDrift()).isEqualTo(Duration.ofMillis(2));
+        assertThat(sut.next() >> 13).isEqualTo(9);
+
+        // Clock is now 5 ticks behind, which is a real clock regression
+        mockTimeSource.setTicks(4);
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("moved backwards");
+    }
+
+    @Test
+    public void no_drift_without_borrowing() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createDefault(0);
+        sut.next();
+
+        assertThat(sut.getDrift()).isEqualTo(Duration.ZERO);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void clock_regression_wait(Options.ConcurrencyStrategy concurrencyStrategy) throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        Options options = Options.createDefault().withClockRegressionStrategy(Options.ClockRegressionStrategy.WAIT, Duration.ofMillis(5)).withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), options);
+        long first = sut.next();
+
+        mockTimeSource.setTicks(8);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> future = executorService.submit(() -> sut.next());
+            Thread.sleep(50);
+            assertThat(future).isNotDone();
+
+            mockTimeSource.setTicks(10);
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo(first + 1);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Options.ClockRegressionStrategy.class, names = "THROW_EXCEPTION", mode = EnumSource.Mode.EXCLUDE)
+    public void clock_regression_above_tolerance_throws(Options.ClockRegressionStrategy strategy) {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        Options options = Options.createDefault().withClockRegressionStrategy(strategy, Duration.ofMillis(5));
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), options);
+        sut.next();
+
+        mockTimeSource.setTicks(4);
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("moved backwards");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void clock_regression_continue(Options.ConcurrencyStrategy concurrencyStrategy) {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        // 2 ids per tick
+        Options options = new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION).withClockRegressionStrategy(Options.ClockRegressionStrategy.CONTINUE, Duration.ofMillis(5)).withConcurrencyStrategy(concurrencyStrategy);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), options);
+        long first = sut.next();
+
+        // Uses the remaining sequence space of the last timestamp
+        mockTimeSource.setTicks(8);
+        assertThat(sut.next()).isEqualTo(first + 1);
+        // Sequence space is exhausted, overflow strategy is applied
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("Sequence overflow");
+
+        mockTimeSource.setTicks(11);
+        assertThat(sut.next() >> 13).isEqualTo(11);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void metrics_count_ids_and_overflows(Options.ConcurrencyStrategy concurrencyStrategy) {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        Options options = new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION).withConcurrencyStrategy(concurrencyStrategy).withMetricsEnabled(true);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), options);
+
+        sut.next();
+        sut.next(new long[2], 0, 1);
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class);
+
+        GeneratorMetrics metrics = sut.getMetrics();
+        assertThat(metrics.getIdsIssued()).isEqualTo(2);
+        assertThat(metrics.getSequenceOverflows()).isEqualTo(1);
+        assertThat(metrics.getClockRegressions()).isZero();
+    }
+
+    @Test
+    public void metrics_count_spin_iterations() throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        Options options = Options.createDefault().withMetricsEnabled(true).withJfrEventsEnabled(true);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), options);
+        sut.next();
+        sut.next();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> future = executorService.submit(() -> sut.next());
+            Thread.sleep(50);
+            mockTimeSource.setTicks(2);
+            future.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        GeneratorMetrics metrics = sut.getMetrics();
+        assertThat(metrics.getIdsIssued()).isEqualTo(3);
+        assertThat(metrics.getSequenceOverflows()).isEqualTo(1);
+        assertThat(metrics.getSpinIterations()).isPositive();
+    }
+
+    @Test
+    public void metrics_record_clock_regressions() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        Options options = Options.createDefault().withClockRegressionStrategy(Options.ClockRegressionStrategy.CONTINUE, Duration.ofMillis(5)).withMetricsEnabled(true);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), options);
+        sut.next();
+
+        // One regression, which lasts for three ids
+        mockTimeSource.setTicks(7);
+        sut.next();
+        sut.next();
+        mockTimeSource.setTicks(9);
+        sut.next();
+
+        GeneratorMetrics metrics = sut.getMetrics();
+        assertThat(metrics.getClockRegressions()).isEqualTo(1);
+        assertThat(metrics.getClockRegressionIds()).isEqualTo(3);
+        assertThat(metrics.getMaxClockRegressionTicks()).isEqualTo(3);
+
+        // The clock caught up and falls behind again
+        mockTimeSource.setTicks(11);
+        sut.next();
+        mockTimeSource.setTicks(10);
+        sut.next();
+
+        metrics = sut.getMetrics();
+        assertThat(metrics.getClockRegressions()).isEqualTo(2);
+        assertThat(metrics.getClockRegressionIds()).isEqualTo(4);
+
+        // Bulk generation counts every id
+        sut.next(new long[5], 0, 5);
+        assertThat(sut.getMetrics().getClockRegressionIds()).isEqualTo(9);
+    }
+
+    @Test
+    public void metrics_are_disabled_by_default() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createDefault(0);
+
+        assertThatThrownBy(sut::getMetrics).isInstanceOf(IllegalStateException.class).hasMessageContaining("disabled");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Options.ConcurrencyStrategy.class)
+    public void stream_is_identical_to_next(Options.ConcurrencyStrategy concurrencyStrategy) {
+        Options options = Options.createDefault().withConcurrencyStrategy(concurrencyStrategy);
+        MockTimeSource streamTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        MockTimeSource nextTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SnowflakeIdGenerator streamed = SnowflakeIdGenerator.createCustom(1, streamTimeSource, Structure.createDefault(), options);
+        SnowflakeIdGenerator single = SnowflakeIdGenerator.createCustom(1, nextTimeSource, Structure.createDefault(), options);
+
+        long[] ids = streamed.stream(100).limit(1000).toArray();
+
+        for (long id : ids) {
+            assertThat(id).isEqualTo(single.next());
+        }
+    }
+
+    @Test
+    public void stream_spans_ticks() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.BORROW));
+
+        long[] ids = sut.stream().limit(6).toArray();
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        assertThat(ids[5] >> 13).isEqualTo(3);
+    }
+
+    @Test
+    public void stream_throws_generator_failures() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+
+        assertThatThrownBy(() -> sut.stream().forEach(id -> {
+        })).isInstanceOf(IllegalStateException.class).hasMessageContaining("Sequence overflow");
+    }
+
+    @Test
+    public void stream_checks_chunk_size() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createDefault(0);
+
+        assertThatThrownBy(() -> sut.stream(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sut.publisher(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void try_next_doesnt_wait() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+
+        assertThat(sut.tryNext()).isEqualTo(1L << 13);
+        assertThat(sut.tryNext()).isEqualTo((1L << 13) + 1);
+        assertThat(sut.tryNext()).isEqualTo(SnowflakeIdGenerator.NO_ID);
+
+        mockTimeSource.setTicks(2);
+        assertThat(sut.tryNext()).isEqualTo(2L << 13);
+    }
+
+    @Test
+    public void next_async_completes_immediately_if_an_id_is_available() {
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1), Structure.createDefault(), Options.createDefault());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CompletableFuture<Long> future = sut.nextAsync(scheduler);
+
+            assertThat(future).isCompletedWithValue(1L << 22);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void next_async_waits_for_the_next_tick() throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), Options.createDefault());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(sut.nextAsync(scheduler));
+            }
+            assertThat(futures.get(1)).isCompleted();
+            assertThat(futures.get(2)).isNotDone();
+
+            mockTimeSource.setTicks(2);
+            assertThat(futures.get(3).get(5, TimeUnit.SECONDS)).isEqualTo((2L << 13) + 1);
+            assertThat(futures.get(4)).isNotDone();
+
+            mockTimeSource.setTicks(3);
+            assertThat(futures.get(4).get(5, TimeUnit.SECONDS)).isEqualTo(3L << 13);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void next_async_shares_a_single_wake_up() throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1) {
+            @Override
+            public long nanosUntilTick(long tick) {
+                // Long enough to add all waiters before the wake-up runs
+                return TimeUnit.MILLISECONDS.toNanos(100);
+            }
+        };
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        sut.next(new long[4096], 0, 4096);
+        AtomicInteger scheduled = new AtomicInteger();
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                scheduled.incrementAndGet();
+                return super.schedule(command, delay, unit);
+            }
+        };
+        try {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(sut.nextAsync(scheduler));
+            }
+            assertThat(scheduled).hasValue(1);
+
+            mockTimeSource.setTicks(2);
+            for (int i = 0; i < futures.size(); i++) {
+                assertThat(futures.get(i).get(5, TimeUnit.SECONDS)).isEqualTo((2L << 22) + i);
+            }
+            assertThat(scheduled).hasValue(1);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void next_async_serves_waiters_first() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), Options.createDefault());
+        List<Runnable> wakeUps = new ArrayList<>();
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                // Runs the wake-up when the test says so
+                wakeUps.add(command);
+                return null;
+            }
+        };
+        try {
+            sut.next();
+            sut.next();
+            CompletableFuture<Long> waiter = sut.nextAsync(scheduler);
+            assertThat(waiter).isNotDone();
+
+            // The next tick has ids, but the waiter comes first
+            mockTimeSource.setTicks(2);
+            CompletableFuture<Long> newcomer = sut.nextAsync(scheduler);
+            assertThat(newcomer).isNotDone();
+
+            assertThat(wakeUps).hasSize(1);
+            wakeUps.get(0).run();
+            assertThat(waiter).isCompletedWithValue(2L << 13);
+            assertThat(newcomer).isCompletedWithValue((2L << 13) + 1);
+
+            // Nobody waits anymore, so the fast path is used again
+            mockTimeSource.setTicks(3);
+            assertThat(sut.nextAsync(scheduler)).isCompletedWithValue(3L << 13);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void next_async_on_executor() throws Exception {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, mockTimeSource, new Structure(50, 12, 1), Options.createDefault());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            sut.next();
+            sut.next();
+            CompletableFuture<Long> future = sut.nextAsync(executor);
+            assertThat(future).isNotDone();
+
+            mockTimeSource.setTicks(2);
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo(2L << 13);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void next_async_fails_on_sequence_overflow_exception() {
+        // 2 ids per tick
+        SnowflakeIdGenerator sut = SnowflakeIdGenerator.createCustom(0, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1), new Structure(50, 12, 1), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+        sut.next();
+        sut.next();
+
+        assertThat(sut.nextAsync(Runnable::run)).failsWithin(Duration.ZERO)
+            .withThrowableOfType(ExecutionException.class)
+            .withCauseInstanceOf(IllegalStateException.class)
+            .withMessageContaining("Sequence overflow");
+    }
+
+    @Test
+    public void rejects_drift_beyond_half_the_checkpoint_lease(@TempDir Path tempDir) throws Exception {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        try (CheckpointedTimeSource timeSource = new CheckpointedTimeSource(delegate, tempDir.resolve("checkpoint"), Duration.ofMillis(100), Duration.ZERO)) {
+            Options options = new Options(Options.SequenceOverflowStrategy.BORROW);
+
+            SnowflakeIdGenerator.createCustom(0, timeSource, Structure.createDefault(), options.withMaxDrift(Duration.ofMillis(50)));
+            assertThatThrownBy(() -> SnowflakeIdGenerator.createCustom(0, timeSource, Structure.createDefault(), options.withMaxDrift(Duration.ofMillis(51))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("maxDrift");
+            // Without borrowing, the drift doesn't matter
+            SnowflakeIdGenerator.createCustom(0, timeSource, Structure.createDefault(), new Options(Options.SequenceOverflowStrategy.SPIN_WAIT).withMaxDrift(Duration.ofMillis(51)));
+        }
+    }
+}
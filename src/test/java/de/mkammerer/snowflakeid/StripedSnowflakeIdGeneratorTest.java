@@ -0,0 +1,135 @@
+package de.mkammerer.snowflakeid;
+
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class StripedSnowflakeIdGeneratorTest {
+    @Test
+    public void generate_unique_and_increasing_per_thread() throws ExecutionException, InterruptedException {
+        int workers = 16;
+        int idsPerWorker = 20_000;
+
+        // 8 stripes with 128 ids each per tick, provokes overflows
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createCustom(1, 8, MonotonicTimeSource.createDefault(), new Structure(43, 10, 10), Options.createDefault());
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(() -> {
+                    long[] ids = new long[idsPerWorker];
+                    for (int j = 0; j < idsPerWorker; j++) {
+                        ids[j] = sut.next();
+                    }
+                    return ids;
+                }));
+            }
+
+            Set<Long> generatedIds = new HashSet<>(workers * idsPerWorker);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int j = 0; j < ids.length; j++) {
+                    if (j > 0) {
+                        assertThat(ids[j]).isGreaterThan(ids[j - 1]);
+                    }
+                    if (!generatedIds.add(ids[j])) {
+                        fail(ids[j] + " is a duplicate");
+                    }
+                }
+            }
+            assertThat(generatedIds).hasSize(workers * idsPerWorker);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void encodes_stripe_in_sequence() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1);
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createCustom(0, 4, mockTimeSource, Structure.createDefault(), Options.createDefault());
+
+        long stripe = Thread.currentThread().getId() & 3;
+        long id = sut.next();
+
+        assertThat(sut.maxSequenceIdsPerStripe()).isEqualTo(1024);
+        assertThat(id & 4095).isEqualTo(stripe << 10);
+        assertThat(sut.next()).isEqualTo(id + 1);
+    }
+
+    @Test
+    public void sequence_overflow_exception() {
+        // 2 sequence bits, 2 stripes: every stripe has 2 ids per tick
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createCustom(0, 2, MonotonicTimeSource.createDefault(), new Structure(51, 10, 2), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 10000; i++) {
+                sut.next();
+            }
+        }).isInstanceOf(IllegalStateException.class).hasMessageContaining("Sequence overflow");
+    }
+
+    @Test
+    public void protect_against_clock_moved_backwards() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 2);
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createCustom(0, 4, mockTimeSource, Structure.createDefault(), Options.createDefault());
+        sut.next();
+
+        mockTimeSource.setTicks(1);
+        assertThatThrownBy(sut::next).isInstanceOf(IllegalStateException.class).hasMessageContaining("moved backwards");
+    }
+
+    @Test
+    public void stripes_must_be_power_of_two() {
+        assertThatThrownBy(() ->
+            StripedSnowflakeIdGenerator.createCustom(0, 3, MonotonicTimeSource.createDefault(), Structure.createDefault(), Options.createDefault())
+        ).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("stripes");
+    }
+
+    @Test
+    public void stripes_must_leave_room_for_a_counter() {
+        assertThatThrownBy(() ->
+            StripedSnowflakeIdGenerator.createCustom(0, 4, MonotonicTimeSource.createDefault(), new Structure(51, 10, 2), Options.createDefault())
+        ).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("stripes");
+    }
+
+    @Test
+    public void default_stripes_are_power_of_two() {
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createDefault(0);
+
+        assertThat(Integer.bitCount(sut.getStripes())).isEqualTo(1);
+        assertThat(sut.getStripes()).isGreaterThanOrEqualTo(Math.min(Runtime.getRuntime().availableProcessors(), 64));
+    }
+
+    @Test
+    public void sequence_overflow_borrow() {
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 5);
+        // 2 stripes, 2 ids per stripe and tick, may run 3 ticks ahead of the clock
+        Options options = new Options(Options.SequenceOverflowStrategy.BORROW).withMaxDrift(Duration.ofMillis(3));
+        StripedSnowflakeIdGenerator sut = StripedSnowflakeIdGenerator.createCustom(0, 2, mockTimeSource, new Structure(51, 10, 2), options);
+
+        long last = -1;
+        for (int i = 0; i < 8; i++) {
+            long id = sut.next();
+            assertThat(id).isGreaterThan(last);
+            last = id;
+        }
+        assertThat(last >> 12).isEqualTo(8);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,216 @@
+package de.mkammerer.snowflakeid.codec;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdSequenceCodecTest {
+    private static final Structure STRUCTURE = Structure.createDefault();
+
+    @ParameterizedTest
+    @EnumSource(IdSequenceCodec.Format.class)
+    public void round_trips_generated_ids(IdSequenceCodec.Format format) throws IOException {
+        long[] ids = generateIds(100_000, 50);
+        IdSequenceCodec sut = new IdSequenceCodec(STRUCTURE, format, 128);
+
+        ByteBuffer encoded = encode(sut, ids);
+
+        assertThat(decodeAll(encoded)).containsExactly(ids);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdSequenceCodec.Format.class)
+    public void round_trips_arbitrary_sorted_ids(IdSequenceCodec.Format format) throws IOException {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] ids = new long[10_000];
+        for (int i = 0; i < ids.length; i++) {
+            // Vary the magnitude, so that all bit widths are exercised
+            ids[i] = random.nextLong(Long.MAX_VALUE) >>> random.nextInt(63);
+        }
+        ids[0] = Long.MAX_VALUE;
+        ids[1] = 0;
+        Arrays.sort(ids);
+        IdSequenceCodec sut = new IdSequenceCodec(STRUCTURE, format, 100);
+
+        assertThat(decodeAll(encode(sut, ids))).containsExactly(ids);
+    }
+
+    @Test
+    public void packed_compresses_generated_ids() throws IOException {
+        long[] busy = generateIds(100_000, 50);
+        long[] sparse = generateIds(100_000, 1);
+        IdSequenceCodec sut = IdSequenceCodec.createDefault(STRUCTURE);
+
+        assertThat(encode(sut, busy).remaining()).isLessThan(busy.length * Long.BYTES / 6);
+        assertThat(encode(sut, sparse).remaining()).isLessThan(sparse.length * Long.BYTES / 6);
+    }
+
+    @Test
+    public void writes_to_output_streams() throws IOException {
+        long[] ids = generateIds(1000, 10);
+        IdSequenceCodec sut = IdSequenceCodec.createDefault(STRUCTURE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        IdSequenceEncoder encoder = sut.encoder(out);
+        encoder.add(ids, 0, ids.length);
+        encoder.finish();
+
+        assertThat(decodeAll(ByteBuffer.wrap(out.toByteArray()))).containsExactly(ids);
+        assertThat(out.toByteArray()).isEqualTo(toArray(encode(sut, ids)));
+    }
+
+    @Test
+    public void decodes_empty_sequence() throws IOException {
+        IdSequenceDecoder decoder = IdSequenceCodec.decoder(encode(IdSequenceCodec.createDefault(STRUCTURE)));
+
+        assertThat(decoder.hasNext()).isFalse();
+        assertThat(decoder.skipTo(0)).isFalse();
+        assertThatThrownBy(decoder::next).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    public void decodes_in_bulk() throws IOException {
+        long[] ids = generateIds(1000, 10);
+        IdSequenceDecoder decoder = IdSequenceCodec.decoder(encode(IdSequenceCodec.createDefault(STRUCTURE), ids));
+
+        long[] decoded = new long[1100];
+        assertThat(decoder.next(decoded, 0, 300)).isEqualTo(300);
+        assertThat(decoder.next(decoded, 300, 800)).isEqualTo(700);
+        assertThat(Arrays.copyOf(decoded, 1000)).containsExactly(ids);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdSequenceCodec.Format.class)
+    public void skips_to_id(IdSequenceCodec.Format format) throws IOException {
+        long[] ids = generateIds(10_000, 10);
+        IdSequenceDecoder decoder = IdSequenceCodec.decoder(encode(new IdSequenceCodec(STRUCTURE, format, 64), ids));
+
+        assertThat(decoder.skipTo(ids[5000])).isTrue();
+        assertThat(decoder.next()).isEqualTo(ids[5000]);
+        // Within the current block
+        assertThat(decoder.skipTo(ids[5010])).isTrue();
+        assertThat(decoder.next()).isEqualTo(ids[5010]);
+        // An id between two ids
+        assertThat(decoder.skipTo(ids[9000] + 1)).isTrue();
+        assertThat(decoder.next()).isGreaterThan(ids[9000]);
+        // Backwards doesn't move
+        assertThat(decoder.skipTo(ids[0])).isTrue();
+        assertThat(decoder.next()).isEqualTo(ids[9002]);
+
+        assertThat(decoder.skipTo(ids[9999] + 1)).isFalse();
+        assertThat(decoder.hasNext()).isFalse();
+    }
+
+    @Test
+    public void rejects_unsorted_ids() throws IOException {
+        IdSequenceEncoder encoder = IdSequenceCodec.createDefault(STRUCTURE).encoder(ByteBuffer.allocate(100));
+        encoder.add(10);
+
+        assertThatThrownBy(() -> encoder.add(9)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("sorted");
+        assertThatThrownBy(() -> IdSequenceCodec.createDefault(STRUCTURE).encoder(ByteBuffer.allocate(100)).add(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void detects_corrupted_data() throws IOException {
+        byte[] encoded = toArray(encode(IdSequenceCodec.createDefault(STRUCTURE), generateIds(1000, 10)));
+        // Unknown format of the first block
+        encoded[2] = 7;
+
+        assertThatThrownBy(() -> decodeAll(ByteBuffer.wrap(encoded))).isInstanceOf(IllegalStateException.class).hasMessageContaining("Corrupted");
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdSequenceCodec.Format.class)
+    public void detects_truncated_data(IdSequenceCodec.Format format) throws IOException {
+        long[] ids = generateIds(1000, 10);
+        byte[] encoded = toArray(encode(new IdSequenceCodec(STRUCTURE, format, 64), ids));
+
+        for (int length = 0; length < encoded.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(encoded, 0, length);
+            try {
+                // Cut at a block boundary, only the ids before the cut are decoded
+                long[] decoded = decodeAll(truncated);
+                assertThat(decoded).isEqualTo(Arrays.copyOf(ids, decoded.length));
+            } catch (IllegalStateException e) {
+                assertThat(e).hasMessageContaining("Corrupted");
+            }
+        }
+    }
+
+    @Test
+    public void detects_varints_beyond_the_payload() throws IOException {
+        byte[] encoded = toArray(encode(new IdSequenceCodec(STRUCTURE, IdSequenceCodec.Format.VARINT, 64), 1000, 1001, 1002));
+        // Header: count, format, first id, delta to the last id, payload length, each a single byte except the first id
+        int payloadLength = encoded[11];
+        assertThat(payloadLength).isEqualTo(2);
+        // Continuation bits on all bytes of the payload, so the last varint doesn't end within it
+        encoded[12] |= (byte) 0x80;
+        encoded[13] |= (byte) 0x80;
+
+        assertThatThrownBy(() -> decodeAll(ByteBuffer.wrap(encoded))).isInstanceOf(IllegalStateException.class).hasMessageContaining("Corrupted");
+    }
+
+    /**
+     * Generates ids with a mock clock, which advances by one tick after up to {@code maxIdsPerTick} ids.
+     */
+    private static long[] generateIds(int count, int maxIdsPerTick) {
+        SplittableRandom random = new SplittableRandom(42);
+        MockTimeSource mockTimeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 100_000_000);
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(42, mockTimeSource, STRUCTURE, Options.createDefault());
+        long[] ids = new long[count];
+        int i = 0;
+        long ticks = 100_000_000;
+        while (i < count) {
+            int idsThisTick = Math.min(count - i, random.nextInt(maxIdsPerTick) + 1);
+            generator.next(ids, i, idsThisTick);
+            i += idsThisTick;
+            ticks += maxIdsPerTick == 1 ? random.nextInt(1, 20) : 1;
+            mockTimeSource.setTicks(ticks);
+        }
+        return ids;
+    }
+
+    private static ByteBuffer encode(IdSequenceCodec codec, long... ids) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ids.length * 10 + 100);
+        IdSequenceEncoder encoder = codec.encoder(buffer);
+        encoder.add(ids, 0, ids.length);
+        encoder.finish();
+        return buffer.flip();
+    }
+
+    private static long[] decodeAll(ByteBuffer encoded) {
+        IdSequenceDecoder decoder = IdSequenceCodec.decoder(encoded);
+        long[] ids = new long[16];
+        int count = 0;
+        while (decoder.hasNext()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = decoder.next();
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
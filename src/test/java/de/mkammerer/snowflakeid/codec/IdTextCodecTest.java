@@ -0,0 +1,128 @@
+package de.mkammerer.snowflakeid.codec;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdTextCodecTest {
+    private static final IdTextCodec BASE32 = IdTextCodec.crockfordBase32();
+    private static final IdTextCodec BASE62 = IdTextCodec.base62();
+
+    @Test
+    public void encodes_fixed_width() {
+        assertThat(BASE32.encode(0)).isEqualTo("0000000000000");
+        assertThat(BASE32.encode(32)).isEqualTo("0000000000010");
+        assertThat(BASE32.encode(Long.MAX_VALUE)).isEqualTo("7ZZZZZZZZZZZZ");
+        assertThat(BASE62.encode(0)).isEqualTo("00000000000");
+        assertThat(BASE62.encode(61)).isEqualTo("0000000000z");
+        assertThat(BASE62.encode(Long.MAX_VALUE)).isEqualTo("AzL8n0Y58m7");
+    }
+
+    @Test
+    public void round_trips() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (IdTextCodec codec : List.of(BASE32, BASE62)) {
+            for (int i = 0; i < 10_000; i++) {
+                long id = random.nextLong(Long.MAX_VALUE);
+                assertThat(codec.decode(codec.encode(id))).isEqualTo(id);
+            }
+            assertThat(codec.decode(codec.encode(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void sorts_like_ids() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (IdTextCodec codec : List.of(BASE32, BASE62)) {
+            List<Long> ids = new ArrayList<>();
+            List<String> encoded = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                // Vary the magnitude, so that leading zeros are exercised
+                long id = random.nextLong(Long.MAX_VALUE) >>> random.nextInt(63);
+                ids.add(id);
+                encoded.add(codec.encode(id));
+            }
+            ids.sort(null);
+            encoded.sort(null);
+            for (int i = 0; i < ids.size(); i++) {
+                assertThat(codec.decode(encoded.get(i))).isEqualTo(ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void encodes_into_arrays_and_buffers() {
+        long id = 1234567890123L;
+        String expected = BASE32.encode(id);
+
+        byte[] bytes = new byte[15];
+        BASE32.encode(id, bytes, 2);
+        assertThat(new String(bytes, 2, 13, StandardCharsets.US_ASCII)).isEqualTo(expected);
+        assertThat(BASE32.decode(bytes, 2)).isEqualTo(id);
+
+        char[] chars = new char[14];
+        BASE32.encode(id, chars, 1);
+        assertThat(new String(chars, 1, 13)).isEqualTo(expected);
+
+        for (ByteBuffer buffer : List.of(ByteBuffer.allocate(20), ByteBuffer.allocateDirect(20))) {
+            buffer.position(3);
+            BASE32.encode(id, buffer);
+            assertThat(buffer.position()).isEqualTo(16);
+            byte[] written = new byte[13];
+            buffer.position(3);
+            buffer.get(written);
+            assertThat(new String(written, StandardCharsets.US_ASCII)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void bulk_round_trips() {
+        long[] ids = {0, 1, 42, 1234567890123L, Long.MAX_VALUE};
+        for (IdTextCodec codec : List.of(BASE32, BASE62)) {
+            byte[] bytes = new byte[ids.length * codec.width()];
+            codec.encode(ids, 0, ids.length, bytes, 0);
+            char[] chars = new char[ids.length * codec.width()];
+            codec.encode(ids, 0, ids.length, chars, 0);
+            assertThat(new String(chars)).isEqualTo(new String(bytes, StandardCharsets.US_ASCII));
+
+            long[] fromBytes = new long[ids.length];
+            codec.decode(bytes, 0, fromBytes, 0, ids.length);
+            assertThat(fromBytes).containsExactly(ids);
+
+            long[] fromChars = new long[ids.length + 1];
+            codec.decode(new String(chars), 0, fromChars, 1, ids.length);
+            assertThat(fromChars).containsExactly(0, 0, 1, 42, 1234567890123L, Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void crockford_accepts_aliases() {
+        assertThat(BASE32.decode("000000000001o")).isEqualTo(32);
+        assertThat(BASE32.decode("000000000000I")).isEqualTo(1);
+        assertThat(BASE32.decode("000000000000l")).isEqualTo(1);
+        assertThat(BASE32.decode("00000000000zz")).isEqualTo(BASE32.decode("00000000000ZZ"));
+    }
+
+    @Test
+    public void rejects_invalid_input() {
+        assertThatThrownBy(() -> BASE32.decode("000000000000U")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Invalid");
+        assertThatThrownBy(() -> BASE62.decode("0000000000-0")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Invalid");
+        assertThatThrownBy(() -> BASE62.decode("0000000000ä")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Invalid");
+        assertThatThrownBy(() -> BASE32.decode(new byte[]{'0', '0', '0', '0', '0', '0', '0', '0', '0', '0', '0', '0', (byte) 0xC3}, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BASE32.decode("8000000000000")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("too large");
+        assertThatThrownBy(() -> BASE62.decode("AzL8n0Y58m8")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("too large");
+        assertThatThrownBy(() -> BASE62.decode("zzzzzzzzzzz")).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("too large");
+        assertThatThrownBy(() -> BASE32.decode("000")).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> BASE32.encode(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,157 @@
+package de.mkammerer.snowflakeid.decoder;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdDecoderTest {
+    @Test
+    public void decodes_readme_example() {
+        IdDecoder sut = new IdDecoder(new Structure(45, 2, 16), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+
+        long id = 4425020822061056L;
+
+        assertThat(sut.timestampOf(id)).isEqualTo(16880114830L);
+        assertThat(sut.generatorOf(id)).isEqualTo(1);
+        assertThat(sut.sequenceOf(id)).isEqualTo(0);
+    }
+
+    @Test
+    public void decodes_generated_ids() {
+        MockTimeSource timeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1234);
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(5, timeSource, Structure.createDefault(), Options.createDefault());
+        IdDecoder sut = new IdDecoder(Structure.createDefault(), timeSource);
+
+        generator.next();
+        long id = generator.next();
+
+        assertThat(sut.timestampOf(id)).isEqualTo(1234);
+        assertThat(sut.generatorOf(id)).isEqualTo(5);
+        assertThat(sut.sequenceOf(id)).isEqualTo(1);
+        assertThat(sut.epochMillisOf(id)).isEqualTo(MockTimeSource.DEFAULT_EPOCH.toEpochMilli() + 1234);
+        assertThat(sut.instantOf(id)).isEqualTo(Instant.parse("2020-01-01T00:00:01.234Z"));
+    }
+
+    @Test
+    public void range_bounds() {
+        MockTimeSource timeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1234);
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(1023, timeSource, Structure.createDefault(), Options.createDefault());
+        IdDecoder sut = new IdDecoder(Structure.createDefault(), timeSource);
+        long id = generator.next();
+
+        Instant instant = Instant.parse("2020-01-01T00:00:01.234Z");
+        assertThat(sut.minIdFor(instant)).isLessThanOrEqualTo(id);
+        assertThat(sut.maxIdFor(instant)).isGreaterThanOrEqualTo(id);
+        assertThat(sut.minIdFor(instant)).isEqualTo(1234L << 22);
+        assertThat(sut.maxIdFor(instant)).isEqualTo((1235L << 22) - 1);
+        // Sub-tick precision is ignored
+        assertThat(sut.minIdFor(Instant.parse("2020-01-01T00:00:01.234999Z"))).isEqualTo(1234L << 22);
+        assertThat(sut.minIdFor(Instant.parse("2020-01-01T00:00:01.235Z"))).isGreaterThan(id);
+    }
+
+    @Test
+    public void range_bounds_are_clamped() {
+        IdDecoder sut = new IdDecoder(Structure.createDefault(), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+
+        assertThat(sut.minIdFor(Instant.parse("2019-01-01T00:00:00Z"))).isEqualTo(0);
+        assertThat(sut.maxIdFor(Instant.MAX)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void bulk_decodes_like_single_ids() {
+        IdDecoder sut = new IdDecoder(new Structure(45, 2, 16), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+        long[] ids = randomIds(1000);
+        long[] timestamps = new long[1002];
+        long[] generators = new long[1002];
+        long[] sequences = new long[1002];
+
+        sut.timestampsOf(ids, 0, ids.length, timestamps, 2);
+        sut.generatorsOf(ids, 0, ids.length, generators, 2);
+        sut.sequencesOf(ids, 0, ids.length, sequences, 2);
+
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(timestamps[i + 2]).isEqualTo(sut.timestampOf(ids[i]));
+            assertThat(generators[i + 2]).isEqualTo(sut.generatorOf(ids[i]));
+            assertThat(sequences[i + 2]).isEqualTo(sut.sequenceOf(ids[i]));
+        }
+    }
+
+    @Test
+    public void bulk_decodes_buffers() {
+        IdDecoder sut = new IdDecoder(Structure.createDefault(), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+        long[] ids = randomIds(100);
+        LongBuffer direct = ByteBuffer.allocateDirect(ids.length * Long.BYTES).asLongBuffer().put(ids).flip();
+        LongBuffer dst = LongBuffer.allocate(ids.length);
+        LongBuffer directDst = ByteBuffer.allocateDirect(ids.length * Long.BYTES).asLongBuffer();
+
+        sut.timestampsOf(LongBuffer.wrap(ids), dst);
+        sut.timestampsOf(direct, directDst);
+
+        assertThat(dst.hasRemaining()).isFalse();
+        assertThat(direct.hasRemaining()).isFalse();
+        assertThat(directDst.hasRemaining()).isFalse();
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(dst.get(i)).isEqualTo(sut.timestampOf(ids[i]));
+            assertThat(directDst.get(i)).isEqualTo(sut.timestampOf(ids[i]));
+        }
+        assertThatThrownBy(() -> sut.sequencesOf(LongBuffer.wrap(ids), LongBuffer.allocate(1))).isInstanceOf(BufferOverflowException.class);
+    }
+
+    @Test
+    public void filters_by_time() {
+        IdDecoder sut = new IdDecoder(Structure.createDefault(), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+        long[] ids = {(5L << 22) + 1, 10L << 22, (19L << 22) | 4194303, 20L << 22, 3L << 22, 15L << 22};
+        Instant from = MockTimeSource.DEFAULT_EPOCH.plusMillis(10);
+        Instant to = MockTimeSource.DEFAULT_EPOCH.plusMillis(20);
+        long[] dst = new long[ids.length];
+
+        assertThat(sut.filterByTime(ids, 0, ids.length, from, to, dst, 0)).isEqualTo(3);
+        assertThat(dst).startsWith(10L << 22, (19L << 22) | 4194303, 15L << 22);
+
+        LongBuffer direct = ByteBuffer.allocateDirect(ids.length * Long.BYTES).asLongBuffer().put(ids).flip();
+        LongBuffer directDst = LongBuffer.allocate(3);
+        assertThat(sut.filterByTime(direct, from, to, directDst)).isEqualTo(3);
+        assertThat(directDst.array()).containsExactly(10L << 22, (19L << 22) | 4194303, 15L << 22);
+
+        assertThatThrownBy(() -> sut.filterByTime(ids, 0, ids.length, from, to, new long[3], 0)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void filters_by_time_at_the_last_timestamp() {
+        // Timestamps 0 and 1 only
+        IdDecoder sut = new IdDecoder(new Structure(1, 31, 31), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+        long[] ids = {5, (1L << 62) | 5, Long.MAX_VALUE};
+        long[] dst = new long[ids.length];
+
+        assertThat(sut.filterByTime(ids, 0, ids.length, MockTimeSource.DEFAULT_EPOCH.plusMillis(1), MockTimeSource.DEFAULT_EPOCH.plus(Duration.ofDays(1)), dst, 0)).isEqualTo(2);
+        assertThat(dst).startsWith((1L << 62) | 5, Long.MAX_VALUE);
+        assertThat(sut.filterByTime(ids, 0, ids.length, MockTimeSource.DEFAULT_EPOCH, MockTimeSource.DEFAULT_EPOCH.plusMillis(1), dst, 0)).isEqualTo(1);
+        assertThat(dst[0]).isEqualTo(5);
+        assertThat(sut.filterByTime(ids, 0, ids.length, Instant.EPOCH, MockTimeSource.DEFAULT_EPOCH, dst, 0)).isZero();
+        assertThat(sut.filterByTime(LongBuffer.wrap(ids), MockTimeSource.DEFAULT_EPOCH, Instant.MAX, LongBuffer.allocate(ids.length))).isEqualTo(3);
+    }
+
+    private static long[] randomIds(int count) {
+        SplittableRandom random = new SplittableRandom(1);
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = random.nextLong(Long.MAX_VALUE);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,118 @@
+package de.mkammerer.snowflakeid.decoder;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdHistogramTest {
+    private final IdDecoder decoder = new IdDecoder(Structure.createDefault(), new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0));
+
+    @Test
+    public void counts_ids_per_interval() {
+        IdHistogram sut = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH.plusMillis(100), Duration.ofMillis(10), 3);
+
+        sut.add(new long[]{99L << 22, 100L << 22, (109L << 22) | 4194303, 110L << 22, 125L << 22, 129L << 22, 130L << 22}, 0, 7);
+
+        assertThat(sut.getCounts()).containsExactly(2, 1, 2);
+        assertThat(sut.getOutside()).isEqualTo(2);
+        assertThat(sut.bucketStart(1)).isEqualTo(MockTimeSource.DEFAULT_EPOCH.plusMillis(110));
+    }
+
+    @Test
+    public void buckets_match_division() {
+        for (Duration interval : new Duration[]{Duration.ofMillis(1), Duration.ofMillis(7), Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofMillis(1024)}) {
+            IdHistogram sut = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH, interval, 1000);
+            long intervalMillis = interval.toMillis();
+            long[] expected = new long[1000];
+            SplittableRandom random = new SplittableRandom(1);
+            long[] ids = new long[10_000];
+            for (int i = 0; i < ids.length; i++) {
+                long timestamp = random.nextLong(intervalMillis * 1000);
+                ids[i] = (timestamp << 22) | random.nextLong(1L << 22);
+                expected[(int) (timestamp / intervalMillis)]++;
+            }
+
+            sut.add(LongBuffer.wrap(ids));
+
+            assertThat(sut.getCounts()).as(interval.toString()).containsExactly(expected);
+            assertThat(sut.getOutside()).isZero();
+        }
+    }
+
+    @Test
+    public void bulk_counts_like_single_ids() {
+        // Shift and multiplication, with ids before, in and after the buckets
+        for (Duration interval : new Duration[]{Duration.ofMillis(8), Duration.ofMillis(7)}) {
+            IdHistogram bulk = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH.plusMillis(1000), interval, 100);
+            IdHistogram single = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH.plusMillis(1000), interval, 100);
+            SplittableRandom random = new SplittableRandom(1);
+            long[] ids = new long[10_000];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = (random.nextLong(3000) << 22) | random.nextLong(1L << 22);
+                single.add(ids[i]);
+            }
+
+            bulk.add(ids, 0, ids.length);
+
+            assertThat(bulk.getCounts()).as(interval.toString()).containsExactly(single.getCounts());
+            assertThat(bulk.getOutside()).as(interval.toString()).isEqualTo(single.getOutside()).isPositive();
+        }
+    }
+
+    @Test
+    public void sub_millisecond_ticks() {
+        MonotonicTimeSource timeSource = new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(10_000));
+        IdHistogram sut = new IdHistogram(new IdDecoder(Structure.createDefault(), timeSource), MockTimeSource.DEFAULT_EPOCH, Duration.ofMillis(1), 2);
+        LongBuffer ids = ByteBuffer.allocateDirect(3 * Long.BYTES).asLongBuffer().put(new long[]{99L << 22, 100L << 22, 250L << 22}).flip();
+
+        sut.add(ids);
+
+        assertThat(sut.getCounts()).containsExactly(1, 1);
+        assertThat(sut.getOutside()).isEqualTo(1);
+        assertThat(ids.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void huge_ranges() {
+        IdHistogram sut = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH, Duration.ofDays(365_000), 1000);
+
+        sut.add(Long.MAX_VALUE);
+        sut.add(0);
+
+        assertThat(sut.count(0)).isEqualTo(2);
+    }
+
+    @Test
+    public void clear() {
+        IdHistogram sut = new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH, Duration.ofMillis(1), 1);
+        sut.add(0);
+        sut.add(1L << 22);
+
+        sut.clear();
+
+        assertThat(sut.count(0)).isZero();
+        assertThat(sut.getOutside()).isZero();
+    }
+
+    @Test
+    public void validates_arguments() {
+        assertThatThrownBy(() -> new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(1_500_000), 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("interval");
+        assertThatThrownBy(() -> new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH, Duration.ofMillis(1), 0))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("buckets");
+        assertThatThrownBy(() -> new IdHistogram(decoder, MockTimeSource.DEFAULT_EPOCH.minusMillis(1), Duration.ofMillis(1), 1))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("from");
+    }
+}
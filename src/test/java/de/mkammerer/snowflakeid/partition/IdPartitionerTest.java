@@ -0,0 +1,127 @@
+package de.mkammerer.snowflakeid.partition;
+
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdPartitionerTest {
+    private static final Structure STRUCTURE = Structure.createDefault();
+
+    @Test
+    public void routes_by_generator() {
+        IdPartitioner sut = IdPartitioner.byGenerator(STRUCTURE, 8);
+        int[] counts = new int[8];
+
+        for (long generator = 0; generator < 1024; generator++) {
+            int partition = sut.partitionOf((100L << 22) | (generator << 12));
+            // Other timestamps and sequences of the same generator
+            assertThat(sut.partitionOf((5000L << 22) | (generator << 12) | 4095)).isEqualTo(partition);
+            counts[partition]++;
+        }
+
+        assertThat(IntStream.of(counts).min().getAsInt()).isGreaterThanOrEqualTo(96);
+        assertThat(IntStream.of(counts).max().getAsInt()).isLessThanOrEqualTo(160);
+    }
+
+    @Test
+    public void hash_spreads_ids_of_one_tick() {
+        IdPartitioner sut = IdPartitioner.byHash(STRUCTURE, 12);
+        int[] counts = new int[12];
+
+        for (long sequence = 0; sequence < 4096; sequence++) {
+            counts[sut.partitionOf((100L << 22) | (3 << 12) | sequence)]++;
+        }
+
+        // 4096 / 12 is about 341
+        assertThat(IntStream.of(counts).min().getAsInt()).isGreaterThanOrEqualTo(290);
+        assertThat(IntStream.of(counts).max().getAsInt()).isLessThanOrEqualTo(390);
+    }
+
+    @Test
+    public void routes_by_time_bucket() {
+        IdPartitioner sut = IdPartitioner.byTime(STRUCTURE, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0), Duration.ofHours(1), 4);
+        long hour = Duration.ofHours(1).toMillis();
+        int[] counts = new int[4];
+
+        for (long bucket = 0; bucket < 400; bucket++) {
+            int partition = sut.partitionOf((bucket * hour) << 22);
+            assertThat(sut.partitionOf((((bucket + 1) * hour - 1) << 22) | 4194303)).isEqualTo(partition);
+            counts[partition]++;
+        }
+
+        assertThat(IntStream.of(counts).min().getAsInt()).isGreaterThanOrEqualTo(70);
+        assertThat(IntStream.of(counts).max().getAsInt()).isLessThanOrEqualTo(130);
+    }
+
+    @Test
+    public void growing_moves_few_ids() {
+        IdPartitioner before = IdPartitioner.byHash(STRUCTURE, 10);
+        IdPartitioner after = before.withPartitions(11);
+        SplittableRandom random = new SplittableRandom(1);
+
+        int moved = 0;
+        for (int i = 0; i < 100_000; i++) {
+            long id = random.nextLong(Long.MAX_VALUE);
+            int partition = after.partitionOf(id);
+            if (partition != before.partitionOf(id)) {
+                // Ids only move to the new partition
+                assertThat(partition).isEqualTo(10);
+                moved++;
+            }
+        }
+
+        // 1 / 11 of the ids is about 9091
+        assertThat(moved).isBetween(8500, 9700);
+    }
+
+    @Test
+    public void single_partition() {
+        IdPartitioner sut = IdPartitioner.byHash(STRUCTURE, 1);
+
+        assertThat(sut.partitionOf(0)).isZero();
+        assertThat(sut.partitionOf(Long.MAX_VALUE)).isZero();
+    }
+
+    @Test
+    public void bulk_routes_like_single_ids() {
+        IdPartitioner sut = IdPartitioner.byHash(STRUCTURE, 7);
+        SplittableRandom random = new SplittableRandom(1);
+        long[] ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextLong(Long.MAX_VALUE);
+        }
+        int[] partitions = new int[ids.length];
+        LongBuffer direct = ByteBuffer.allocateDirect(ids.length * Long.BYTES).asLongBuffer().put(ids).flip();
+        IntBuffer directPartitions = ByteBuffer.allocateDirect(ids.length * Integer.BYTES).asIntBuffer();
+
+        sut.partitionsOf(ids, 0, ids.length, partitions, 0);
+        sut.partitionsOf(direct, directPartitions);
+
+        assertThat(directPartitions.hasRemaining()).isFalse();
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(partitions[i]).isEqualTo(sut.partitionOf(ids[i]));
+            assertThat(directPartitions.get(i)).isEqualTo(partitions[i]);
+        }
+    }
+
+    @Test
+    public void validates_arguments() {
+        assertThatThrownBy(() -> IdPartitioner.byHash(STRUCTURE, 0))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("partitions");
+        assertThatThrownBy(() -> IdPartitioner.byTime(STRUCTURE, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0), Duration.ofNanos(1_500_000), 4))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("timeBucket");
+    }
+}
@@ -0,0 +1,126 @@
+package de.mkammerer.snowflakeid.pool;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdPoolTest {
+    @Test
+    public void prefills_pool() throws InterruptedException {
+        try (IdPool sut = IdPool.createDefault(SnowflakeIdGenerator.createDefault(0))) {
+            waitForSize(sut, sut.capacity());
+
+            long first = sut.take();
+            long second = sut.take();
+            assertThat(second).isGreaterThan(first);
+            assertThat(sut.getFallbacks()).isZero();
+        }
+    }
+
+    @Test
+    public void unique_ids_from_multiple_threads() throws Exception {
+        int workers = 8;
+        int idsPerWorker = 50_000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try (IdPool sut = new IdPool(SnowflakeIdGenerator.createDefault(0), 256, 64, IdPool.StaleIdStrategy.KEEP, Duration.ofSeconds(1))) {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(() -> {
+                    long[] ids = new long[idsPerWorker];
+                    for (int j = 0; j < idsPerWorker; j++) {
+                        ids[j] = sut.take();
+                    }
+                    return ids;
+                }));
+            }
+
+            Set<Long> ids = new HashSet<>(workers * idsPerWorker);
+            for (Future<long[]> future : futures) {
+                for (long id : future.get()) {
+                    if (!ids.add(id)) {
+                        fail(id + " is a duplicate");
+                    }
+                }
+            }
+            assertThat(ids).hasSize(workers * idsPerWorker);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void falls_back_to_generator_after_close() {
+        IdPool sut = new IdPool(SnowflakeIdGenerator.createDefault(0), 16, 4, IdPool.StaleIdStrategy.KEEP, Duration.ofSeconds(1));
+        sut.close();
+
+        for (int i = 0; i < 32; i++) {
+            sut.take();
+        }
+        assertThat(sut.getFallbacks()).isGreaterThanOrEqualTo(16);
+    }
+
+    @Test
+    public void discards_stale_ids() throws InterruptedException {
+        MockTimeSource timeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(0, timeSource, Structure.createDefault(), Options.createDefault());
+        try (IdPool sut = new IdPool(generator, 16, 4, IdPool.StaleIdStrategy.DISCARD, Duration.ofMillis(20))) {
+            waitForSize(sut, sut.capacity());
+
+            // All ids in the pool are now older than 20 ticks. The producer looks for stale ids every 10 ms, discards them
+            // and refills the pool
+            timeSource.setTicks(100);
+            Thread.sleep(200);
+            waitForSize(sut, sut.capacity());
+            assertThat(sut.take() >> 22).isEqualTo(100);
+        }
+    }
+
+    @Test
+    public void keeps_ids_generated_before_a_failure() throws InterruptedException {
+        // 4 ids per tick, then the sequence overflows
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(0, new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1), new Structure(41, 20, 2), new Options(Options.SequenceOverflowStrategy.THROW_EXCEPTION));
+        try (IdPool sut = new IdPool(generator, 16, 0, IdPool.StaleIdStrategy.KEEP, Duration.ofSeconds(1))) {
+            waitForSize(sut, 4);
+
+            Set<Long> ids = new HashSet<>();
+            for (int i = 0; i < 4; i++) {
+                ids.add(sut.take());
+            }
+            assertThat(ids).hasSize(4);
+        }
+    }
+
+    @Test
+    public void low_water_mark_must_be_less_than_capacity() {
+        assertThatThrownBy(() ->
+            new IdPool(SnowflakeIdGenerator.createDefault(0), 16, 16, IdPool.StaleIdStrategy.KEEP, Duration.ofSeconds(1))
+        ).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("lowWaterMark");
+    }
+
+    private static void waitForSize(IdPool pool, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (pool.size() != size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(pool.size()).isEqualTo(size);
+    }
+}
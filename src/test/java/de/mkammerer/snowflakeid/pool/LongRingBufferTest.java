@@ -0,0 +1,168 @@
+package de.mkammerer.snowflakeid.pool;
+
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class LongRingBufferTest {
+    @Test
+    public void fifo() {
+        LongRingBuffer sut = new LongRingBuffer(4);
+
+        assertThat(sut.poll()).isEqualTo(LongRingBuffer.EMPTY);
+        assertThat(sut.offer(1)).isTrue();
+        assertThat(sut.offer(2)).isTrue();
+        assertThat(sut.size()).isEqualTo(2);
+        assertThat(sut.poll()).isEqualTo(1);
+        assertThat(sut.poll()).isEqualTo(2);
+        assertThat(sut.poll()).isEqualTo(LongRingBuffer.EMPTY);
+    }
+
+    @Test
+    public void poll_if_only_removes_matching_value() {
+        LongRingBuffer sut = new LongRingBuffer(4);
+
+        assertThat(sut.pollIf(value -> true)).isEqualTo(LongRingBuffer.EMPTY);
+        sut.offer(1);
+        sut.offer(2);
+        sut.offer(3);
+        assertThat(sut.pollIf(value -> value < 2)).isEqualTo(1);
+        assertThat(sut.pollIf(value -> value < 2)).isEqualTo(LongRingBuffer.EMPTY);
+        assertThat(sut.size()).isEqualTo(2);
+        assertThat(sut.poll()).isEqualTo(2);
+        assertThat(sut.poll()).isEqualTo(3);
+    }
+
+    @Test
+    public void bounded() {
+        LongRingBuffer sut = new LongRingBuffer(3);
+
+        assertThat(sut.capacity()).isEqualTo(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(sut.offer(i)).isTrue();
+        }
+        assertThat(sut.offer(4)).isFalse();
+        assertThat(sut.poll()).isEqualTo(0);
+        assertThat(sut.offer(4)).isTrue();
+        assertThat(sut.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void capacity_must_be_positive() {
+        assertThatThrownBy(() -> new LongRingBuffer(0)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("capacity");
+    }
+
+    @Test
+    public void concurrent_consumers_see_every_value_once() throws Exception {
+        int values = 20_000;
+        int consumers = 4;
+        LongRingBuffer sut = new LongRingBuffer(64);
+        ExecutorService executorService = Executors.newFixedThreadPool(consumers + 1);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < consumers; i++) {
+                futures.add(executorService.submit(() -> {
+                    List<Long> taken = new ArrayList<>();
+                    long value;
+                    while ((value = sut.poll()) != Long.MAX_VALUE) {
+                        if (value == LongRingBuffer.EMPTY) {
+                            Thread.yield();
+                        } else {
+                            taken.add(value);
+                        }
+                    }
+                    return taken;
+                }));
+            }
+            executorService.submit(() -> {
+                for (long i = 0; i < values; i++) {
+                    while (!sut.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                // Poison pills
+                for (int i = 0; i < consumers; i++) {
+                    while (!sut.offer(Long.MAX_VALUE)) {
+                        Thread.yield();
+                    }
+                }
+            });
+
+            Set<Long> seen = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                List<Long> taken = future.get();
+                for (int i = 1; i < taken.size(); i++) {
+                    // Every consumer sees the values in order
+                    assertThat(taken.get(i)).isGreaterThan(taken.get(i - 1));
+                }
+                seen.addAll(taken);
+            }
+            assertThat(seen).hasSize(values);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void poll_if_never_removes_a_value_it_did_not_check() throws Exception {
+        int values = 20_000;
+        LongRingBuffer sut = new LongRingBuffer(64);
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            Future<List<Long>> polled = executorService.submit(() -> {
+                List<Long> taken = new ArrayList<>();
+                long value;
+                while ((value = sut.poll()) != Long.MAX_VALUE) {
+                    if (value == LongRingBuffer.EMPTY) {
+                        Thread.yield();
+                    } else {
+                        taken.add(value);
+                    }
+                }
+                return taken;
+            });
+            Future<List<Long>> polledIf = executorService.submit(() -> {
+                List<Long> taken = new ArrayList<>();
+                while (!polled.isDone()) {
+                    long value = sut.pollIf(v -> v % 2 == 0 && v != Long.MAX_VALUE);
+                    if (value != LongRingBuffer.EMPTY) {
+                        taken.add(value);
+                    }
+                }
+                return taken;
+            });
+            executorService.submit(() -> {
+                for (long i = 0; i < values; i++) {
+                    while (!sut.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                // Poison pill
+                while (!sut.offer(Long.MAX_VALUE)) {
+                    Thread.yield();
+                }
+            });
+
+            List<Long> conditional = polledIf.get();
+            assertThat(conditional).allMatch(value -> value % 2 == 0);
+            Set<Long> seen = new HashSet<>(polled.get());
+            seen.addAll(conditional);
+            assertThat(seen).hasSize(values);
+            assertThat(polled.get().size() + conditional.size()).isEqualTo(values);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
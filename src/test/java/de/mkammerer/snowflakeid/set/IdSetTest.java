@@ -0,0 +1,186 @@
+package de.mkammerer.snowflakeid.set;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class IdSetTest {
+    private final MockTimeSource timeSource = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 0);
+    private final IdSet sut = new IdSet(Structure.createDefault(), timeSource);
+
+    @Test
+    public void behaves_like_a_set() {
+        SplittableRandom random = new SplittableRandom(42);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            // Few buckets, so that some of them are converted to bitmaps
+            long id = random.nextLong(1L << 20) << 10 | random.nextLong(1 << 14);
+            assertThat(sut.add(id)).isEqualTo(expected.add(id));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            // Sparse ids
+            long id = random.nextLong(Long.MAX_VALUE);
+            assertThat(sut.add(id)).isEqualTo(expected.add(id));
+        }
+
+        assertThat(sut.size()).isEqualTo(expected.size());
+        for (long id : expected) {
+            assertThat(sut.contains(id)).isTrue();
+            assertThat(sut.contains(id + 1)).isEqualTo(expected.contains(id + 1));
+        }
+        assertThat(toList(sut.iterator())).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void ranges() {
+        SplittableRandom random = new SplittableRandom(42);
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            long id = random.nextLong(1L << 24);
+            sut.add(id);
+            expected.add(id);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            long from = random.nextLong(1L << 24);
+            long to = from + random.nextLong(1L << 18);
+            assertThat(toList(sut.range(from, to))).containsExactlyElementsOf(expected.subSet(from, to));
+        }
+        assertThat(sut.range(10, 10).hasNext()).isFalse();
+        assertThat(toList(sut.range(-5, 1L << 25))).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void range_by_time() {
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(7, timeSource, Structure.createDefault(), Options.createDefault());
+        List<Long> between = new ArrayList<>();
+        for (int tick = 0; tick < 100; tick++) {
+            timeSource.setTicks(tick);
+            for (int i = 0; i < 10; i++) {
+                long id = generator.next();
+                sut.add(id);
+                if (tick >= 10 && tick < 20) {
+                    between.add(id);
+                }
+            }
+        }
+
+        PrimitiveIterator.OfLong iterator = sut.rangeByTime(Instant.parse("2020-01-01T00:00:00.010Z"), Instant.parse("2020-01-01T00:00:00.020Z"));
+
+        assertThat(toList(iterator)).containsExactlyElementsOf(between);
+        assertThat(sut.rangeByTime(Instant.parse("2019-01-01T00:00:00Z"), Instant.parse("2020-01-01T00:00:00Z")).hasNext()).isFalse();
+    }
+
+    @Test
+    public void removes_old_ids() {
+        SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(7, timeSource, Structure.createDefault(), Options.createDefault());
+        List<Long> remaining = new ArrayList<>();
+        for (int tick = 0; tick < 100; tick++) {
+            timeSource.setTicks(tick);
+            // One bucket is converted to a bitmap
+            for (int i = 0; i < (tick == 50 ? 4000 : 5); i++) {
+                long id = generator.next();
+                sut.add(id);
+                if (tick >= 42) {
+                    remaining.add(id);
+                }
+            }
+        }
+
+        assertThat(sut.removeBefore(Instant.parse("2020-01-01T00:00:00.042Z"))).isEqualTo(42 * 5);
+        assertThat(sut.size()).isEqualTo(remaining.size());
+        assertThat(toList(sut.iterator())).containsExactlyElementsOf(remaining);
+        assertThat(sut.removeBefore(Instant.parse("2020-01-01T00:00:00.042Z"))).isZero();
+
+        // Ids can be added before the remaining buckets
+        sut.add(1);
+        assertThat(sut.contains(1)).isTrue();
+
+        assertThat(sut.removeBefore(Instant.parse("2021-01-01T00:00:00Z"))).isEqualTo(remaining.size() + 1);
+        assertThat(sut.isEmpty()).isTrue();
+        assertThat(sut.iterator().hasNext()).isFalse();
+    }
+
+    @Test
+    public void buckets_dont_span_ticks() {
+        // 10 generator and sequence bits, so every tick gets a bucket of its own
+        IdSet sut = new IdSet(new Structure(53, 5, 5), timeSource);
+        for (long id = 0; id < 100_000; id++) {
+            sut.add(id * 7);
+        }
+
+        // Tick 100 starts at id 102400
+        long removed = sut.removeBefore(Instant.parse("2020-01-01T00:00:00.100Z"));
+
+        assertThat(removed).isEqualTo((102400 + 6) / 7);
+        assertThat(sut.iterator().nextLong()).isEqualTo(102403);
+        // Ids up to 699993 are in ticks 0 to 683
+        assertThat(sut).hasToString("IdSet{size=" + (100_000 - removed) + ", buckets=584}");
+    }
+
+    @Test
+    public void time_ranges_after_the_wraparound_include_the_last_timestamp() {
+        // Timestamps 0 and 1 only
+        IdSet sut = new IdSet(new Structure(1, 31, 31), timeSource);
+        sut.add(5);
+        sut.add((1L << 62) | 5);
+        sut.add(Long.MAX_VALUE);
+        Instant afterWraparound = MockTimeSource.DEFAULT_EPOCH.plus(Duration.ofDays(1));
+
+        assertThat(toList(sut.rangeByTime(MockTimeSource.DEFAULT_EPOCH.plusMillis(1), afterWraparound))).containsExactly((1L << 62) | 5, Long.MAX_VALUE);
+        assertThat(toList(sut.rangeByTime(MockTimeSource.DEFAULT_EPOCH, Instant.MAX))).containsExactly(5L, (1L << 62) | 5, Long.MAX_VALUE);
+        assertThat(sut.removeBefore(MockTimeSource.DEFAULT_EPOCH)).isZero();
+        assertThat(sut.removeBefore(afterWraparound)).isEqualTo(3);
+        assertThat(sut.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void removal_counts_ids_added_to_older_buckets() {
+        // Every tick gets buckets of its own
+        IdSet sut = new IdSet(new Structure(53, 5, 5), timeSource);
+        for (long tick = 0; tick < 100; tick++) {
+            sut.add(tick << 10);
+        }
+        // Out of order, into existing and new buckets before the last one
+        for (long tick = 0; tick < 100; tick += 2) {
+            sut.add((tick << 10) | 1);
+        }
+        sut.add((200L << 10) | 1);
+        sut.add((150L << 10) | 1);
+
+        assertThat(sut.removeBefore(Instant.parse("2020-01-01T00:00:00.010Z"))).isEqualTo(15);
+        assertThat(sut.removeBefore(Instant.parse("2020-01-01T00:00:00.151Z"))).isEqualTo(90 + 45 + 1);
+        assertThat(sut.size()).isEqualTo(1);
+        assertThat(sut.removeBefore(Instant.MAX)).isEqualTo(1);
+    }
+
+    @Test
+    public void rejects_negative_ids() {
+        assertThatThrownBy(() -> sut.add(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(sut.contains(-1)).isFalse();
+        assertThatThrownBy(() -> sut.iterator().nextLong()).isInstanceOf(NoSuchElementException.class);
+    }
+
+    private static List<Long> toList(PrimitiveIterator.OfLong iterator) {
+        List<Long> result = new ArrayList<>();
+        iterator.forEachRemaining((long id) -> result.add(id));
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package de.mkammerer.snowflakeid.structure;
 
 import de.mkammerer.snowflakeid.test.MockTimeSource;
+import de.mkammerer.snowflakeid.time.MonotonicTimeSource;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Test;
@@ -94,4 +95,15 @@ public class StructureTest {
         // epoch + 2147483648 milliseconds
         assertThat(structure.calculateWraparoundDate(mockTimeSource)).isEqualTo(Instant.parse("2020-01-25T20:31:23.648Z"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void calculate_wraparound_with_sub_millisecond_ticks() {
+        Structure structure = new Structure(41, 10, 12);
+
+        MonotonicTimeSource timeSource = new MonotonicTimeSource(Instant.parse("2020-01-01T00:00:00Z"), Duration.ofNanos(10_000));
+
+        // 2^41 * 10 microseconds
+        assertThat(structure.calculateWraparoundDuration(timeSource)).isEqualTo(Duration.ofNanos(21990232555520000L));
+        assertThat(structure.calculateWraparoundDate(timeSource)).isEqualTo(Instant.parse("2020-09-11T12:23:52.555520Z"));
+    }
+}
@@ -9,7 +9,7 @@ public class MockTimeSource implements TimeSource {
     public static final Instant DEFAULT_EPOCH = Instant.parse("2020-01-01T00:00:00Z");
 
     private final Instant epoch;
-    private long ticks;
+    private volatile long ticks;
 
     public MockTimeSource(Instant epoch, long ticks) {
         this.epoch = epoch;
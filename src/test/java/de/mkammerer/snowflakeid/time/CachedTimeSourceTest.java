@@ -0,0 +1,93 @@
+package de.mkammerer.snowflakeid.time;
+
+import de.mkammerer.snowflakeid.SnowflakeIdGenerator;
+import de.mkammerer.snowflakeid.options.Options;
+import de.mkammerer.snowflakeid.structure.Structure;
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class CachedTimeSourceTest {
+    @Test
+    public void increasing() throws InterruptedException {
+        try (CachedTimeSource sut = new CachedTimeSource(new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH))) {
+            long start = sut.getTicks();
+            Thread.sleep(10);
+            long next = sut.getTicks();
+
+            assertThat(next).isGreaterThan(start);
+        }
+    }
+
+    @Test
+    public void never_moves_backwards() throws InterruptedException {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        try (CachedTimeSource sut = new CachedTimeSource(delegate, Duration.ofMillis(1))) {
+            assertThat(sut.getTicks()).isEqualTo(10);
+
+            delegate.setTicks(5);
+            Thread.sleep(10);
+            assertThat(sut.getTicks()).isEqualTo(10);
+
+            delegate.setTicks(20);
+            waitForTicks(sut, 20);
+            assertThat(sut.getTicks()).isEqualTo(20);
+        }
+    }
+
+    @Test
+    public void uses_delegate_after_close() {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        CachedTimeSource sut = new CachedTimeSource(delegate, Duration.ofMillis(1));
+        sut.close();
+
+        delegate.setTicks(20);
+        assertThat(sut.getTicks()).isEqualTo(20);
+        delegate.setTicks(5);
+        assertThat(sut.getTicks()).isEqualTo(20);
+    }
+
+    @Test
+    public void delegates_epoch_and_tick_duration() {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        try (CachedTimeSource sut = new CachedTimeSource(delegate)) {
+            assertThat(sut.getEpoch()).isEqualTo(MockTimeSource.DEFAULT_EPOCH);
+            assertThat(sut.getTickDuration()).isEqualTo(Duration.ofMillis(1));
+        }
+    }
+
+    @Test
+    public void poll_interval_must_be_positive() {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+
+        assertThatThrownBy(() -> new CachedTimeSource(delegate, Duration.ZERO)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("pollInterval");
+    }
+
+    @Test
+    public void works_with_generator() {
+        try (CachedTimeSource timeSource = CachedTimeSource.createDefault()) {
+            SnowflakeIdGenerator generator = SnowflakeIdGenerator.createCustom(0, timeSource, new Structure(50, 10, 3), Options.createDefault());
+
+            long last = -1;
+            for (int i = 0; i < 1000; i++) {
+                long id = generator.next();
+                assertThat(id).isGreaterThan(last);
+                last = id;
+            }
+        }
+    }
+
+    private static void waitForTicks(TimeSource timeSource, long ticks) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (timeSource.getTicks() < ticks && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package de.mkammerer.snowflakeid.time;
+
+import de.mkammerer.snowflakeid.test.MockTimeSource;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class CheckpointedTimeSourceTest {
+    private static final Duration LEASE = Duration.ofMillis(100);
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    public void renews_lease_ahead_of_its_end() throws IOException {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, tempDir.resolve("checkpoint"), LEASE, Duration.ZERO)) {
+            assertThat(sut.getTicks()).isEqualTo(10);
+            assertThat(sut.getLeaseEnd()).isEqualTo(110);
+
+            delegate.setTicks(59);
+            assertThat(sut.getTicks()).isEqualTo(59);
+            assertThat(sut.getLeaseEnd()).isEqualTo(110);
+
+            // Half of the lease has passed
+            delegate.setTicks(60);
+            awaitLeaseEnd(sut, 160);
+            assertThat(sut.getTicks()).isEqualTo(60);
+        }
+    }
+
+    @Test
+    public void get_ticks_doesnt_block_while_renewing() throws Exception {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, tempDir.resolve("checkpoint"), LEASE, Duration.ZERO)) {
+            // The renewer writes the lease while holding the monitor, so holding it stalls the renewal
+            synchronized (sut) {
+                delegate.setTicks(60);
+                assertThat(executorService.submit(sut::getTicks).get(1, TimeUnit.SECONDS)).isEqualTo(60);
+
+                // The renewer is behind, the ticks stand still at the end of the lease
+                delegate.setTicks(200);
+                assertThat(executorService.submit(sut::getTicks).get(1, TimeUnit.SECONDS)).isEqualTo(109);
+                assertThat(sut.getLeaseEnd()).isEqualTo(110);
+            }
+
+            awaitLeaseEnd(sut, 300);
+            assertThat(sut.getTicks()).isEqualTo(200);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void get_ticks_fails_after_close_when_lease_ends() throws IOException {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, tempDir.resolve("checkpoint"), LEASE, Duration.ZERO);
+        sut.close();
+
+        delegate.setTicks(109);
+        assertThat(sut.getTicks()).isEqualTo(109);
+        delegate.setTicks(110);
+        assertThatThrownBy(sut::getTicks).isInstanceOf(IllegalStateException.class).hasMessageContaining("closed");
+    }
+
+    @Test
+    public void refuses_to_start_behind_previous_lease() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO).close();
+
+        // Restart with a clock which has been set back
+        delegate.setTicks(500);
+        assertThatThrownBy(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("behind the checkpoint");
+    }
+
+    @Test
+    public void waits_until_clock_passes_previous_lease() throws Exception {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO).close();
+
+        delegate.setTicks(1050);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<CheckpointedTimeSource> future = executorService.submit(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ofSeconds(1)));
+            Thread.sleep(50);
+            assertThat(future).isNotDone();
+
+            // The previous run may have borrowed up to half a lease beyond its lease
+            delegate.setTicks(1100);
+            Thread.sleep(50);
+            assertThat(future).isNotDone();
+
+            delegate.setTicks(1150);
+            try (CheckpointedTimeSource sut = future.get(5, TimeUnit.SECONDS)) {
+                assertThat(sut.getTicks()).isEqualTo(1150);
+                assertThat(sut.getLeaseEnd()).isEqualTo(1250);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void restarts_with_clock_ahead_of_previous_lease() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO).close();
+
+        delegate.setTicks(5000);
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO)) {
+            assertThat(sut.getTicks()).isEqualTo(5000);
+            assertThat(sut.getLeaseEnd()).isEqualTo(5100);
+        }
+    }
+
+    @Test
+    public void allows_a_drift_of_half_the_lease() throws IOException {
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 10);
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, tempDir.resolve("checkpoint"), LEASE, Duration.ZERO)) {
+            assertThat(sut.getMaxDrift()).isEqualTo(Duration.ofMillis(50));
+        }
+    }
+
+    @Test
+    public void only_one_instance_can_open_the_file() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        try (CheckpointedTimeSource ignored = new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO)) {
+            assertThatThrownBy(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO))
+                .isInstanceOf(IOException.class).hasMessageContaining("locked");
+        }
+    }
+
+    @Test
+    public void refuses_file_with_different_epoch() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        new CheckpointedTimeSource(new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000), file, LEASE, Duration.ZERO).close();
+
+        MockTimeSource otherEpoch = new MockTimeSource(Instant.parse("2021-01-01T00:00:00Z"), 1000);
+        assertThatThrownBy(() -> new CheckpointedTimeSource(otherEpoch, file, LEASE, Duration.ZERO))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("epoch");
+    }
+
+    @Test
+    public void detects_corrupted_file() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO).close();
+
+        byte[] content = Files.readAllBytes(file);
+        // Flip a bit in the lease, so its checksum doesn't match
+        content[32] ^= 1;
+        Files.write(file, content);
+        assertThatThrownBy(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("corrupted");
+
+        Files.write(file, new byte[10]);
+        assertThatThrownBy(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("corrupted");
+    }
+
+    @Test
+    public void uses_other_slot_if_latest_lease_is_torn() throws IOException {
+        Path file = tempDir.resolve("checkpoint");
+        MockTimeSource delegate = new MockTimeSource(MockTimeSource.DEFAULT_EPOCH, 1000);
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO)) {
+            // Second lease goes into the second slot
+            delegate.setTicks(1050);
+            awaitLeaseEnd(sut, 1150);
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        content[48] ^= 1;
+        Files.write(file, content);
+
+        // The first lease ends at 1100, plus half a lease for borrowed timestamps
+        delegate.setTicks(1149);
+        assertThatThrownBy(() -> new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO))
+            .isInstanceOf(IllegalStateException.class).hasMessageContaining("behind the checkpoint");
+        delegate.setTicks(1150);
+        try (CheckpointedTimeSource sut = new CheckpointedTimeSource(delegate, file, LEASE, Duration.ZERO)) {
+            assertThat(sut.getLeaseEnd()).isEqualTo(1250);
+        }
+    }
+
+    private static void awaitLeaseEnd(CheckpointedTimeSource sut, long leaseEnd) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sut.getLeaseEnd() != leaseEnd && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertThat(sut.getLeaseEnd()).isEqualTo(leaseEnd);
+    }
+}
@@ -6,7 +6,12 @@ import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
 public class MonotonicTimeSourceTest {
@@ -25,4 +30,100 @@ public class MonotonicTimeSourceTest {
 
         assertThat(next).isGreaterThan(start);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void nanos_until_tick() {
+        long ticks = sut.getTicks();
+        long current = sut.nanosUntilTick(ticks);
+        // Asked first, so the time between the calls only increases the difference to the next tick
+        long later = sut.nanosUntilTick(ticks + 3);
+        long next = sut.nanosUntilTick(ticks + 1);
+
+        assertThat(current).isZero();
+        assertThat(next).isBetween(0L, 1_000_000L);
+        assertThat(later).isBetween(0L, 3_000_000L);
+        if (next > 0) {
+            // Tick + 3 starts 2 ms after tick + 1
+            assertThat(later - next).isGreaterThanOrEqualTo(2_000_000L);
+        }
+    }
+
+    @Test
+    public void tick_starts_after_nanos_until_tick() {
+        long next = sut.getTicks() + 1;
+        long nanos = sut.nanosUntilTick(next);
+        long deadline = System.nanoTime() + nanos;
+
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(sut.getTicks()).isGreaterThanOrEqualTo(next);
+    }
+
+    @Test
+    public void sub_millisecond_ticks() {
+        // Created back to back, as every time source reads the wall clock once to anchor its ticks to the epoch
+        MonotonicTimeSource millis = new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH);
+        MonotonicTimeSource micros = new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(10_000));
+
+        long millisTicks = millis.getTicks();
+        long ticks = micros.getTicks();
+
+        assertThat(micros.getTickDuration()).isEqualTo(Duration.ofNanos(10_000));
+        // Both are anchored to the epoch. Allow for wall clock adjustments between the two anchors, as in
+        // ticks_are_anchored_to_the_epoch
+        assertThat(ticks / 100).isBetween(millisTicks - 10, millisTicks + 10);
+    }
+
+    @Test
+    public void nanos_until_sub_millisecond_tick() {
+        MonotonicTimeSource micros = new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(100_000));
+
+        long ticks = micros.getTicks();
+
+        assertThat(micros.nanosUntilTick(ticks)).isZero();
+        assertThat(micros.nanosUntilTick(ticks + 10)).isBetween(0L, 1_000_000L);
+        // Asked first, so the time between the calls only increases the difference to tick 10
+        long later = micros.nanosUntilTick(ticks + 20);
+        long next = micros.nanosUntilTick(ticks + 10);
+        assertThat(later).isBetween(0L, 2_000_000L);
+        if (next > 0) {
+            // Tick 20 starts 1 ms after tick 10
+            assertThat(later - next).isGreaterThanOrEqualTo(1_000_000L);
+        }
+    }
+
+    @Test
+    public void ticks_are_anchored_to_the_epoch() {
+        Instant epoch = Instant.now().minusSeconds(1);
+        MonotonicTimeSource micros = new MonotonicTimeSource(epoch, Duration.ofNanos(100_000));
+
+        long expected = Duration.between(epoch, Instant.now()).toNanos() / 100_000;
+
+        assertThat(micros.getTicks()).isBetween(expected - 100, expected + 100);
+    }
+
+    @Test
+    public void divide_is_exact() {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] tickNanos = {1, 2, 3, 7, 1_000, 1_024, 10_000, 100_000, 999_999, 1_000_000, 1_000_000_000, (1L << 40) + 1, Long.MAX_VALUE / 2};
+        for (long tick : tickNanos) {
+            MonotonicTimeSource source = new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(tick));
+            for (int i = 0; i < 100_000; i++) {
+                long nanos = random.nextLong(1L << 62);
+                assertThat(source.divide(nanos)).as("%d / %d", nanos, tick).isEqualTo(nanos / tick);
+            }
+            for (long nanos : new long[]{0, tick - 1, tick, tick + 1, (1L << 62) - 1, 1L << 62, Long.MAX_VALUE, -1, -tick}) {
+                assertThat(source.divide(nanos)).as("%d / %d", nanos, tick).isEqualTo(Math.floorDiv(nanos, tick));
+            }
+        }
+    }
+
+    @Test
+    public void tick_duration_must_be_positive() {
+        assertThatThrownBy(() -> new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ZERO))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("tickDuration");
+        assertThatThrownBy(() -> new MonotonicTimeSource(MockTimeSource.DEFAULT_EPOCH, Duration.ofNanos(-1)))
+            .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("tickDuration");
+    }
+}